@@ -154,6 +154,7 @@ public class AdminCategoriesActivity extends AppCompatActivity {
             categoryData.put("name", name);
             categoryData.put("imageUrl", imageUrl);
             categoryData.put("timestamp", FieldValue.serverTimestamp());
+            categoryData.put(CatalogSync.UPDATED_AT, FieldValue.serverTimestamp());
 
             db.collection("categories")
                     .add(categoryData)
@@ -54,6 +54,8 @@ import java.util.Map;
  *
  * Взаимодействие с Firestore:
  * - Добавление, обновление и удаление категорий через методы Firestore.
+ * - При обновлении записывается updatedAt, а удаление выполняется через CatalogSync.deleteWithTombstone(),
+ *   чтобы изменение дошло до локального каталога на всех устройствах.
  * - Слушатели успеха и ошибок для отображения сообщений пользователю.
  */
 public class AdminCategoryAdapter extends RecyclerView.Adapter<AdminCategoryAdapter.CategoryViewHolder> {
@@ -162,6 +164,7 @@ public class AdminCategoryAdapter extends RecyclerView.Adapter<AdminCategoryAdap
                 categoryData.put("name", name);
                 categoryData.put("imageUrl", imageUrl);
                 categoryData.put("timestamp", FieldValue.serverTimestamp());
+                categoryData.put(CatalogSync.UPDATED_AT, FieldValue.serverTimestamp());
 
                 db.collection("categories").document(category.getId())
                         .set(categoryData)
@@ -186,8 +189,7 @@ public class AdminCategoryAdapter extends RecyclerView.Adapter<AdminCategoryAdap
                     .setTitle("Удаление категории")
                     .setMessage("Вы уверены, что хотите удалить эту категорию?")
                     .setPositiveButton("Да", (dialog, which) -> {
-                        db.collection("categories").document(categoryId)
-                                .delete()
+                        CatalogSync.deleteWithTombstone(CatalogStore.CATEGORIES, categoryId)
                                 .addOnSuccessListener(aVoid -> Toast.makeText(context, "Категория удалена", Toast.LENGTH_SHORT).show())
                                 .addOnFailureListener(e -> {
                                     Log.e(TAG, "Ошибка удаления категории: " + e.getMessage());
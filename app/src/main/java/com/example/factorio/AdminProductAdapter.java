@@ -39,29 +39,44 @@ import java.util.Map;
  * - List<Product> filteredProductList: Отфильтрованный список товаров для отображения.
  * - List<String> categoryNames: Список названий категорий.
  * - List<Category> categories: Полный список категорий.
+ * - String filterQuery: Текущий поисковый запрос в нижнем регистре.
  * - FirebaseFirestore db: База данных Firestore для взаимодействия с товарами.
  *
  * Методы:
  * - getCategoryNames(): Получение списка названий категорий для отображения в Spinner.
  * - updateCategories(List<Category>): Обновление списка категорий и их названий.
- * - updateProductList(List<Product>): Обновление полного списка товаров в адаптере.
+ * - upsertProduct(Product): Добавление или замена товара с уведомлением только его позиции.
+ * - removeProduct(String): Удаление товара с уведомлением только его позиции.
  * - filterByName(String): Фильтрация товаров по названию.
  * - onCreateViewHolder(ViewGroup, int): Создание ViewHolder для отображения элемента списка.
  * - onBindViewHolder(ProductViewHolder, int): Привязка данных товара к ViewHolder.
  * - getItemCount(): Возвращает размер отфильтрованного списка товаров.
  *
+ * Вспомогательные методы:
+ * - matchesQuery(Product): Проверяет, подходит ли товар под текущий поисковый запрос.
+ * - indexOf(List<Product>, String): Возвращает позицию товара в списке по ID.
+ *
  * Вложенный класс:
  * - ProductViewHolder:
  *   - Отображает данные товара (название, цена, URL изображения, описание, категория, количество).
- *   - Предоставляет кнопки для обновления и удаления товара.
+ *   - Предоставляет кнопки для обновления и удаления товара и переключения режима остатка.
  *   - Методы:
  *     - bind(Product): Привязка данных товара к элементу списка.
  *     - showUpdateProductDialog(Product): Отображение диалога для редактирования товара.
  *     - showDeleteConfirmationDialog(String): Отображение диалога для подтверждения удаления товара.
+ *     - showStockModeDialog(Product): Переключение товара между обычным и шардированным остатком (StockShards).
  *
  * Взаимодействие с Firestore:
- * - Обновление и удаление товаров через методы Firestore.
+ * - Обновление товара - одна транзакция StockShards.updateProduct() с SetOptions.merge(): число шардов читается
+ *   в транзакции, а не берётся из копии товара на экране.
+ * - Удаление товаров через методы Firestore.
+ * - При обновлении записывается updatedAt, а удаление выполняется через CatalogSync.deleteWithTombstone(),
+ *   чтобы изменение дошло до локального каталога на всех устройствах.
  * - Слушатели успеха и ошибок для отображения сообщений пользователю.
+ * - Для "горячих" товаров остаток можно разделить на шарды (StockShards), чтобы одновременные заказы
+ *   не конфликтовали на одном документе. Переключение режима сохраняет текущий остаток; у шардированного
+ *   товара диалог редактирования показывает сумму шардов, а новое количество перераспределяется по шардам
+ *   в той же транзакции, что и запись полей товара.
  */
 
 public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapter.ProductViewHolder> {
@@ -72,6 +87,7 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
     private List<Product> filteredProductList;
     private List<String> categoryNames;
     private List<Category> categories;
+    private String filterQuery = "";
     private FirebaseFirestore db;
 
     public AdminProductAdapter(Context context, List<Product> productList, List<Category> categories) {
@@ -97,34 +113,70 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
         notifyDataSetChanged();
     }
 
-    // Обновление списка товаров
-    public void updateProductList(List<Product> newProductList) {
-        this.productList.clear();
-        this.productList.addAll(newProductList);
-        this.filteredProductList.clear();
-        this.filteredProductList.addAll(newProductList); // Изначально показываем все товары
-        notifyDataSetChanged();
-        Log.d(TAG, "Список товаров обновлён в адаптере, размер: " + filteredProductList.size());
+    // Добавление или замена одного товара с уведомлением только затронутой позиции
+    public void upsertProduct(Product product) {
+        int index = indexOf(productList, product.getId());
+        if (index >= 0) {
+            productList.set(index, product);
+        } else {
+            productList.add(product);
+        }
+        int position = indexOf(filteredProductList, product.getId());
+        boolean matches = matchesQuery(product);
+        if (position >= 0 && matches) {
+            filteredProductList.set(position, product);
+            notifyItemChanged(position);
+        } else if (position >= 0) {
+            filteredProductList.remove(position);
+            notifyItemRemoved(position);
+        } else if (matches) {
+            filteredProductList.add(product);
+            notifyItemInserted(filteredProductList.size() - 1);
+        }
+    }
+
+    public void removeProduct(String productId) {
+        int index = indexOf(productList, productId);
+        if (index >= 0) {
+            productList.remove(index);
+        }
+        int position = indexOf(filteredProductList, productId);
+        if (position >= 0) {
+            filteredProductList.remove(position);
+            notifyItemRemoved(position);
+        }
     }
 
     public void filterByName(String query) {
         filteredProductList.clear();
-        String lowerQuery = query.trim().toLowerCase();
-
-        if (lowerQuery.isEmpty()) {
-            filteredProductList.addAll(productList); // Если запрос пуст, показываем все
-        } else {
-            for (Product product : productList) {
-                String name = product.getName() != null ? product.getName().toLowerCase() : "";
-                if (name.contains(lowerQuery)) {
-                    filteredProductList.add(product);
-                }
+        filterQuery = query.trim().toLowerCase();
+        for (Product product : productList) {
+            if (matchesQuery(product)) {
+                filteredProductList.add(product);
             }
         }
         notifyDataSetChanged();
         Log.d(TAG, "Фильтрация завершена, размер filteredProductList: " + filteredProductList.size());
     }
 
+    // Пустой запрос показывает все товары
+    private boolean matchesQuery(Product product) {
+        if (filterQuery.isEmpty()) {
+            return true;
+        }
+        String name = product.getName() != null ? product.getName().toLowerCase() : "";
+        return name.contains(filterQuery);
+    }
+
+    private static int indexOf(List<Product> products, String productId) {
+        for (int i = 0; i < products.size(); i++) {
+            if (products.get(i).getId().equals(productId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @NonNull
     @Override
     public ProductViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -145,7 +197,7 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
 
     class ProductViewHolder extends RecyclerView.ViewHolder {
         private TextView nameText, priceText, imageUrlText, descriptionText, categoryText, quantityText;
-        private Button updateButton, deleteButton;
+        private Button updateButton, deleteButton, stockModeButton;
 
         public ProductViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -157,6 +209,7 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
             quantityText = itemView.findViewById(R.id.product_quantity_text);
             updateButton = itemView.findViewById(R.id.update_product_button);
             deleteButton = itemView.findViewById(R.id.delete_product_button);
+            stockModeButton = itemView.findViewById(R.id.stock_mode_button);
         }
 
         public void bind(Product product) {
@@ -169,6 +222,10 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
 
             updateButton.setOnClickListener(v -> showUpdateProductDialog(product));
             deleteButton.setOnClickListener(v -> showDeleteConfirmationDialog(product.getId()));
+            stockModeButton.setText(product.getStockShards() > 0
+                    ? "Шардированный остаток: вкл (" + product.getStockShards() + ")"
+                    : "Шардированный остаток: выкл");
+            stockModeButton.setOnClickListener(v -> showStockModeDialog(product));
         }
 
         private void showUpdateProductDialog(Product product) {
@@ -189,6 +246,12 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
             imageUrlInput.setText(product.getImageUrl());
             descriptionInput.setText(product.getDescription());
             quantityInput.setText(String.valueOf(product.getQuantity()));
+            // У шардированного товара поле quantity может отставать - в диалоге показывается сумма шардов
+            if (product.getStockShards() > 0) {
+                StockShards.loadQuantity(product.getId())
+                        .addOnSuccessListener(quantity -> quantityInput.setText(String.valueOf(quantity)))
+                        .addOnFailureListener(e -> Log.e(TAG, "Ошибка чтения шардов остатка: " + e.getMessage()));
+            }
 
             ArrayAdapter<String> categoryAdapter = new ArrayAdapter<>(context, android.R.layout.simple_spinner_item, categoryNames);
             categoryAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
@@ -239,11 +302,10 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
                 productData.put("imageUrl", imageUrl);
                 productData.put("description", description);
                 productData.put("category", categoryId);
-                productData.put("quantity", quantity);
                 productData.put("timestamp", FieldValue.serverTimestamp());
 
-                db.collection("products").document(product.getId())
-                        .set(productData)
+                // Поля товара, количество, число шардов и сами шарды записываются одной транзакцией
+                StockShards.updateProduct(product.getId(), productData, quantity)
                         .addOnSuccessListener(aVoid -> {
                             product.setName(name);
                             product.setPrice(price);
@@ -270,8 +332,7 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
                     .setTitle("Удаление товара")
                     .setMessage("Вы уверены, что хотите удалить этот товар?")
                     .setPositiveButton("Да", (dialog, which) -> {
-                        db.collection("products").document(productId)
-                                .delete()
+                        CatalogSync.deleteWithTombstone(CatalogStore.PRODUCTS, productId)
                                 .addOnSuccessListener(aVoid -> Toast.makeText(context, "Товар удалён", Toast.LENGTH_SHORT).show())
                                 .addOnFailureListener(e -> {
                                     Log.e(TAG, "Ошибка удаления товара: " + e.getMessage());
@@ -281,5 +342,27 @@ public class AdminProductAdapter extends RecyclerView.Adapter<AdminProductAdapte
                     .setNegativeButton("Нет", null)
                     .show();
         }
+
+        private void showStockModeDialog(Product product) {
+            boolean sharded = product.getStockShards() > 0;
+            new AlertDialog.Builder(context)
+                    .setTitle("Режим остатка")
+                    .setMessage(sharded
+                            ? "Собрать остаток товара обратно в один документ?"
+                            : "Разделить остаток товара на " + StockShards.DEFAULT_SHARD_COUNT
+                                    + " шардов? Используйте для товаров, которые покупают одновременно многие пользователи.")
+                    .setPositiveButton("Да", (dialog, which) -> {
+                        (sharded ? StockShards.disable(product.getId()) : StockShards.enable(product.getId()))
+                                .addOnSuccessListener(aVoid -> Toast.makeText(context,
+                                        sharded ? "Остаток собран в один документ" : "Остаток разделён на шарды",
+                                        Toast.LENGTH_SHORT).show())
+                                .addOnFailureListener(e -> {
+                                    Log.e(TAG, "Ошибка переключения режима остатка: " + e.getMessage());
+                                    Toast.makeText(context, "Ошибка: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                                });
+                    })
+                    .setNegativeButton("Нет", null)
+                    .show();
+        }
     }
 }
\ No newline at end of file
@@ -22,6 +22,7 @@ import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -32,7 +33,7 @@ import java.util.Map;
  * AdminProductsActivity - активность для управления товарами в приложении.
  *
  * Основные функции:
- * - Загрузка списка товаров и категорий из Firestore в реальном времени.
+ * - Загрузка списка товаров из Firestore и категорий из CategoryRepository в реальном времени.
  * - Добавление новых товаров через диалоговое окно.
  * - Обновление списка товаров с поддержкой фильтрации по названию.
  * - Использование RecyclerView для отображения списка товаров с адаптером AdminProductAdapter.
@@ -45,25 +46,32 @@ import java.util.Map;
  * - AdminProductAdapter productAdapter: Адаптер для управления списком товаров.
  * - List<Product> productList: Полный список товаров.
  * - List<Category> categories: Полный список категорий.
- * - ListenerRegistration productsListener: Слушатель изменений списка товаров в Firestore.
- * - ListenerRegistration categoriesListener: Слушатель изменений списка категорий в Firestore.
+ * - ListenerRegistration productsListener: Подписка CatalogStream на список товаров.
  *
  * Методы:
  * - onCreate(Bundle): Инициализация активности, настройка интерфейса и слушателей.
- * - loadCategories(): Загрузка списка категорий из Firestore и обновление в адаптере.
- * - loadProducts(): Загрузка списка товаров из Firestore и обновление в адаптере.
+ * - onCategoriesChanged(List<Category>): Обновление категорий в адаптере и названий категорий у товаров.
+ * - onCategoriesError(Exception): Сообщает об ошибке загрузки категорий.
+ * - loadProducts(): Подписка на список товаров через CatalogStream.
+ * - onProductsChanged(List<CatalogStream.Change>): Применение изменений товаров к списку и адаптеру.
+ * - indexOf(String): Возвращает позицию товара в productList по ID.
  * - showAddProductDialog(): Отображение диалога для добавления нового товара.
  * - onDestroy(): Очистка слушателей изменений при уничтожении активности.
  *
  * Логика:
  * - Сначала загружаются категории, чтобы их можно было использовать при добавлении и отображении товаров.
- * - После загрузки категорий вызывается метод loadProducts() для загрузки товаров.
+ * - После загрузки категорий один раз вызывается метод loadProducts() для загрузки товаров;
+ *   последующие изменения категорий только обновляют названия у загруженных товаров.
+ * - Название категории товара находится по ID в CategoryRepository, без перебора списка категорий.
+ * - Список товаров запрашивается без сортировки, чтобы в нём были и товары без поля timestamp.
+ * - Изменения из CatalogStream применяются к списку по одному (добавление, изменение, удаление),
+ *   и адаптер обновляет только затронутые позиции.
  * - Поддерживается фильтрация товаров по названию с помощью TextWatcher.
  * - При добавлении нового товара проверяются поля на заполненность и корректность данных.
  * - Слушатели изменений (ListenerRegistration) удаляются при завершении активности для предотвращения утечек памяти.
  */
 
-public class AdminProductsActivity extends AppCompatActivity {
+public class AdminProductsActivity extends AppCompatActivity implements CategoryRepository.OnCategoriesChangedListener {
 
     private static final String TAG = "AdminProductsActivity";
     private RecyclerView productsRecyclerView;
@@ -74,7 +82,6 @@ public class AdminProductsActivity extends AppCompatActivity {
     private List<Product> productList;
     private List<Category> categories;
     private ListenerRegistration productsListener;
-    private ListenerRegistration categoriesListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -105,37 +112,28 @@ public class AdminProductsActivity extends AppCompatActivity {
             }
         });
 
-        loadCategories();
+        CategoryRepository.getInstance().addOnCategoriesChangedListener(this);
         addProductButton.setOnClickListener(v -> showAddProductDialog());
     }
 
-    private void loadCategories() {
-        if (categoriesListener != null) {
-            categoriesListener.remove();
+    @Override
+    public void onCategoriesChanged(List<Category> newCategories) {
+        categories.clear();
+        categories.addAll(newCategories);
+        CategoryRepository repository = CategoryRepository.getInstance();
+        for (Product product : productList) {
+            product.setCategoryName(repository.getCategoryName(product.getCategory(), "Неизвестная категория"));
+        }
+        productAdapter.updateCategories(categories);
+        if (productsListener == null) {
+            loadProducts();
         }
+    }
 
-        categoriesListener = db.collection("categories")
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .addSnapshotListener((snapshots, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Ошибка загрузки категорий: " + e.getMessage());
-                        Toast.makeText(this, "Ошибка загрузки категорий: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    if (snapshots != null) {
-                        categories.clear();
-                        for (QueryDocumentSnapshot doc : snapshots) {
-                            Category category = doc.toObject(Category.class);
-                            category.setId(doc.getId());
-                            categories.add(category);
-                            Log.d(TAG, "Категория загружена: " + category.getName() + ", ID: " + category.getId());
-                        }
-                        productAdapter.updateCategories(categories);
-                        loadProducts();
-                    } else {
-                        Log.w(TAG, "Snapshots категорий равен null");
-                    }
-                });
+    @Override
+    public void onCategoriesError(Exception e) {
+        Log.e(TAG, "Ошибка загрузки категорий: " + e.getMessage());
+        Toast.makeText(this, "Ошибка загрузки категорий: " + e.getMessage(), Toast.LENGTH_SHORT).show();
     }
 
     private void loadProducts() {
@@ -143,42 +141,54 @@ public class AdminProductsActivity extends AppCompatActivity {
             productsListener.remove();
         }
 
-        productsListener = db.collection("products")
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .addSnapshotListener((snapshots, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Ошибка загрузки товаров: " + e.getMessage());
-                        Toast.makeText(this, "Ошибка загрузки товаров: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    if (snapshots != null) {
-                        productList.clear();
-                        for (QueryDocumentSnapshot doc : snapshots) {
-                            Product product = doc.toObject(Product.class);
-                            product.setId(doc.getId());
-                            String categoryId = product.getCategory();
-                            for (Category category : categories) {
-                                if (category.getId().equals(categoryId)) {
-                                    product.setCategoryName(category.getName());
-                                    break;
-                                }
-                            }
-                            if (product.getCategoryName() == null) {
-                                product.setCategoryName("Неизвестная категория");
-                            }
-                            productList.add(product);
-                            Log.d(TAG, "Товар загружен: " + product.getName() + ", ID: " + product.getId());
-                        }
-                        productAdapter.updateProductList(productList); // Обновляем список без фильтра
-                        String searchQuery = searchProductsEditText.getText().toString();
-                        if (!searchQuery.isEmpty()) {
-                            productAdapter.filterByName(searchQuery); // Применяем фильтр только если есть запрос
-                        }
-                        Log.d(TAG, "Список товаров обновлён, размер: " + productList.size());
-                    } else {
-                        Log.w(TAG, "Snapshots товаров равен null");
-                    }
-                });
+        // Без orderBy: запрос с сортировкой не вернул бы товары без поля timestamp, а администратор должен видеть все
+        Query productsQuery = db.collection("products");
+        productsListener = CatalogStream.getInstance().subscribe(productsQuery, new CatalogStream.Listener() {
+            @Override
+            public void onCatalogChanged(List<CatalogStream.Change> changes, QuerySnapshot snapshots) {
+                onProductsChanged(changes);
+            }
+
+            @Override
+            public void onCatalogError(Exception e) {
+                Log.e(TAG, "Ошибка загрузки товаров: " + e.getMessage());
+                Toast.makeText(AdminProductsActivity.this, "Ошибка загрузки товаров: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void onProductsChanged(List<CatalogStream.Change> changes) {
+        CategoryRepository repository = CategoryRepository.getInstance();
+        for (CatalogStream.Change change : changes) {
+            QueryDocumentSnapshot doc = change.getDocument();
+            int index = indexOf(doc.getId());
+            if (change.getType() == CatalogStream.Change.Type.REMOVED) {
+                if (index >= 0) {
+                    productList.remove(index);
+                }
+                productAdapter.removeProduct(doc.getId());
+                continue;
+            }
+            Product product = doc.toObject(Product.class);
+            product.setId(doc.getId());
+            product.setCategoryName(repository.getCategoryName(product.getCategory(), "Неизвестная категория"));
+            if (index >= 0) {
+                productList.set(index, product);
+            } else {
+                productList.add(product);
+            }
+            productAdapter.upsertProduct(product);
+        }
+        Log.d(TAG, "Изменений товаров: " + changes.size() + ", размер списка: " + productList.size());
+    }
+
+    private int indexOf(String productId) {
+        for (int i = 0; i < productList.size(); i++) {
+            if (productList.get(i).getId().equals(productId)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     private void showAddProductDialog() {
@@ -240,6 +250,7 @@ public class AdminProductsActivity extends AppCompatActivity {
             productData.put("category", categoryId);
             productData.put("quantity", quantity);
             productData.put("timestamp", FieldValue.serverTimestamp());
+            productData.put(CatalogSync.UPDATED_AT, FieldValue.serverTimestamp());
 
             db.collection("products")
                     .add(productData)
@@ -262,8 +273,6 @@ public class AdminProductsActivity extends AppCompatActivity {
         if (productsListener != null) {
             productsListener.remove();
         }
-        if (categoriesListener != null) {
-            categoriesListener.remove();
-        }
+        CategoryRepository.getInstance().removeOnCategoriesChangedListener(this);
     }
 }
\ No newline at end of file
@@ -15,7 +15,6 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
-import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -30,15 +29,21 @@ import java.util.List;
  * - Переход к деталям продукта при нажатии на изображение товара.
  *
  * Поля:
+ * - Object PAYLOAD_QUANTITY: Частичное обновление - изменилось только количество товара.
  * - List<CartItem> cartItems: Список товаров в корзине.
  * - UpdateTotalPriceListener updateListener: Интерфейс для уведомления об обновлении общей стоимости корзины.
  * - Context context: Контекст активности, в которой используется адаптер.
- * - FirebaseFirestore db: Для проверки доступного количества товаров в Firestore.
+ * - CartValidation validation: Результат последней проверки корзины (null, пока проверки не было).
  *
  * Методы:
  * - updateCartItems(List<CartItem>): Обновление списка товаров в корзине.
+ * - applyChanges(List<CartChange>): Применяет изменения корзины построчно (вставка, изменение, удаление строки).
+ * - indexOf(String): Возвращает позицию товара в списке или -1.
+ * - setValidation(CartValidation): Отмечает строки с изменившейся ценой и нехваткой товара.
  * - onCreateViewHolder(ViewGroup, int): Создание ViewHolder для отображения элемента списка.
  * - onBindViewHolder(CartViewHolder, int): Привязка данных товара к ViewHolder.
+ * - onBindViewHolder(CartViewHolder, int, List<Object>): Частичная привязка по PAYLOAD_QUANTITY.
+ * - bindQuantity(CartViewHolder, CartItem): Привязка количества, суммы строки, предупреждения и кнопок.
  * - getItemCount(): Возвращает количество элементов в корзине.
  *
  * Вложенный класс:
@@ -50,22 +55,28 @@ import java.util.List;
  * - UpdateTotalPriceListener: Используется для уведомления об изменении общей стоимости корзины.
  *
  * Логика:
- * - При увеличении количества товара проверяется доступное количество в Firestore.
+ * - При увеличении количества товара доступное количество проверяется по StockCache, без чтения из Firestore.
  * - При уменьшении количества товара или удалении его из корзины обновляется состояние корзины через CartManager.
  * - При нажатии на изображение товара осуществляется переход на экран с деталями товара.
- * - Glide используется для загрузки изображений товара с поддержкой плейсхолдера.
+ * - Изменения из CartManager применяются к одной строке (notifyItemInserted / notifyItemChanged / notifyItemRemoved),
+ *   поэтому нажатие "+" перепривязывает только строку этого товара, а не весь список. QUANTITY_CHANGED обновляет
+ *   в строке только количество и сумму (PAYLOAD_QUANTITY), ITEM_UPDATED (новая цена, название или изображение) -
+ *   строку целиком.
+ * - Предупреждение о нехватке товара скрывается, как только количество в строке уменьшено до доступного;
+ *   изменение цены показывается до следующей проверки.
+ * - Glide используется для загрузки изображений товара с поддержкой плейсхолдера; изображение уменьшается до размера в разметке.
  */
 
 public class CartAdapter extends RecyclerView.Adapter<CartAdapter.CartViewHolder> {
+    private static final Object PAYLOAD_QUANTITY = new Object();
     private List<CartItem> cartItems;
     private UpdateTotalPriceListener updateListener;
     private Context context;
-    private FirebaseFirestore db;
+    private CartValidation validation;
 
     public CartAdapter(List<CartItem> cartItems, UpdateTotalPriceListener listener) {
         this.cartItems = new ArrayList<>(cartItems);
         this.updateListener = listener;
-        this.db = FirebaseFirestore.getInstance();
     }
 
     public void updateCartItems(List<CartItem> newItems) {
@@ -74,6 +85,57 @@ public class CartAdapter extends RecyclerView.Adapter<CartAdapter.CartViewHolder
         notifyDataSetChanged();
     }
 
+    public void applyChanges(List<CartChange> changes) {
+        for (CartChange change : changes) {
+            if (change.getType() == CartChange.Type.CLEARED) {
+                int count = cartItems.size();
+                cartItems.clear();
+                notifyItemRangeRemoved(0, count);
+                continue;
+            }
+            int position = indexOf(change.getProductId());
+            CartItem item = change.getCurrentItem();
+            if (item == null) {
+                if (position != -1) {
+                    cartItems.remove(position);
+                    notifyItemRemoved(position);
+                }
+            } else if (position != -1) {
+                cartItems.set(position, item);
+                // Изменилось только количество - изображение и название строки не перепривязываются
+                if (change.getType() == CartChange.Type.QUANTITY_CHANGED) {
+                    notifyItemChanged(position, PAYLOAD_QUANTITY);
+                } else {
+                    notifyItemChanged(position);
+                }
+            } else {
+                cartItems.add(item);
+                notifyItemInserted(cartItems.size() - 1);
+            }
+        }
+    }
+
+    public void setValidation(CartValidation newValidation) {
+        CartValidation previousValidation = validation;
+        validation = newValidation;
+        for (int i = 0; i < cartItems.size(); i++) {
+            String productId = cartItems.get(i).getProductId();
+            if ((previousValidation != null && previousValidation.getIssue(productId) != null)
+                    || newValidation.getIssue(productId) != null) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    private int indexOf(String productId) {
+        for (int i = 0; i < cartItems.size(); i++) {
+            if (cartItems.get(i).getProductId().equals(productId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @NonNull
     @Override
     public CartViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -82,6 +144,15 @@ public class CartAdapter extends RecyclerView.Adapter<CartAdapter.CartViewHolder
         return new CartViewHolder(view);
     }
 
+    @Override
+    public void onBindViewHolder(@NonNull CartViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+        } else {
+            bindQuantity(holder, cartItems.get(position));
+        }
+    }
+
     @Override
     public void onBindViewHolder(@NonNull CartViewHolder holder, int position) {
         CartItem item = cartItems.get(position);
@@ -92,34 +163,41 @@ public class CartAdapter extends RecyclerView.Adapter<CartAdapter.CartViewHolder
             context.startActivity(intent);
         });
         holder.itemName.setText(item.getName());
-        holder.itemTotalPrice.setText(item.getTotalPrice() + " руб.");
-        holder.itemQuantity.setText(String.valueOf(item.getQuantity()));
+        ListImageSize imageSize = ListImageSize.forCartItem(holder.itemView.getContext());
         Glide.with(holder.itemView.getContext())
                 .load(item.getImageUrl())
                 .placeholder(R.drawable.ic_placeholder)
                 .error(R.drawable.ic_placeholder)
+                .apply(FactorioGlideModule.THUMBNAIL_OPTIONS)
+                .override(imageSize.getWidth(), imageSize.getHeight())
+                .centerCrop()
                 .into(holder.itemImage);
+        bindQuantity(holder, item);
+    }
+
+    // Количество, сумма строки, предупреждение и кнопки зависят от количества товара
+    private void bindQuantity(CartViewHolder holder, CartItem item) {
+        holder.itemTotalPrice.setText(item.getTotalPrice() + " руб.");
+        holder.itemQuantity.setText(String.valueOf(item.getQuantity()));
+        CartValidation.Issue issue = validation != null ? validation.getIssue(item.getProductId()) : null;
+        if (issue != null && (issue.getType() == CartValidation.Issue.Type.PRICE_CHANGED
+                || item.getQuantity() > issue.getAvailableQuantity())) {
+            holder.itemWarning.setText(issue.getMessage());
+            holder.itemWarning.setVisibility(View.VISIBLE);
+        } else {
+            holder.itemWarning.setVisibility(View.GONE);
+        }
 
+        // Неизвестный остаток проверит CartManager
         holder.increaseButton.setOnClickListener(v -> {
-            db.collection("products").document(item.getProductId())
-                    .get()
-                    .addOnSuccessListener(document -> {
-                        if (document.exists()) {
-                            int availableQuantity = document.getLong("quantity").intValue();
-                            int newQuantity = item.getQuantity() + 1;
-                            if (newQuantity <= availableQuantity) {
-                                CartManager.getInstance().updateQuantity(item.getProductId(), newQuantity);
-                                updateListener.onTotalPriceUpdated();
-                            } else {
-                                Toast.makeText(context, "Нельзя добавить больше, чем есть в наличии", Toast.LENGTH_SHORT).show();
-                            }
-                        } else {
-                            Toast.makeText(context, "Товар не найден", Toast.LENGTH_SHORT).show();
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        Toast.makeText(context, "Ошибка проверки наличия", Toast.LENGTH_SHORT).show();
-                    });
+            int newQuantity = item.getQuantity() + 1;
+            Integer availableQuantity = StockCache.getInstance().getAvailableQuantity(item.getProductId());
+            if (availableQuantity == null || newQuantity <= availableQuantity) {
+                CartManager.getInstance().updateQuantity(item.getProductId(), newQuantity);
+                updateListener.onTotalPriceUpdated();
+            } else {
+                Toast.makeText(context, "Нельзя добавить больше, чем есть в наличии", Toast.LENGTH_SHORT).show();
+            }
         });
 
         holder.decreaseButton.setOnClickListener(v -> {
@@ -141,7 +219,7 @@ public class CartAdapter extends RecyclerView.Adapter<CartAdapter.CartViewHolder
 
     static class CartViewHolder extends RecyclerView.ViewHolder {
         ImageView itemImage;
-        TextView itemName, itemTotalPrice, itemQuantity;
+        TextView itemName, itemTotalPrice, itemQuantity, itemWarning;
         ImageView decreaseButton, increaseButton;
         ImageButton removeButton;
 
@@ -151,6 +229,7 @@ public class CartAdapter extends RecyclerView.Adapter<CartAdapter.CartViewHolder
             itemName = itemView.findViewById(R.id.cart_item_name);
             itemTotalPrice = itemView.findViewById(R.id.cart_item_total_price);
             itemQuantity = itemView.findViewById(R.id.cart_item_quantity);
+            itemWarning = itemView.findViewById(R.id.cart_item_warning);
             decreaseButton = itemView.findViewById(R.id.decrease_quantity_button);
             increaseButton = itemView.findViewById(R.id.increase_quantity_button);
             removeButton = itemView.findViewById(R.id.remove_item_button);
@@ -0,0 +1,127 @@
+package com.example.factorio;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * CartChange - изменение одного товара корзины (или очистка корзины) между двумя версиями CartSnapshot.
+ *
+ * Основные функции:
+ * - Передача слушателям CartManager только того, что изменилось, с прежним и новым значением,
+ *   чтобы они обновляли одну строку, а не просматривали всю корзину.
+ * - Вычисление изменений между двумя версиями корзины.
+ *
+ * Поля:
+ * - Type type: Вид изменения.
+ * - String productId: ID товара (null для CLEARED).
+ * - CartItem previousItem: Элемент до изменения (null для ITEM_ADDED и CLEARED).
+ * - CartItem currentItem: Элемент после изменения (null для ITEM_REMOVED и CLEARED).
+ * - CartSnapshot previousCart: Корзина до изменения.
+ *
+ * Методы:
+ * - getType(), getProductId(), getPreviousItem(), getCurrentItem(), getPreviousCart(): Геттеры.
+ * - getPreviousQuantity(), getCurrentQuantity(): Количество товара до и после изменения (0, если товара не было).
+ * - between(CartSnapshot, CartSnapshot, Collection<String>): Изменения между версиями по списку ID товаров
+ *   (null - сравнить корзины целиком).
+ *
+ * Вспомогательные методы:
+ * - sameItem(CartItem, CartItem): Совпадают ли элементы целиком.
+ * - sameDetails(CartItem, CartItem): Совпадают ли цена, название и изображение (без количества).
+ *
+ * Логика:
+ * - Одиночное изменение корзины сравнивает только затронутый товар - O(1); полное сравнение выполняется
+ *   только при загрузке корзины из Firestore или с диска.
+ * - Очистка непустой корзины - одно событие CLEARED: слушатели получают прежнюю корзину в getPreviousCart()
+ *   и сами решают, какие строки обновить.
+ * - QUANTITY_CHANGED - изменилось только количество. Если изменились цена, название или изображение
+ *   (проверка корзины или изменение с другого устройства), приходит ITEM_UPDATED; количество при этом
+ *   тоже могло измениться - его показывают getPreviousQuantity() и getCurrentQuantity().
+ */
+
+public final class CartChange {
+    public enum Type { ITEM_ADDED, QUANTITY_CHANGED, ITEM_UPDATED, ITEM_REMOVED, CLEARED }
+
+    private final Type type;
+    private final String productId;
+    private final CartItem previousItem;
+    private final CartItem currentItem;
+    private final CartSnapshot previousCart;
+
+    private CartChange(Type type, String productId, CartItem previousItem, CartItem currentItem, CartSnapshot previousCart) {
+        this.type = type;
+        this.productId = productId;
+        this.previousItem = previousItem;
+        this.currentItem = currentItem;
+        this.previousCart = previousCart;
+    }
+
+    public Type getType() { return type; }
+    public String getProductId() { return productId; }
+    public CartItem getPreviousItem() { return previousItem; }
+    public CartItem getCurrentItem() { return currentItem; }
+    public CartSnapshot getPreviousCart() { return previousCart; }
+
+    public int getPreviousQuantity() {
+        return previousItem != null ? previousItem.getQuantity() : 0;
+    }
+
+    public int getCurrentQuantity() {
+        return currentItem != null ? currentItem.getQuantity() : 0;
+    }
+
+    static List<CartChange> between(CartSnapshot previous, CartSnapshot current, Collection<String> productIds) {
+        if (previous == current) {
+            return Collections.emptyList();
+        }
+        if (productIds == null) {
+            if (current.isEmpty()) {
+                return previous.isEmpty()
+                        ? Collections.emptyList()
+                        : Collections.singletonList(new CartChange(Type.CLEARED, null, null, null, previous));
+            }
+            Set<String> allIds = new LinkedHashSet<>();
+            for (CartItem item : previous.getItems()) {
+                allIds.add(item.getProductId());
+            }
+            for (CartItem item : current.getItems()) {
+                allIds.add(item.getProductId());
+            }
+            productIds = allIds;
+        }
+        List<CartChange> changes = new ArrayList<>();
+        for (String productId : productIds) {
+            CartItem previousItem = previous.getItem(productId);
+            CartItem currentItem = current.getItem(productId);
+            if (sameItem(previousItem, currentItem)) {
+                continue;
+            }
+            Type type = previousItem == null ? Type.ITEM_ADDED
+                    : currentItem == null ? Type.ITEM_REMOVED
+                    : sameDetails(previousItem, currentItem) ? Type.QUANTITY_CHANGED
+                    : Type.ITEM_UPDATED;
+            changes.add(new CartChange(type, productId, previousItem, currentItem, previous));
+        }
+        return changes;
+    }
+
+    private static boolean sameItem(CartItem first, CartItem second) {
+        if (first == second) {
+            return true;
+        }
+        if (first == null || second == null) {
+            return false;
+        }
+        return first.getQuantity() == second.getQuantity() && sameDetails(first, second);
+    }
+
+    private static boolean sameDetails(CartItem first, CartItem second) {
+        return first.getPrice() == second.getPrice()
+                && Objects.equals(first.getName(), second.getName())
+                && Objects.equals(first.getImageUrl(), second.getImageUrl());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+package com.example.factorio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * CartJournal - локальная база SQLite с копией корзины пользователя и журналом ещё не записанных изменений.
+ *
+ * Основные функции:
+ * - Хранение корзины на диске, чтобы CartManager восстанавливал её синхронно при запуске процесса
+ *   и счётчики корзины были верны уже на первом кадре, без ожидания Firestore.
+ * - Хранение ID товаров, изменения которых CartManager ещё не передал в Firestore (окно накопления записей),
+ *   чтобы они не терялись, если процесс завершится раньше.
+ *
+ * Поля:
+ * - static CartJournal instance: Единственный экземпляр CartJournal (создаётся в init()).
+ * - String ITEMS: Таблица товаров корзины.
+ * - String PENDING: Таблица ID товаров с незаписанными изменениями.
+ * - ExecutorService diskExecutor: Однопоточный исполнитель для записи в базу.
+ * - Map<String, List<CartItem>> unsavedCarts: Последнее состояние корзины пользователя, ещё не записанное на диск.
+ *
+ * Методы:
+ * - init(Context): Создаёт единственный экземпляр CartJournal.
+ * - getInstance(): Возвращает единственный экземпляр CartJournal.
+ * - loadItems(String): Синхронно читает корзину пользователя.
+ * - loadPendingProductIds(String): Синхронно читает ID товаров с незаписанными изменениями.
+ * - saveItems(String, List<CartItem>): Сохраняет корзину пользователя в фоновом потоке.
+ * - addPending(String, String): Отмечает товар как изменённый, но ещё не переданный в Firestore.
+ * - removePending(String, Collection<String>): Снимает отметку после передачи изменений в Firestore.
+ *
+ * Логика:
+ * - Корзина небольшая и читается один раз при запуске или смене пользователя, поэтому чтение синхронное;
+ *   все записи выполняются в diskExecutor.
+ * - Частые изменения схлопываются: если запись корзины уже ждёт в очереди, она просто запишет более новое состояние.
+ * - Отметка снимается, как только изменения переданы в WriteBatch: дальше их хранит и повторно отправляет
+ *   после восстановления связи очередь записей Firestore, которая сама сохраняется на диске.
+ * - При изменении схемы таблицы пересоздаются: корзина будет заново загружена из Firestore.
+ */
+
+public class CartJournal extends SQLiteOpenHelper {
+    private static final String TAG = "CartJournal";
+    private static final String DATABASE_NAME = "cart.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String ITEMS = "cart_items";
+    private static final String PENDING = "pending_writes";
+    private static CartJournal instance;
+
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, List<CartItem>> unsavedCarts = new HashMap<>();
+
+    private CartJournal(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance == null) {
+            instance = new CartJournal(context.getApplicationContext());
+        }
+    }
+
+    public static CartJournal getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("CartJournal не инициализирован");
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ITEMS + " (user_id TEXT NOT NULL, product_id TEXT NOT NULL, name TEXT, "
+                + "price INTEGER, quantity INTEGER, image_url TEXT, position INTEGER, PRIMARY KEY (user_id, product_id))");
+        db.execSQL("CREATE TABLE " + PENDING + " (user_id TEXT NOT NULL, product_id TEXT NOT NULL, "
+                + "PRIMARY KEY (user_id, product_id))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + ITEMS);
+        db.execSQL("DROP TABLE IF EXISTS " + PENDING);
+        onCreate(db);
+    }
+
+    public List<CartItem> loadItems(String userId) {
+        synchronized (unsavedCarts) {
+            List<CartItem> unsaved = unsavedCarts.get(userId);
+            if (unsaved != null) {
+                return new ArrayList<>(unsaved);
+            }
+        }
+        List<CartItem> items = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(ITEMS, null, "user_id = ?", new String[]{userId},
+                null, null, "position")) {
+            while (cursor.moveToNext()) {
+                items.add(new CartItem(
+                        cursor.getString(cursor.getColumnIndexOrThrow("product_id")),
+                        cursor.getString(cursor.getColumnIndexOrThrow("name")),
+                        cursor.getInt(cursor.getColumnIndexOrThrow("price")),
+                        cursor.getInt(cursor.getColumnIndexOrThrow("quantity")),
+                        cursor.getString(cursor.getColumnIndexOrThrow("image_url"))));
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Ошибка чтения корзины: ", e);
+        }
+        return items;
+    }
+
+    public Set<String> loadPendingProductIds(String userId) {
+        Set<String> productIds = new LinkedHashSet<>();
+        try (Cursor cursor = getReadableDatabase().query(PENDING, new String[]{"product_id"}, "user_id = ?",
+                new String[]{userId}, null, null, null)) {
+            while (cursor.moveToNext()) {
+                productIds.add(cursor.getString(0));
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Ошибка чтения журнала корзины: ", e);
+        }
+        return productIds;
+    }
+
+    public void saveItems(String userId, List<CartItem> items) {
+        synchronized (unsavedCarts) {
+            boolean scheduled = unsavedCarts.containsKey(userId);
+            unsavedCarts.put(userId, items);
+            if (scheduled) {
+                return;
+            }
+        }
+        diskExecutor.execute(() -> {
+            List<CartItem> latestItems;
+            synchronized (unsavedCarts) {
+                latestItems = unsavedCarts.remove(userId);
+            }
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                db.delete(ITEMS, "user_id = ?", new String[]{userId});
+                int position = 0;
+                for (CartItem item : latestItems) {
+                    ContentValues values = new ContentValues();
+                    values.put("user_id", userId);
+                    values.put("product_id", item.getProductId());
+                    values.put("name", item.getName());
+                    values.put("price", item.getPrice());
+                    values.put("quantity", item.getQuantity());
+                    values.put("image_url", item.getImageUrl());
+                    values.put("position", position++);
+                    db.insert(ITEMS, null, values);
+                }
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка записи корзины: ", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    public void addPending(String userId, String productId) {
+        diskExecutor.execute(() -> {
+            ContentValues values = new ContentValues();
+            values.put("user_id", userId);
+            values.put("product_id", productId);
+            try {
+                getWritableDatabase().insertWithOnConflict(PENDING, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка записи журнала корзины: ", e);
+            }
+        });
+    }
+
+    public void removePending(String userId, Collection<String> productIds) {
+        List<String> ids = new ArrayList<>(productIds);
+        diskExecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (String productId : ids) {
+                    db.delete(PENDING, "user_id = ? AND product_id = ?", new String[]{userId, productId});
+                }
+                db.setTransactionSuccessful();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка записи журнала корзины: ", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -1,78 +1,203 @@
 package com.example.factorio;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.UnaryOperator;
 
 /**
  * CartManager - синглтон-класс для управления корзиной покупок.
  *
  * Основные функции:
  * - Управление элементами корзины, включая добавление, обновление количества и удаление товаров.
- * - Сохранение и загрузка корзины из Firestore.
+ * - Сохранение корзины в Firestore и синхронизация с ней через один живой слушатель коллекции корзины.
  * - Уведомление зарегистрированных слушателей об изменениях корзины или ошибках.
  *
  * Поля:
  * - static CartManager instance: Единственный экземпляр CartManager (синглтон).
- * - List<CartItem> cartItems: Локальный список элементов корзины.
+ * - volatile CartSnapshot snapshot: Текущее неизменяемое состояние корзины.
  * - FirebaseFirestore db: Ссылка на базу данных Firestore.
  * - FirebaseAuth auth: Ссылка на FirebaseAuth для идентификации пользователя.
  * - Set<OnCartChangedListener> listeners: Слушатели, уведомляемые об изменениях корзины.
  * - Set<OnErrorListener> errorListeners: Слушатели, уведомляемые об ошибках.
+ * - long WRITE_DELAY_MS: Окно, в течение которого изменения корзины накапливаются перед записью в Firestore.
+ * - int MAX_BATCH_WRITES: Максимум операций в одном WriteBatch.
+ * - int ID_QUERY_CHUNK_SIZE: Сколько ID помещается в один запрос whereIn (ограничение Firestore - 30).
+ * - Handler handler: Планирует запись накопленных изменений в основном потоке.
+ * - Set<String> pendingProductIds: ID товаров, изменённых после последней записи.
+ * - String pendingUserId: Пользователь, которому принадлежат накопленные изменения.
+ * - Runnable flushRunnable: Задача отложенной записи.
+ * - List<OnCartLoadedListener> loadListeners: Слушатели, ожидающие выполняющейся загрузки корзины.
+ * - boolean started: Восстановлена ли корзина и подписан ли CartManager на смену пользователя.
+ * - String cartUserId: Пользователь, которому принадлежит текущая корзина (ключ в CartJournal).
+ * - ListenerRegistration cartListener: Слушатель коллекции users/{uid}/cart текущего пользователя.
+ * - boolean cartSynced: Получен ли от слушателя первый снимок с сервера (корзина сверена целиком).
  *
  * Методы:
  * - getInstance(): Возвращает единственный экземпляр CartManager.
- * - addToCart(CartItem): Добавляет товар в корзину с проверкой доступного количества в Firestore.
- * - removeAllFromCart(): Удаляет все товары из корзины и Firestore.
- * - updateQuantity(String, int): Обновляет количество товара в корзине с проверкой наличия в Firestore.
- * - getCartItems(): Возвращает копию локального списка товаров корзины.
+ * - start(): Синхронно восстанавливает корзину из CartJournal и подписывается на смену пользователя.
+ * - addToCart(CartItem): Добавляет товар в корзину с проверкой доступного количества.
+ * - removeAllFromCart(), removeAllFromCart(OnCartSavedListener): Удаляет все товары из корзины и Firestore.
+ * - removeItems(Collection<String>, OnCartSavedListener): Удаляет несколько товаров одной операцией.
+ * - setQuantities(Map<String, Integer>, OnCartSavedListener): Устанавливает количество нескольких товаров
+ *   одной операцией (0 - удалить товар, количество ограничивается наличием из StockCache).
+ * - updateQuantity(String, int): Обновляет количество товара в корзине с проверкой наличия.
+ * - revalidateCart(OnCartValidatedListener): Проверяет цены и наличие всех товаров корзины одним проходом.
+ * - getSnapshot(): Возвращает текущее состояние корзины (CartSnapshot).
+ * - getCartItems(): Возвращает неизменяемый список товаров корзины из текущего состояния.
  * - getItemQuantity(String): Возвращает количество товара в корзине по его ID.
- * - loadCartFromFirestore(OnCartLoadedListener): Загружает корзину из Firestore.
+ * - loadCartFromFirestore(OnCartLoadedListener): Возвращает корзину, сверенную с Firestore: сразу, если слушатель
+ *   уже получил снимок с сервера, иначе после первого снимка (одновременные вызовы ждут одного снимка).
  * - addOnCartChangedListener(OnCartChangedListener): Регистрирует слушателя для изменений корзины.
  * - removeOnCartChangedListener(OnCartChangedListener): Удаляет слушателя изменений корзины.
  * - addOnErrorListener(OnErrorListener): Регистрирует слушателя для ошибок.
  * - removeOnErrorListener(OnErrorListener): Удаляет слушателя ошибок.
+ * - flushPendingWrites(), flushPendingWrites(OnCartSavedListener): Сразу записывает накопленные изменения
+ *   одним WriteBatch (listener вызывается после подтверждения записи или сразу, если записывать нечего).
+ * - onOrderPlaced(Collection<String>): Убирает заказанные товары из локальной корзины без записи в Firestore.
  *
  * Вспомогательные методы:
- * - notifyCartChanged(): Уведомляет всех слушателей об изменениях в корзине.
+ * - switchUser(String): Восстанавливает корзину пользователя из CartJournal и переключает слушатель корзины.
+ * - listenToCart(String): Подписывается на коллекцию корзины пользователя.
+ * - onCartSnapshot(String, QuerySnapshot, Exception): Применяет снимок слушателя: первый снимок с сервера -
+ *   целиком, следующие - только изменённые документы.
+ * - toCartItem(DocumentSnapshot): Возвращает элемент корзины из документа или null, если документ неполный.
+ * - applyValidation(Map<String, DocumentSnapshot>, Map<String, Integer>, Set<String>, boolean): Сравнивает строки
+ *   корзины с документами и остатками товаров, обновляет цену, название и изображение строк и собирает CartValidation.
+ * - finishLoad(List<CartItem>): Передаёт результат загрузки всем ожидающим слушателям.
+ * - updateSnapshot(UnaryOperator<CartSnapshot>, Collection<String>): Заменяет состояние корзины следующей версией
+ *   (только в основном потоке), сохраняет её в CartJournal и уведомляет слушателей об изменениях затронутых товаров.
+ * - checkMainThread(): Бросает IllegalStateException, если корзину изменяют не из основного потока.
+ * - notifyCartChanged(CartSnapshot, List<CartChange>): Уведомляет всех слушателей об изменениях в корзине.
  * - notifyError(String): Уведомляет всех слушателей об ошибке.
- * - updateFirestore(String, CartItem): Обновляет данные корзины в Firestore для текущего пользователя.
+ * - scheduleWrite(String, String): Отмечает товар изменённым и планирует запись корзины.
+ * - applyBulkChanges(String, Map<String, CartItem>, OnCartSavedListener): Применяет пакет изменений к корзине
+ *   и записывает его.
+ * - commitCartWrites(String, Map<String, CartItem>, OnCartSavedListener): Записывает итоговое состояние товаров
+ *   пакетами WriteBatch.
+ * - deletionsOf(Collection<String>): Возвращает изменения, удаляющие товары.
+ * - toCartData(CartItem): Возвращает данные документа товара в корзине.
+ * - findItem(String): Возвращает элемент корзины по ID товара или null.
+ * - addItem(String, CartItem, int): Добавляет новый товар, если его достаточно в наличии.
+ * - setItemQuantity(String, CartItem, int, int): Изменяет количество товара, если его достаточно в наличии.
  *
  * Интерфейсы:
- * - OnCartChangedListener: Для уведомления об изменениях корзины.
+ * - OnCartChangedListener: Для уведомления об изменениях корзины (новая версия и список CartChange).
  * - OnCartLoadedListener: Для уведомления о завершении загрузки корзины.
+ * - OnCartSavedListener: Для уведомления о том, что пакетная операция записана в Firestore (или не записана).
+ * - OnCartValidatedListener: Для получения результата проверки корзины (CartValidation).
  * - OnErrorListener: Для обработки ошибок, связанных с корзиной.
  *
  * Логика:
- * - При добавлении или обновлении товара проверяется доступное количество в Firestore.
- * - При удалении товара или очистке корзины данные синхронизируются с Firestore.
- * - Корзина загружается из Firestore при вызове loadCartFromFirestore().
- * - Все изменения в корзине уведомляют зарегистрированных слушателей.
+ * - При добавлении или обновлении товара доступное количество берётся из StockCache; документ товара читается
+ *   из Firestore, только если товара нет в локальном каталоге (или его нет в корзине, а название и цену
+ *   не удалось взять из ProductStore).
+ * - Окончательная проверка наличия выполняется при оформлении заказа.
+ * - Цена и название товара копируются в строку корзины при добавлении. revalidateCart() при открытии корзины
+ *   и перед оформлением читает документы всех товаров корзины параллельными запросами
+ *   whereIn(FieldPath.documentId()) по ID_QUERY_CHUNK_SIZE ID вместо чтения каждого товара отдельно: строки
+ *   получают текущие цену, название и изображение, StockCache - свежие остатки, а изменения цены, нехватка
+ *   и удалённые товары возвращаются в CartValidation. Количество в корзине при проверке не меняется.
+ *   Остаток шардированных товаров (StockShards) читается суммой шардов параллельно с остальными проверками.
+ * - Изменения применяются к локальной корзине и отправляются слушателям сразу, а в Firestore пишутся с задержкой
+ *   WRITE_DELAY_MS: изменения одного товара за это время схлопываются, и все изменённые товары записываются
+ *   одним WriteBatch (set() для товаров в корзине, delete() для удалённых) с их итоговым количеством.
+ *   Число записей зависит от числа изменённых товаров, а не от числа нажатий, и они не приходят в Firestore
+ *   в обратном порядке.
+ * - Накопленные изменения записываются сразу при смене пользователя и когда приложение уходит в фон
+ *   (FactorioApplication.onTrimMemory); очистка корзины отменяет их.
+ * - Пакетные операции (очистка, удаление и изменение нескольких товаров) сразу применяются к локальной корзине,
+ *   а в Firestore пишутся пакетами WriteBatch до MAX_BATCH_WRITES операций: очистка корзины из 300 товаров -
+ *   это один коммит вместо 300 отдельных delete() (и один запрос на чтение списка документов, если корзина
+ *   ещё не сверена слушателем). OnCartSavedListener вызывается один раз после подтверждения всех пакетов.
+ * - Корзина хранится на диске (CartJournal): при запуске процесса (FactorioApplication) и при смене пользователя
+ *   она восстанавливается синхронно, поэтому экраны берут количество товаров из CartManager сразу, а сверка
+ *   с коллекцией users/{uid}/cart приходит от слушателя в фоне через OnCartChangedListener.
+ * - ID товаров из окна накопления записей тоже сохраняются в CartJournal и после перезапуска записываются заново;
+ *   изменения, уже переданные в WriteBatch, при отсутствии сети хранит и отправляет очередь записей Firestore.
+ * - Корзина синхронизируется с Firestore одним слушателем (addSnapshotListener) на users/{uid}/cart, без
+ *   периодических перечитываний: изменения, сделанные на другом устройстве, приходят как изменения отдельных
+ *   документов и применяются к CartSnapshot точечно, поэтому слушатели корзины получают только их.
+ *   Первый снимок с сервера сверяет корзину целиком: так удаляются товары, удалённые на другом устройстве,
+ *   пока приложение было закрыто. Снимки из кэша до него применяются только как изменения документов.
+ * - Документы с hasPendingWrites - это эхо собственных записей, уже применённых локально: они пропускаются,
+ *   а подтверждение записи сервером меняет только метаданные и изменений не порождает.
+ * - Конфликты одновременного изменения количества на разных устройствах решаются правилом "побеждает запись,
+ *   последней применённая сервером": изменения из окна накопления (ещё не отправленные) считаются новее
+ *   пришедших, и удалённые изменения этих товаров пропускаются - затем они записываются поверх. Так все
+ *   устройства сходятся к состоянию документа на сервере. Отклонённую запись Firestore откатывает в локальном
+ *   кэше, и слушатель возвращает сохранённое состояние товара без отдельной перезагрузки корзины.
+ * - После ошибки слушатель Firestore прекращает работу; следующий вызов loadCartFromFirestore подписывается заново.
+ * - Документы заказанных товаров удаляет транзакция оформления заказа (CheckoutActivity); перед ней накопленные
+ *   изменения записываются, а после неё onOrderPlaced() отменяет отложенные записи этих товаров, чтобы они
+ *   не вернули удалённые документы.
+ * - Состояние корзины - неизменяемый CartSnapshot с номером версии: каждое изменение строит новую версию
+ *   и подменяет volatile-ссылку. Поиск товара выполняется за O(1), читатели из любого потока не берут блокировок
+ *   и не видят частично изменённую корзину.
+ * - Изменять корзину можно только из основного потока (updateSnapshot проверяет это через checkMainThread()):
+ *   там же работают обработчики нажатий и колбэки Firestore. Поэтому версии записываются в CartJournal
+ *   и рассылаются слушателям строго по порядку, а pendingProductIds, loadListeners, cartUserId и cartSynced
+ *   не требуют синхронизации.
+ * - Все изменения в корзине уведомляют зарегистрированных слушателей: они получают новую версию корзины
+ *   и список изменений (CartChange: добавлен, изменено количество, обновлены цена/название/изображение, удалён,
+ *   корзина очищена) с прежним и новым значением, поэтому нажатие на кнопку количества обновляет у каждого
+ *   слушателя одну строку.
+ *   Изменения вычисляются только для затронутых товаров; пустой список не рассылается.
+ *   Наборы слушателей - CopyOnWriteArraySet, поэтому слушатель может отписаться во время уведомления.
  */
 
 public class CartManager {
     private static CartManager instance;
-    private List<CartItem> cartItems;
+    private volatile CartSnapshot snapshot = CartSnapshot.EMPTY;
     private FirebaseFirestore db;
     private FirebaseAuth auth;
     private Set<OnCartChangedListener> listeners;
     private Set<OnErrorListener> errorListeners;
+    private static final long WRITE_DELAY_MS = 300;
+    private static final int MAX_BATCH_WRITES = 500;
+    private static final int ID_QUERY_CHUNK_SIZE = 30;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Set<String> pendingProductIds = new LinkedHashSet<>();
+    private String pendingUserId;
+    private final Runnable flushRunnable = this::flushPendingWrites;
+    private final List<OnCartLoadedListener> loadListeners = new ArrayList<>();
+    private boolean started = false;
+    private String cartUserId;
+    private ListenerRegistration cartListener;
+    private boolean cartSynced = false;
 
     private CartManager() {
-        cartItems = new ArrayList<>();
         db = FirebaseFirestore.getInstance();
         auth = FirebaseAuth.getInstance();
-        listeners = new HashSet<>();
-        errorListeners = new HashSet<>();
+        listeners = new CopyOnWriteArraySet<>();
+        errorListeners = new CopyOnWriteArraySet<>();
     }
 
     public static CartManager getInstance() {
@@ -82,6 +207,108 @@ public class CartManager {
         return instance;
     }
 
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        switchUser(auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null);
+        auth.addAuthStateListener(firebaseAuth -> {
+            String userId = firebaseAuth.getCurrentUser() != null ? firebaseAuth.getCurrentUser().getUid() : null;
+            if (!Objects.equals(userId, cartUserId)) {
+                switchUser(userId);
+            }
+        });
+    }
+
+    // Корзина пользователя синхронно восстанавливается из CartJournal и затем сверяется с Firestore слушателем
+    private void switchUser(String userId) {
+        flushPendingWrites();
+        if (cartListener != null) {
+            cartListener.remove();
+            cartListener = null;
+        }
+        cartSynced = false;
+        // Пока cartUserId == null, восстановленная корзина не записывается обратно на диск
+        cartUserId = null;
+        List<CartItem> storedItems = userId != null ? CartJournal.getInstance().loadItems(userId) : new ArrayList<>();
+        CartSnapshot cart = updateSnapshot(current -> current.withItems(storedItems), null);
+        cartUserId = userId;
+        Log.d("CartManager", "Корзина восстановлена с диска, элементов: " + cart.size());
+        if (userId == null) {
+            return;
+        }
+        for (String productId : CartJournal.getInstance().loadPendingProductIds(userId)) {
+            scheduleWrite(userId, productId);
+        }
+        listenToCart(userId);
+    }
+
+    private void listenToCart(String userId) {
+        cartListener = db.collection("users").document(userId).collection("cart")
+                .addSnapshotListener(MetadataChanges.INCLUDE, (querySnapshot, e) -> onCartSnapshot(userId, querySnapshot, e));
+    }
+
+    private void onCartSnapshot(String userId, QuerySnapshot querySnapshot, Exception e) {
+        if (!userId.equals(cartUserId)) {
+            return;
+        }
+        if (e != null) {
+            Log.e("CartManager", "Ошибка слушателя корзины: ", e);
+            cartListener = null;
+            cartSynced = false;
+            finishLoad(snapshot.getItems());
+            notifyError("Ошибка загрузки корзины");
+            return;
+        }
+        if (querySnapshot == null) {
+            return;
+        }
+        // Изменения из окна накопления ещё не отправлены и считаются новее пришедших - они запишутся поверх
+        Set<String> localIds = userId.equals(pendingUserId) ? pendingProductIds : Collections.emptySet();
+
+        if (!cartSynced && !querySnapshot.getMetadata().isFromCache()) {
+            List<CartItem> loadedItems = new ArrayList<>();
+            for (QueryDocumentSnapshot doc : querySnapshot) {
+                CartItem item = toCartItem(doc);
+                if (item != null) {
+                    loadedItems.add(item);
+                }
+            }
+            Map<String, CartItem> localChanges = new LinkedHashMap<>();
+            for (String productId : localIds) {
+                localChanges.put(productId, findItem(productId));
+            }
+            cartSynced = true;
+            CartSnapshot cart = updateSnapshot(current -> current.withItems(loadedItems).withChanges(localChanges), null);
+            Log.d("CartManager", "Корзина сверена с Firestore, элементов: " + cart.size());
+            finishLoad(cart.getItems());
+            return;
+        }
+
+        // Изменения только метаданных (подтверждение записи, переход из кэша на сервер) сюда не попадают
+        Map<String, CartItem> remoteChanges = new LinkedHashMap<>();
+        for (DocumentChange change : querySnapshot.getDocumentChanges()) {
+            QueryDocumentSnapshot doc = change.getDocument();
+            String productId = doc.getId();
+            if (doc.getMetadata().hasPendingWrites() || localIds.contains(productId)) {
+                continue;
+            }
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                remoteChanges.put(productId, null);
+            } else {
+                CartItem item = toCartItem(doc);
+                if (item != null) {
+                    remoteChanges.put(productId, item);
+                }
+            }
+        }
+        if (!remoteChanges.isEmpty()) {
+            updateSnapshot(current -> current.withChanges(remoteChanges), remoteChanges.keySet());
+            Log.d("CartManager", "Применены изменения корзины из Firestore: " + remoteChanges.size());
+        }
+    }
+
     public void addOnCartChangedListener(OnCartChangedListener listener) {
         listeners.add(listener);
     }
@@ -98,11 +325,34 @@ public class CartManager {
         errorListeners.remove(listener);
     }
 
-    private void notifyCartChanged() {
-        Log.d("CartManager", "Уведомление об изменении корзины, элементов: " + cartItems.size());
-        List<CartItem> itemsCopy = new ArrayList<>(cartItems);
+    // productIds - товары, которые затрагивает изменение (null - сравнить корзины целиком)
+    private CartSnapshot updateSnapshot(UnaryOperator<CartSnapshot> change, Collection<String> productIds) {
+        checkMainThread();
+        CartSnapshot previous = snapshot;
+        CartSnapshot cart = change.apply(previous);
+        snapshot = cart;
+        if (cartUserId != null && cart != previous) {
+            CartJournal.getInstance().saveItems(cartUserId, cart.getItems());
+        }
+        notifyCartChanged(cart, CartChange.between(previous, cart, productIds));
+        return cart;
+    }
+
+    // Изменения, запись в журнал и уведомления выполняются в одном потоке, поэтому слушатели и CartJournal
+    // получают версии строго по порядку
+    private static void checkMainThread() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("Корзину можно изменять только из основного потока");
+        }
+    }
+
+    private void notifyCartChanged(CartSnapshot cart, List<CartChange> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Log.d("CartManager", "Уведомление об изменении корзины, версия: " + cart.getVersion() + ", изменений: " + changes.size());
         for (OnCartChangedListener listener : listeners) {
-            listener.onCartChanged(itemsCopy);
+            listener.onCartChanged(cart, changes);
         }
     }
 
@@ -120,29 +370,25 @@ public class CartManager {
             return;
         }
 
-        // Проверка на дубликат в локальном списке
-        for (CartItem existingItem : cartItems) {
-            if (existingItem.getProductId().equals(item.getProductId())) {
-                int newQuantity = existingItem.getQuantity() + item.getQuantity();
-                updateQuantity(item.getProductId(), newQuantity);
-                return;
-            }
+        // Проверка на дубликат в текущей корзине
+        CartItem existingItem = findItem(item.getProductId());
+        if (existingItem != null) {
+            updateQuantity(item.getProductId(), existingItem.getQuantity() + item.getQuantity());
+            return;
+        }
+
+        Integer cachedQuantity = StockCache.getInstance().getAvailableQuantity(item.getProductId());
+        if (cachedQuantity != null) {
+            addItem(userId, item, cachedQuantity);
+            return;
         }
 
         db.collection("products").document(item.getProductId())
                 .get()
                 .addOnSuccessListener(document -> {
                     if (document.exists()) {
-                        int availableQuantity = document.getLong("quantity").intValue();
-                        if (availableQuantity >= item.getQuantity()) {
-                            cartItems.add(item);
-                            updateFirestore(userId, item);
-                            Log.d("CartManager", "Товар добавлен: " + item.getProductId() + ", количество: " + item.getQuantity());
-                            notifyCartChanged();
-                        } else {
-                            Log.w("CartManager", "Недостаточно товара: " + item.getProductId());
-                            notifyError("Недостаточно товара: " + item.getName());
-                        }
+                        Long quantity = document.getLong("quantity");
+                        addItem(userId, item, quantity != null ? quantity.intValue() : 0);
                     } else {
                         Log.e("CartManager", "Товар не найден: " + item.getProductId());
                         notifyError("Товар не найден");
@@ -155,22 +401,242 @@ public class CartManager {
     }
 
     public void removeAllFromCart() {
+        removeAllFromCart(null);
+    }
+
+    public void removeAllFromCart(OnCartSavedListener listener) {
         String userId = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
-        if (userId != null) {
-            db.collection("users").document(userId).collection("cart").get()
-                    .addOnSuccessListener(queryDocumentSnapshots -> {
-                        for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
-                            doc.getReference().delete();
+        if (userId == null) {
+            if (listener != null) {
+                listener.onCartSaved(false);
+            }
+            return;
+        }
+        // Накопленные изменения текущего пользователя не записываются: документы корзины удаляются целиком
+        if (pendingUserId != null && !pendingUserId.equals(userId)) {
+            flushPendingWrites();
+        }
+        handler.removeCallbacks(flushRunnable);
+        if (!pendingProductIds.isEmpty()) {
+            CartJournal.getInstance().removePending(userId, pendingProductIds);
+        }
+        pendingProductIds.clear();
+        pendingUserId = null;
+
+        Set<String> productIds = new LinkedHashSet<>();
+        for (CartItem item : snapshot.getItems()) {
+            productIds.add(item.getProductId());
+        }
+        updateSnapshot(current -> current.withItems(new ArrayList<>()), null);
+        Log.d("CartManager", "Корзина очищена");
+
+        // Сверенная слушателем корзина уже содержит и товары, добавленные на других устройствах
+        if (cartSynced && userId.equals(cartUserId)) {
+            commitCartWrites(userId, deletionsOf(productIds), listener);
+            return;
+        }
+        // Один запрос нужен, чтобы удалить и документы, которых нет в локальной корзине (добавленные с другого устройства)
+        db.collection("users").document(userId).collection("cart").get()
+                .addOnSuccessListener(queryDocumentSnapshots -> {
+                    for (QueryDocumentSnapshot doc : queryDocumentSnapshots) {
+                        if (findItem(doc.getId()) == null) {
+                            productIds.add(doc.getId());
                         }
-                        cartItems.clear();
-                        Log.d("CartManager", "Корзина очищена");
-                        notifyCartChanged();
-                    })
-                    .addOnFailureListener(e -> {
-                        Log.e("CartManager", "Ошибка очистки корзины: ", e);
-                        notifyError("Ошибка очистки корзины");
-                    });
+                    }
+                    commitCartWrites(userId, deletionsOf(productIds), listener);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e("CartManager", "Ошибка чтения корзины перед очисткой: ", e);
+                    commitCartWrites(userId, deletionsOf(productIds), listener);
+                });
+    }
+
+    public void removeItems(Collection<String> productIds, OnCartSavedListener listener) {
+        String userId = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (userId == null) {
+            notifyError("Войдите, чтобы изменить корзину");
+            if (listener != null) {
+                listener.onCartSaved(false);
+            }
+            return;
+        }
+        Map<String, CartItem> changes = new LinkedHashMap<>();
+        for (String productId : productIds) {
+            if (findItem(productId) != null) {
+                changes.put(productId, null);
+            }
+        }
+        applyBulkChanges(userId, changes, listener);
+    }
+
+    public void setQuantities(Map<String, Integer> quantities, OnCartSavedListener listener) {
+        String userId = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (userId == null) {
+            notifyError("Войдите, чтобы изменить корзину");
+            if (listener != null) {
+                listener.onCartSaved(false);
+            }
+            return;
+        }
+        Map<String, CartItem> changes = new LinkedHashMap<>();
+        boolean limited = false;
+        boolean skipped = false;
+        for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            String productId = entry.getKey();
+            int newQuantity = entry.getValue();
+            Integer availableQuantity = StockCache.getInstance().getAvailableQuantity(productId);
+            if (availableQuantity != null && newQuantity > availableQuantity) {
+                newQuantity = availableQuantity;
+                limited = true;
+            }
+            CartItem item = findItem(productId);
+            if (newQuantity <= 0) {
+                if (item != null) {
+                    changes.put(productId, null);
+                }
+                continue;
+            }
+            if (item != null) {
+                if (item.getQuantity() != newQuantity) {
+                    changes.put(productId, new CartItem(productId, item.getName(), item.getPrice(), newQuantity, item.getImageUrl()));
+                }
+                continue;
+            }
+            Product product = ProductStore.getInstance().get(productId);
+            if (product == null || product.getName() == null || product.getImageUrl() == null) {
+                skipped = true;
+                continue;
+            }
+            changes.put(productId, new CartItem(productId, product.getName(), product.getPrice(), newQuantity, product.getImageUrl()));
+        }
+        if (limited) {
+            notifyError("Количество некоторых товаров уменьшено до доступного");
+        }
+        if (skipped) {
+            notifyError("Некоторые товары не найдены");
+        }
+        applyBulkChanges(userId, changes, listener);
+    }
+
+    public void revalidateCart(OnCartValidatedListener listener) {
+        List<CartItem> items = snapshot.getItems();
+        if (items.isEmpty()) {
+            listener.onCartValidated(new CartValidation(new ArrayList<>(), true));
+            return;
+        }
+        List<List<String>> chunks = new ArrayList<>();
+        List<Task<QuerySnapshot>> queries = new ArrayList<>();
+        for (int start = 0; start < items.size(); start += ID_QUERY_CHUNK_SIZE) {
+            List<String> chunk = new ArrayList<>();
+            for (CartItem item : items.subList(start, Math.min(start + ID_QUERY_CHUNK_SIZE, items.size()))) {
+                chunk.add(item.getProductId());
+            }
+            chunks.add(chunk);
+            queries.add(db.collection("products").whereIn(FieldPath.documentId(), chunk).get());
+        }
+        Tasks.whenAllComplete(queries).addOnCompleteListener(task -> {
+            Map<String, DocumentSnapshot> products = new HashMap<>();
+            Set<String> missingIds = new HashSet<>();
+            boolean complete = true;
+            for (int i = 0; i < queries.size(); i++) {
+                Task<QuerySnapshot> query = queries.get(i);
+                if (!query.isSuccessful()) {
+                    Log.e("CartManager", "Ошибка проверки товаров корзины: ", query.getException());
+                    complete = false;
+                    continue;
+                }
+                for (QueryDocumentSnapshot doc : query.getResult()) {
+                    products.put(doc.getId(), doc);
+                }
+                // Товаров, которых нет в ответе, больше не существует
+                for (String productId : chunks.get(i)) {
+                    if (!products.containsKey(productId)) {
+                        missingIds.add(productId);
+                    }
+                }
+            }
+            // Остаток шардированных товаров - сумма шардов, а не поле quantity документа
+            Map<String, Integer> quantities = new HashMap<>();
+            List<String> shardedIds = new ArrayList<>();
+            List<Task<Integer>> shardReads = new ArrayList<>();
+            for (DocumentSnapshot product : products.values()) {
+                if (StockShards.shardCountOf(product) > 0) {
+                    shardedIds.add(product.getId());
+                    shardReads.add(StockShards.loadQuantity(product.getId()));
+                } else {
+                    Long quantity = product.getLong("quantity");
+                    quantities.put(product.getId(), quantity != null ? quantity.intValue() : 0);
+                }
+            }
+            boolean productsComplete = complete;
+            Tasks.whenAllComplete(shardReads).addOnCompleteListener(shardTask -> {
+                boolean allRead = productsComplete;
+                for (int i = 0; i < shardReads.size(); i++) {
+                    if (shardReads.get(i).isSuccessful()) {
+                        quantities.put(shardedIds.get(i), shardReads.get(i).getResult());
+                    } else {
+                        Log.e("CartManager", "Ошибка чтения шардов остатка: ", shardReads.get(i).getException());
+                        allRead = false;
+                    }
+                }
+                StockCache.getInstance().applyQuantities(quantities, missingIds);
+                CartValidation validation = applyValidation(products, quantities, missingIds, allRead);
+                Log.d("CartManager", "Корзина проверена, запросов: " + (queries.size() + shardReads.size())
+                        + ", проблем: " + validation.getIssues().size());
+                if (!allRead) {
+                    notifyError("Не удалось проверить часть товаров корзины");
+                }
+                listener.onCartValidated(validation);
+            });
+        });
+    }
+
+    // Строки сравниваются с текущей версией корзины: за время запросов пользователь мог изменить количество
+    private CartValidation applyValidation(Map<String, DocumentSnapshot> products, Map<String, Integer> quantities,
+                                           Set<String> missingIds, boolean complete) {
+        List<CartValidation.Issue> issues = new ArrayList<>();
+        Map<String, CartItem> refreshedItems = new LinkedHashMap<>();
+        for (CartItem item : snapshot.getItems()) {
+            if (missingIds.contains(item.getProductId())) {
+                issues.add(new CartValidation.Issue(CartValidation.Issue.Type.NOT_FOUND, item, item.getPrice(), 0));
+                continue;
+            }
+            DocumentSnapshot product = products.get(item.getProductId());
+            if (product == null) {
+                continue;
+            }
+            Long priceLong = product.getLong("price");
+            String name = product.getString("name");
+            String imageUrl = product.getString("imageUrl");
+            int price = priceLong != null ? priceLong.intValue() : item.getPrice();
+            // null - остаток прочитать не удалось, проверяется только цена
+            Integer availableQuantity = quantities.get(item.getProductId());
+            if (availableQuantity == null) {
+                if (price != item.getPrice()) {
+                    issues.add(new CartValidation.Issue(CartValidation.Issue.Type.PRICE_CHANGED, item, price, item.getQuantity()));
+                }
+            } else if (availableQuantity <= 0) {
+                issues.add(new CartValidation.Issue(CartValidation.Issue.Type.OUT_OF_STOCK, item, price, availableQuantity));
+            } else if (availableQuantity < item.getQuantity()) {
+                issues.add(new CartValidation.Issue(CartValidation.Issue.Type.INSUFFICIENT_STOCK, item, price, availableQuantity));
+            } else if (price != item.getPrice()) {
+                issues.add(new CartValidation.Issue(CartValidation.Issue.Type.PRICE_CHANGED, item, price, availableQuantity));
+            }
+            CartItem refreshedItem = new CartItem(item.getProductId(), name != null ? name : item.getName(), price,
+                    item.getQuantity(), imageUrl != null ? imageUrl : item.getImageUrl());
+            if (price != item.getPrice() || !refreshedItem.getName().equals(item.getName())
+                    || !Objects.equals(refreshedItem.getImageUrl(), item.getImageUrl())) {
+                refreshedItems.put(item.getProductId(), refreshedItem);
+            }
+        }
+        String userId = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
+        if (userId != null && !refreshedItems.isEmpty()) {
+            updateSnapshot(current -> current.withChanges(refreshedItems), refreshedItems.keySet());
+            for (String productId : refreshedItems.keySet()) {
+                scheduleWrite(userId, productId);
+            }
         }
+        return new CartValidation(issues, complete);
     }
 
     public void updateQuantity(String productId, int newQuantity) {
@@ -182,55 +648,44 @@ public class CartManager {
         }
 
         if (newQuantity <= 0) {
-            for (int i = 0; i < cartItems.size(); i++) {
-                if (cartItems.get(i).getProductId().equals(productId)) {
-                    cartItems.remove(i);
-                    db.collection("users").document(userId).collection("cart").document(productId)
-                            .delete()
-                            .addOnSuccessListener(aVoid -> {
-                                Log.d("CartManager", "Товар удалён: " + productId);
-                                notifyCartChanged();
-                            })
-                            .addOnFailureListener(e -> {
-                                Log.e("CartManager", "Ошибка удаления товара: ", e);
-                                notifyError("Ошибка удаления товара");
-                            });
-                    return;
-                }
+            if (findItem(productId) != null) {
+                updateSnapshot(current -> current.withoutItem(productId), Collections.singleton(productId));
+                scheduleWrite(userId, productId);
+                Log.d("CartManager", "Товар удалён: " + productId);
             }
             return;
         }
 
+        CartItem existingItem = findItem(productId);
+        Integer cachedQuantity = StockCache.getInstance().getAvailableQuantity(productId);
+        if (existingItem != null && cachedQuantity != null) {
+            setItemQuantity(userId, existingItem, newQuantity, cachedQuantity);
+            return;
+        }
+        Product cachedProduct = ProductStore.getInstance().get(productId);
+        if (existingItem == null && cachedQuantity != null && cachedProduct != null
+                && cachedProduct.getName() != null && cachedProduct.getImageUrl() != null) {
+            addItem(userId, new CartItem(productId, cachedProduct.getName(), cachedProduct.getPrice(),
+                    newQuantity, cachedProduct.getImageUrl()), cachedQuantity);
+            return;
+        }
+
+        CartItem itemToUpdate = existingItem;
         db.collection("products").document(productId)
                 .get()
                 .addOnSuccessListener(document -> {
                     if (document.exists()) {
-                        int availableQuantity = document.getLong("quantity").intValue();
-                        if (newQuantity <= availableQuantity) {
-                            boolean found = false;
-                            for (CartItem item : cartItems) {
-                                if (item.getProductId().equals(productId)) {
-                                    item.setQuantity(newQuantity);
-                                    updateFirestore(userId, item);
-                                    found = true;
-                                    break;
-                                }
-                            }
-                            if (!found) {
-                                String name = document.getString("name");
-                                Long price = document.getLong("price");
-                                String imageUrl = document.getString("imageUrl");
-                                if (name != null && price != null && imageUrl != null) {
-                                    CartItem newItem = new CartItem(productId, name, price.intValue(), newQuantity, imageUrl);
-                                    cartItems.add(newItem);
-                                    updateFirestore(userId, newItem);
-                                }
-                            }
-                            Log.d("CartManager", "Обновлено количество: " + productId + ", новое: " + newQuantity);
-                            notifyCartChanged();
-                        } else {
-                            Log.w("CartManager", "Запрошено больше, чем в наличии: " + newQuantity + " > " + availableQuantity);
-                            notifyError("Нельзя добавить больше, чем есть в наличии");
+                        Long quantity = document.getLong("quantity");
+                        int availableQuantity = quantity != null ? quantity.intValue() : 0;
+                        if (itemToUpdate != null) {
+                            setItemQuantity(userId, itemToUpdate, newQuantity, availableQuantity);
+                            return;
+                        }
+                        String name = document.getString("name");
+                        Long price = document.getLong("price");
+                        String imageUrl = document.getString("imageUrl");
+                        if (name != null && price != null && imageUrl != null) {
+                            addItem(userId, new CartItem(productId, name, price.intValue(), newQuantity, imageUrl), availableQuantity);
                         }
                     } else {
                         Log.e("CartManager", "Товар не найден: " + productId);
@@ -243,83 +698,238 @@ public class CartManager {
                 });
     }
 
-    private void updateFirestore(String userId, CartItem item) {
+    private void addItem(String userId, CartItem item, int availableQuantity) {
+        if (availableQuantity >= item.getQuantity()) {
+            updateSnapshot(current -> current.withItem(item), Collections.singleton(item.getProductId()));
+            scheduleWrite(userId, item.getProductId());
+            Log.d("CartManager", "Товар добавлен: " + item.getProductId() + ", количество: " + item.getQuantity());
+        } else {
+            Log.w("CartManager", "Недостаточно товара: " + item.getProductId());
+            notifyError("Недостаточно товара: " + item.getName());
+        }
+    }
+
+    private void setItemQuantity(String userId, CartItem item, int newQuantity, int availableQuantity) {
+        if (newQuantity <= availableQuantity) {
+            // Элементы снимка не изменяются: новое количество - новый CartItem
+            CartItem updatedItem = new CartItem(item.getProductId(), item.getName(), item.getPrice(), newQuantity, item.getImageUrl());
+            updateSnapshot(current -> current.withItem(updatedItem), Collections.singleton(updatedItem.getProductId()));
+            scheduleWrite(userId, item.getProductId());
+            Log.d("CartManager", "Обновлено количество: " + item.getProductId() + ", новое: " + newQuantity);
+        } else {
+            Log.w("CartManager", "Запрошено больше, чем в наличии: " + newQuantity + " > " + availableQuantity);
+            notifyError("Нельзя добавить больше, чем есть в наличии");
+        }
+    }
+
+    private void scheduleWrite(String userId, String productId) {
+        if (pendingUserId != null && !pendingUserId.equals(userId)) {
+            flushPendingWrites();
+        }
+        pendingUserId = userId;
+        if (pendingProductIds.isEmpty()) {
+            handler.postDelayed(flushRunnable, WRITE_DELAY_MS);
+        }
+        if (pendingProductIds.add(productId)) {
+            CartJournal.getInstance().addPending(userId, productId);
+        }
+    }
+
+    public void flushPendingWrites() {
+        flushPendingWrites(null);
+    }
+
+    public void flushPendingWrites(OnCartSavedListener listener) {
+        handler.removeCallbacks(flushRunnable);
+        if (pendingProductIds.isEmpty()) {
+            if (listener != null) {
+                listener.onCartSaved(true);
+            }
+            return;
+        }
+        String userId = pendingUserId;
+        Map<String, CartItem> writes = new LinkedHashMap<>();
+        for (String productId : pendingProductIds) {
+            writes.put(productId, findItem(productId));
+        }
+        pendingProductIds.clear();
+        pendingUserId = null;
+        commitCartWrites(userId, writes, listener);
+    }
+
+    // Документы этих товаров уже удалены транзакцией оформления заказа - здесь они убираются только локально
+    public void onOrderPlaced(Collection<String> productIds) {
+        String userId = cartUserId;
+        if (userId == null) {
+            return;
+        }
+        if (userId.equals(pendingUserId)) {
+            pendingProductIds.removeAll(productIds);
+        }
+        CartJournal.getInstance().removePending(userId, productIds);
+        Map<String, CartItem> deletions = new LinkedHashMap<>();
+        for (String productId : productIds) {
+            if (findItem(productId) != null) {
+                deletions.put(productId, null);
+            }
+        }
+        if (!deletions.isEmpty()) {
+            updateSnapshot(current -> current.withChanges(deletions), deletions.keySet());
+            Log.d("CartManager", "Заказанные товары убраны из корзины: " + deletions.size());
+        }
+    }
+
+    private void applyBulkChanges(String userId, Map<String, CartItem> changes, OnCartSavedListener listener) {
+        if (!changes.isEmpty()) {
+            updateSnapshot(current -> current.withChanges(changes), changes.keySet());
+            Log.d("CartManager", "Изменено товаров в корзине: " + changes.size());
+        }
+        commitCartWrites(userId, changes, listener);
+    }
+
+    // Итоговое состояние товаров пишется пакетами до MAX_BATCH_WRITES операций; listener вызывается один раз,
+    // когда подтверждены все пакеты
+    private void commitCartWrites(String userId, Map<String, CartItem> writes, OnCartSavedListener listener) {
+        if (writes.isEmpty()) {
+            if (listener != null) {
+                listener.onCartSaved(true);
+            }
+            return;
+        }
+        // Эти товары уже входят в пакет с итоговым состоянием, отдельная отложенная запись им не нужна
+        if (userId.equals(pendingUserId)) {
+            pendingProductIds.removeAll(writes.keySet());
+        }
+        // Переданные в WriteBatch изменения хранит и отправляет после восстановления связи очередь записей Firestore
+        CartJournal.getInstance().removePending(userId, writes.keySet());
+        List<Task<Void>> commits = new ArrayList<>();
+        WriteBatch batch = db.batch();
+        int batchSize = 0;
+        for (Map.Entry<String, CartItem> write : writes.entrySet()) {
+            DocumentReference document = db.collection("users").document(userId).collection("cart").document(write.getKey());
+            if (write.getValue() != null) {
+                batch.set(document, toCartData(write.getValue()));
+            } else {
+                batch.delete(document);
+            }
+            batchSize++;
+            if (batchSize == MAX_BATCH_WRITES) {
+                commits.add(batch.commit());
+                batch = db.batch();
+                batchSize = 0;
+            }
+        }
+        if (batchSize > 0) {
+            commits.add(batch.commit());
+        }
+
+        int writeCount = writes.size();
+        int commitCount = commits.size();
+        Tasks.whenAll(commits).addOnCompleteListener(task -> {
+            if (task.isSuccessful()) {
+                Log.d("CartManager", "Корзина обновлена в Firestore, товаров: " + writeCount + ", пакетов: " + commitCount);
+            } else {
+                Log.e("CartManager", "Ошибка обновления Firestore: ", task.getException());
+                // Отклонённые записи Firestore откатывает в кэше, и слушатель корзины вернёт сохранённое состояние
+                notifyError("Ошибка сохранения корзины");
+            }
+            if (listener != null) {
+                listener.onCartSaved(task.isSuccessful());
+            }
+        });
+    }
+
+    private static Map<String, CartItem> deletionsOf(Collection<String> productIds) {
+        Map<String, CartItem> deletions = new LinkedHashMap<>();
+        for (String productId : productIds) {
+            deletions.put(productId, null);
+        }
+        return deletions;
+    }
+
+    private Map<String, Object> toCartData(CartItem item) {
         Map<String, Object> cartData = new HashMap<>();
         cartData.put("productId", item.getProductId());
         cartData.put("name", item.getName());
         cartData.put("price", item.getPrice());
         cartData.put("quantity", item.getQuantity());
         cartData.put("imageUrl", item.getImageUrl());
+        return cartData;
+    }
 
-        db.collection("users").document(userId).collection("cart").document(item.getProductId())
-                .set(cartData)
-                .addOnSuccessListener(aVoid -> {
-                    Log.d("CartManager", "Корзина обновлена в Firestore: " + item.getProductId());
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("CartManager", "Ошибка обновления Firestore: ", e);
-                    notifyError("Ошибка сохранения корзины");
-                });
+    private CartItem findItem(String productId) {
+        return snapshot.getItem(productId);
+    }
+
+    public CartSnapshot getSnapshot() {
+        return snapshot;
     }
 
     public List<CartItem> getCartItems() {
-        return new ArrayList<>(cartItems);
+        return snapshot.getItems();
     }
 
     public int getItemQuantity(String productId) {
-        for (CartItem item : cartItems) {
-            if (item.getProductId().equals(productId)) {
-                return item.getQuantity();
-            }
-        }
-        return 0;
+        return snapshot.getQuantity(productId);
     }
 
     public void loadCartFromFirestore(OnCartLoadedListener listener) {
         String userId = auth.getCurrentUser() != null ? auth.getCurrentUser().getUid() : null;
         if (userId == null) {
-            cartItems.clear();
+            CartSnapshot cart = updateSnapshot(current -> current.withItems(new ArrayList<>()), null);
             Log.d("CartManager", "Пользователь не авторизован, корзина очищена");
-            listener.onCartLoaded(new ArrayList<>());
-            notifyCartChanged();
+            listener.onCartLoaded(cart.getItems());
+            return;
+        }
+        // Слушатель уже держит корзину сверенной с Firestore - повторное чтение не нужно
+        if (cartSynced && userId.equals(cartUserId)) {
+            listener.onCartLoaded(snapshot.getItems());
             return;
         }
 
-        db.collection("users").document(userId).collection("cart")
-                .get()
-                .addOnSuccessListener(snapshot -> {
-                    cartItems.clear();
-                    for (QueryDocumentSnapshot doc : snapshot) {
-                        String productId = doc.getString("productId");
-                        String name = doc.getString("name");
-                        Long priceLong = doc.getLong("price");
-                        Long quantityLong = doc.getLong("quantity");
-                        String imageUrl = doc.getString("imageUrl");
-                        if (productId != null && name != null && priceLong != null && quantityLong != null && imageUrl != null) {
-                            CartItem item = new CartItem(productId, name, priceLong.intValue(), quantityLong.intValue(), imageUrl);
-                            cartItems.add(item);
-                            Log.d("CartManager", "Добавлен в корзину: " + item.getName() + ", количество: " + item.getQuantity());
-                        }
-                    }
-                    Log.d("CartManager", "Корзина загружена, элементов: " + cartItems.size());
-                    listener.onCartLoaded(new ArrayList<>(cartItems));
-                    notifyCartChanged();
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("CartManager", "Ошибка загрузки корзины: ", e);
-                    listener.onCartLoaded(new ArrayList<>());
-                    notifyError("Ошибка загрузки корзины");
-                });
+        // До первого снимка с сервера новые вызовы только ждут его
+        loadListeners.add(listener);
+        if (cartListener == null && userId.equals(cartUserId)) {
+            listenToCart(userId);
+        }
+    }
+
+    private CartItem toCartItem(DocumentSnapshot doc) {
+        String productId = doc.getString("productId");
+        String name = doc.getString("name");
+        Long priceLong = doc.getLong("price");
+        Long quantityLong = doc.getLong("quantity");
+        String imageUrl = doc.getString("imageUrl");
+        if (productId == null || name == null || priceLong == null || quantityLong == null || imageUrl == null) {
+            return null;
+        }
+        return new CartItem(productId, name, priceLong.intValue(), quantityLong.intValue(), imageUrl);
+    }
+
+    private void finishLoad(List<CartItem> items) {
+        List<OnCartLoadedListener> waitingListeners = new ArrayList<>(loadListeners);
+        loadListeners.clear();
+        for (OnCartLoadedListener waitingListener : waitingListeners) {
+            waitingListener.onCartLoaded(items);
+        }
     }
 
     public interface OnCartChangedListener {
-        void onCartChanged(List<CartItem> cartItems);
+        void onCartChanged(CartSnapshot cart, List<CartChange> changes);
     }
 
     public interface OnCartLoadedListener {
         void onCartLoaded(List<CartItem> items);
     }
 
+    public interface OnCartSavedListener {
+        void onCartSaved(boolean success);
+    }
+
+    public interface OnCartValidatedListener {
+        void onCartValidated(CartValidation validation);
+    }
+
     public interface OnErrorListener {
         void onError(String message);
     }
@@ -24,17 +24,12 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.auth.FirebaseUser;
-import com.google.firebase.firestore.FieldValue;
-import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 
 import javax.mail.Message;
@@ -67,22 +62,24 @@ import javax.mail.internet.MimeMultipart;
  *
  * Методы:
  * - onCreateView(): Инициализация интерфейса, настройка RecyclerView и кнопок.
- * - onCartChanged(List<CartItem>): Вызывается при изменении корзины, обновляет данные и интерфейс.
+ * - onCartChanged(CartSnapshot, List<CartChange>): Передаёт изменения корзины в CartAdapter построчно и обновляет итоги.
  * - onError(String): Отображает сообщение об ошибке.
  * - onActivityResult(int, int, Intent): Обрабатывает результат оформления заказа, генерирует PDF и отправляет email.
- * - saveOrderToHistory(String, String, List<CartItem>, int): Сохраняет заказ в Firestore в историю пользователя.
- * - loadCart(): Загружает корзину из Firestore через CartManager.
- * - updateUI(): Обновляет отображение количества товаров и общей стоимости.
- * - generatePdf(String, String, List<CartItem>, int): Генерирует PDF чек для заказа.
- * - sendEmailWithPdf(String, String, File, int, List<CartItem>): Отправляет email с прикрепленным PDF.
- * - calculateTotalPrice(List<CartItem>): Вычисляет общую стоимость товаров в корзине.
+ * - loadCart(): Сверяет корзину с Firestore через CartManager (до ответа отображается корзина, восстановленная с диска).
+ * - revalidateCart(): Проверяет цены и наличие всех товаров корзины и отмечает строки с проблемами.
+ * - updateUI(): Обновляет отображение количества товаров и общей стоимости по итогам из CartSnapshot (без цикла по корзине).
+ * - generatePdf(String, String, List<CartItem>, CartTotals, int): Генерирует PDF чек для заказа.
+ * - sendEmailWithPdf(String, String, File, int, List<CartItem>, CartTotals): Отправляет email с прикрепленным PDF.
  * - onDestroyView(): Удаляет слушатели изменений корзины и очищает обработчики.
  *
  * Логика:
  * - Пользователь может очистить корзину, оформить заказ или обновить количество товаров.
  * - При оформлении заказа генерируется PDF чек и отправляется на email пользователя.
- * - История заказов сохраняется в Firestore для текущего пользователя.
+ * - Запись в историю заказов и очистку корзины выполняет транзакция оформления заказа (CheckoutActivity),
+ *   здесь по результату только генерируется и отправляется чек.
  * - Все изменения корзины автоматически обновляют интерфейс.
+ * - При открытии корзины все строки проверяются одним проходом (CartManager.revalidateCart): изменившиеся
+ *   цены обновляются в итогах, а нехватка товара видна в строке до нажатия "Оформить заказ".
  */
 
 public class CartPageFragment extends Fragment implements CartManager.OnCartChangedListener, CartManager.OnErrorListener {
@@ -118,6 +115,7 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
 
         cartManager.addOnCartChangedListener(this);
         cartManager.addOnErrorListener(this);
+        updateUI();
         loadCart();
 
         clearCartButton.setOnClickListener(v -> {
@@ -143,10 +141,10 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
     }
 
     @Override
-    public void onCartChanged(List<CartItem> cartItems) {
+    public void onCartChanged(CartSnapshot cart, List<CartChange> changes) {
         if (isAdded()) {
-            Log.d(TAG, "onCartChanged вызван, элементов: " + cartItems.size());
-            cartAdapter.updateCartItems(cartItems);
+            Log.d(TAG, "onCartChanged вызван, изменений: " + changes.size());
+            cartAdapter.applyChanges(changes);
             updateUI();
         }
     }
@@ -166,21 +164,18 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
             String email = data.getStringExtra("email");
             List<CartItem> items = (List<CartItem>) data.getSerializableExtra("cart_items");
             int commission = data.getIntExtra("commission", 0);
+            CartTotals totals = CartTotals.of(items);
 
             new Thread(() -> {
                 try {
-                    File pdfFile = generatePdf(orderId, email, items, commission);
+                    File pdfFile = generatePdf(orderId, email, items, totals, commission);
                     if (pdfFile.exists() && pdfFile.length() > 0) {
                         Log.i(TAG, "PDF файл успешно создан: " + pdfFile.getAbsolutePath() + ", размер: " + pdfFile.length());
-                        sendEmailWithPdf(email, orderId, pdfFile, commission, items);
-                        saveOrderToHistory(orderId, email, items, commission);
+                        sendEmailWithPdf(email, orderId, pdfFile, commission, items, totals);
 
                         if (isAdded()) {
-                            mainHandler.post(() -> {
-                                Toast.makeText(getContext(), "Чек отправлен на " + email, Toast.LENGTH_SHORT).show();
-                                cartManager.removeAllFromCart();
-                                updateUI();
-                            });
+                            mainHandler.post(() ->
+                                    Toast.makeText(getContext(), "Чек отправлен на " + email, Toast.LENGTH_SHORT).show());
                         }
                     } else {
                         Log.e(TAG, "PDF файл не существует или пуст: " + pdfFile.getAbsolutePath());
@@ -200,52 +195,35 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
         }
     }
 
-    private void saveOrderToHistory(String orderId, String email, List<CartItem> items, int commission) {
-        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
-        if (user == null) return;
-
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        String userId = user.getUid();
-
-        int subtotal = calculateTotalPrice(items);
-        int totalWithCommission = subtotal + commission;
-
-        Map<String, Object> orderData = new HashMap<>();
-        orderData.put("orderId", orderId);
-        orderData.put("email", email);
-        orderData.put("timestamp", FieldValue.serverTimestamp());
-        orderData.put("items", items);
-        orderData.put("subtotal", subtotal);
-        orderData.put("commission", commission);
-        orderData.put("totalWithCommission", totalWithCommission);
-        orderData.put("paymentMethod", commission > 0 ? "card" : "cash");
-
-        db.collection("users").document(userId)
-                .collection("orders_history").document(orderId)
-                .set(orderData)
-                .addOnSuccessListener(aVoid -> Log.i(TAG, "Заказ сохранён в историю: " + orderId))
-                .addOnFailureListener(e -> Log.e(TAG, "Ошибка сохранения заказа в историю: " + e.getMessage()));
-    }
-
     private void loadCart() {
         cartManager.loadCartFromFirestore(items -> {
             if (isAdded()) {
                 cartAdapter.updateCartItems(items);
                 updateUI();
+                revalidateCart();
+            }
+        });
+    }
+
+    private void revalidateCart() {
+        cartManager.revalidateCart(validation -> {
+            if (!isAdded()) {
+                return;
+            }
+            cartAdapter.setValidation(validation);
+            updateUI();
+            if (validation.hasStockIssues()) {
+                Toast.makeText(getContext(), "Некоторых товаров не хватает - проверьте корзину", Toast.LENGTH_LONG).show();
+            } else if (validation.hasIssues()) {
+                Toast.makeText(getContext(), "Цены некоторых товаров изменились", Toast.LENGTH_LONG).show();
             }
         });
     }
 
     private void updateUI() {
-        List<CartItem> items = cartManager.getCartItems();
-        int totalItems = 0;
-        int totalPrice = 0;
-        for (CartItem item : items) {
-            int quantity = item.getQuantity();
-            totalItems += quantity;
-            totalPrice += item.getTotalPrice();
-            Log.d(TAG, "Товар: " + item.getName() + ", Количество: " + quantity);
-        }
+        CartTotals totals = cartManager.getSnapshot().getTotals();
+        int totalItems = totals.getItemCount();
+        long totalPrice = totals.getSubtotal();
         Log.d(TAG, "Обновление UI: totalItems=" + totalItems + ", totalPrice=" + totalPrice);
         cartItemsCount.setText("Товаров в корзине: " + totalItems);
         cartTotalPrice.setText("Общая цена: " + totalPrice + " руб.");
@@ -255,7 +233,7 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
         updateUI();
     }
 
-    private File generatePdf(String orderId, String email, List<CartItem> items, int commission) throws IOException {
+    private File generatePdf(String orderId, String email, List<CartItem> items, CartTotals totals, int commission) throws IOException {
         File pdfFile = new File(requireContext().getCacheDir(), "receipt_" + orderId + ".pdf");
         PdfDocument pdfDocument = new PdfDocument();
         PdfDocument.PageInfo pageInfo = new PdfDocument.PageInfo.Builder(595, 842, 1).create();
@@ -287,15 +265,14 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
         canvas.drawLine(20, yPosition, 575, yPosition, paint);
         yPosition += 20;
 
-        int subtotal = 0;
         for (CartItem item : items) {
             canvas.drawText(item.getName(), 20, yPosition, paint);
             canvas.drawText(String.valueOf(item.getQuantity()), 300, yPosition, paint);
             canvas.drawText(item.getPrice() + " руб.", 400, yPosition, paint);
             canvas.drawText(item.getTotalPrice() + " руб.", 500, yPosition, paint);
-            subtotal += item.getTotalPrice();
             yPosition += 20;
         }
+        long subtotal = totals.getSubtotal();
 
         yPosition += 10;
         canvas.drawLine(20, yPosition, 575, yPosition, paint);
@@ -304,7 +281,7 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
         canvas.drawText("Промежуточная сумма: " + subtotal + " руб.", 300, yPosition, paint);
         yPosition += 20;
 
-        int totalWithCommission = subtotal;
+        long totalWithCommission = subtotal;
         if (commission > 0) {
             canvas.drawText("Комиссия: " + commission + " руб.", 300, yPosition, paint);
             yPosition += 20;
@@ -326,7 +303,8 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
         return pdfFile;
     }
 
-    private void sendEmailWithPdf(String email, String orderId, File pdfFile, int commission, List<CartItem> items) throws MessagingException, IOException {
+    private void sendEmailWithPdf(String email, String orderId, File pdfFile, int commission, List<CartItem> items,
+                                  CartTotals totals) throws MessagingException, IOException {
         Properties props = new Properties();
         props.put("mail.smtp.auth", "true");
         props.put("mail.smtp.starttls.enable", "true");
@@ -344,8 +322,8 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
         message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(email));
         message.setSubject("Ваш чек заказа Factorio #" + orderId);
 
-        int subtotal = calculateTotalPrice(items);
-        int totalWithCommission = subtotal + (commission > 0 ? commission : 0);
+        long subtotal = totals.getSubtotal();
+        long totalWithCommission = subtotal + (commission > 0 ? commission : 0);
 
         String htmlContent = "<!DOCTYPE html>" +
                 "<html>" +
@@ -428,14 +406,6 @@ public class CartPageFragment extends Fragment implements CartManager.OnCartChan
         Log.i(TAG, "Email успешно отправлен");
     }
 
-    private int calculateTotalPrice(List<CartItem> items) {
-        int totalPrice = 0;
-        for (CartItem item : items) {
-            totalPrice += item.getTotalPrice();
-        }
-        return totalPrice;
-    }
-
     @Override
     public void onDestroyView() {
         super.onDestroyView();
@@ -0,0 +1,139 @@
+package com.example.factorio;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CartSnapshot - неизменяемое состояние корзины с номером версии.
+ *
+ * Основные функции:
+ * - Хранение товаров корзины по ID товара в порядке добавления (LinkedHashMap) с поиском за O(1).
+ * - Выдача неизменяемого списка товаров, который строится один раз при первом обращении к снимку.
+ * - Построение следующей версии состояния при изменении корзины.
+ *
+ * Поля:
+ * - static CartSnapshot EMPTY: Пустая корзина версии 0.
+ * - long version: Номер версии, увеличивается при каждом изменении.
+ * - Map<String, CartItem> itemsById: ID товара -> элемент корзины.
+ * - List<CartItem> items: Элементы корзины в порядке добавления (null, пока список не запрошен).
+ * - CartTotals totals: Итоги корзины (число товаров, сумма, комиссия).
+ *
+ * Методы:
+ * - getVersion(): Возвращает номер версии.
+ * - getItems(): Возвращает неизменяемый список элементов корзины.
+ * - getItem(String): Возвращает элемент корзины по ID товара или null.
+ * - getQuantity(String): Возвращает количество товара в корзине или 0.
+ * - getTotals(): Возвращает итоги корзины.
+ * - size(), isEmpty(): Размер корзины.
+ * - withItem(CartItem): Новая версия с добавленным или заменённым элементом (место в списке сохраняется).
+ * - withoutItem(String): Новая версия без товара.
+ * - withItems(Collection<CartItem>): Новая версия с другим набором элементов (загрузка, очистка).
+ * - withChanges(Map<String, CartItem>): Новая версия с несколькими изменениями сразу (null - удалить товар).
+ *
+ * Логика:
+ * - Снимок никогда не меняется после создания: CartManager строит новую версию и атомарно подменяет ссылку,
+ *   поэтому читатели из любого потока видят согласованное состояние без блокировок.
+ * - Элементы корзины внутри снимка тоже не изменяются: новое количество - это новый CartItem.
+ * - Итоги переносятся из предыдущей версии: при изменении товара из них вычитается старый элемент
+ *   и прибавляется новый, полный пересчёт выполняется только при замене всего набора (withItems).
+ * - Каждое изменение копирует словарь элементов (copy-on-write), то есть стоит O(n) по размеру корзины.
+ *   Для корзины покупателя (десятки товаров) это дешевле и проще структур с общими узлами, поэтому принято
+ *   сознательно. Список items строится только при первом вызове getItems(), так что промежуточные версии,
+ *   которые никто не читал (например, при серии быстрых нажатий), его не создают.
+ * - Если getItems() одного снимка одновременно вызовут несколько потоков, каждый может построить свой список;
+ *   списки одинаковы по содержимому, а в поле остаётся один из них.
+ */
+
+public final class CartSnapshot {
+    public static final CartSnapshot EMPTY = new CartSnapshot(0, new LinkedHashMap<>(), CartTotals.EMPTY);
+
+    private final long version;
+    private final Map<String, CartItem> itemsById;
+    private volatile List<CartItem> items;
+    private final CartTotals totals;
+
+    private CartSnapshot(long version, LinkedHashMap<String, CartItem> itemsById, CartTotals totals) {
+        this.version = version;
+        this.itemsById = Collections.unmodifiableMap(itemsById);
+        this.totals = totals;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<CartItem> getItems() {
+        List<CartItem> result = items;
+        if (result == null) {
+            result = Collections.unmodifiableList(new ArrayList<>(itemsById.values()));
+            items = result;
+        }
+        return result;
+    }
+
+    public CartItem getItem(String productId) {
+        return itemsById.get(productId);
+    }
+
+    public int getQuantity(String productId) {
+        CartItem item = itemsById.get(productId);
+        return item != null ? item.getQuantity() : 0;
+    }
+
+    public CartTotals getTotals() {
+        return totals;
+    }
+
+    public int size() {
+        return itemsById.size();
+    }
+
+    public boolean isEmpty() {
+        return itemsById.isEmpty();
+    }
+
+    CartSnapshot withItem(CartItem item) {
+        LinkedHashMap<String, CartItem> newItems = new LinkedHashMap<>(itemsById);
+        CartItem oldItem = newItems.put(item.getProductId(), item);
+        CartTotals newTotals = oldItem != null ? totals.minus(oldItem).plus(item) : totals.plus(item);
+        return new CartSnapshot(version + 1, newItems, newTotals);
+    }
+
+    CartSnapshot withoutItem(String productId) {
+        if (!itemsById.containsKey(productId)) {
+            return this;
+        }
+        LinkedHashMap<String, CartItem> newItems = new LinkedHashMap<>(itemsById);
+        CartItem oldItem = newItems.remove(productId);
+        return new CartSnapshot(version + 1, newItems, totals.minus(oldItem));
+    }
+
+    CartSnapshot withItems(Collection<CartItem> newItems) {
+        LinkedHashMap<String, CartItem> itemsMap = new LinkedHashMap<>();
+        for (CartItem item : newItems) {
+            itemsMap.put(item.getProductId(), item);
+        }
+        return new CartSnapshot(version + 1, itemsMap, CartTotals.of(itemsMap.values()));
+    }
+
+    CartSnapshot withChanges(Map<String, CartItem> changes) {
+        LinkedHashMap<String, CartItem> newItems = new LinkedHashMap<>(itemsById);
+        CartTotals newTotals = totals;
+        for (Map.Entry<String, CartItem> change : changes.entrySet()) {
+            CartItem oldItem = change.getValue() != null
+                    ? newItems.put(change.getKey(), change.getValue())
+                    : newItems.remove(change.getKey());
+            if (oldItem != null) {
+                newTotals = newTotals.minus(oldItem);
+            }
+            if (change.getValue() != null) {
+                newTotals = newTotals.plus(change.getValue());
+            }
+        }
+        return new CartSnapshot(version + 1, newItems, newTotals);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,117 @@
+package com.example.factorio;
+
+import java.util.Collection;
+
+/**
+ * CartTotals - неизменяемые итоги корзины: число товаров, сумма и комиссия по способу оплаты.
+ *
+ * Основные функции:
+ * - Хранение итогов корзины, которые CartSnapshot обновляет за O(1) при изменении одного товара,
+ *   вместо пересчёта циклом по всей корзине на каждом экране.
+ * - Расчёт комиссии и итоговой суммы для способа оплаты (PaymentMethod).
+ *
+ * Поля:
+ * - int MINOR_UNITS_PER_RUBLE: Копеек в рубле.
+ * - static CartTotals EMPTY: Итоги пустой корзины.
+ * - int itemCount: Общее количество единиц товара.
+ * - long subtotalMinor: Сумма без комиссии в копейках.
+ *
+ * Методы:
+ * - of(Collection<CartItem>): Считает итоги набора товаров (один проход - для загрузки корзины и чека).
+ * - plus(CartItem), minus(CartItem): Итоги после добавления или удаления одного товара.
+ * - getItemCount(): Возвращает общее количество единиц товара.
+ * - getSubtotalMinor(), getSubtotal(): Сумма без комиссии в копейках и в рублях.
+ * - getCommissionMinor(PaymentMethod), getCommission(PaymentMethod): Комиссия в копейках и в рублях.
+ * - getTotalMinor(PaymentMethod), getTotal(PaymentMethod): Итоговая сумма в копейках и в рублях.
+ *
+ * Вложенный класс:
+ * - PaymentMethod: Способ оплаты (идентификатор для заказа и процент комиссии).
+ *
+ * Логика:
+ * - Суммы хранятся в long копейках, поэтому не переполняются и не теряют точность при больших корзинах.
+ * - Цены товаров - целые рубли; комиссия, как и раньше, округляется вниз до целого рубля,
+ *   поэтому суммы в рублях всегда целые.
+ */
+
+public final class CartTotals {
+    public static final int MINOR_UNITS_PER_RUBLE = 100;
+    public static final CartTotals EMPTY = new CartTotals(0, 0);
+
+    private final int itemCount;
+    private final long subtotalMinor;
+
+    private CartTotals(int itemCount, long subtotalMinor) {
+        this.itemCount = itemCount;
+        this.subtotalMinor = subtotalMinor;
+    }
+
+    public static CartTotals of(Collection<CartItem> items) {
+        CartTotals totals = EMPTY;
+        for (CartItem item : items) {
+            totals = totals.plus(item);
+        }
+        return totals;
+    }
+
+    CartTotals plus(CartItem item) {
+        return new CartTotals(itemCount + item.getQuantity(), subtotalMinor + lineTotalMinor(item));
+    }
+
+    CartTotals minus(CartItem item) {
+        return new CartTotals(itemCount - item.getQuantity(), subtotalMinor - lineTotalMinor(item));
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public long getSubtotalMinor() {
+        return subtotalMinor;
+    }
+
+    public long getSubtotal() {
+        return subtotalMinor / MINOR_UNITS_PER_RUBLE;
+    }
+
+    public long getCommissionMinor(PaymentMethod paymentMethod) {
+        long commissionMinor = subtotalMinor * paymentMethod.getCommissionPercent() / 100;
+        return commissionMinor - commissionMinor % MINOR_UNITS_PER_RUBLE;
+    }
+
+    public long getCommission(PaymentMethod paymentMethod) {
+        return getCommissionMinor(paymentMethod) / MINOR_UNITS_PER_RUBLE;
+    }
+
+    public long getTotalMinor(PaymentMethod paymentMethod) {
+        return subtotalMinor + getCommissionMinor(paymentMethod);
+    }
+
+    public long getTotal(PaymentMethod paymentMethod) {
+        return getTotalMinor(paymentMethod) / MINOR_UNITS_PER_RUBLE;
+    }
+
+    private static long lineTotalMinor(CartItem item) {
+        return (long) item.getPrice() * MINOR_UNITS_PER_RUBLE * item.getQuantity();
+    }
+
+    public enum PaymentMethod {
+        CARD("card", 5),
+        CASH("cash", 0);
+
+        private final String id;
+        private final int commissionPercent;
+
+        PaymentMethod(String id, int commissionPercent) {
+            this.id = id;
+            this.commissionPercent = commissionPercent;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getCommissionPercent() {
+            return commissionPercent;
+        }
+    }
+}
\ No newline at end of file
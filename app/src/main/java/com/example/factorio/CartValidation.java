@@ -0,0 +1,120 @@
+package com.example.factorio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CartValidation - результат проверки всей корзины по текущим документам товаров.
+ *
+ * Основные функции:
+ * - Перечень строк корзины, у которых изменилась цена, не хватает товара или товар удалён из каталога.
+ * - Ответ на вопрос "можно ли оформлять заказ" без повторного чтения товаров.
+ *
+ * Поля:
+ * - Map<String, Issue> issues: ID товара -> найденная проблема (в порядке строк корзины).
+ * - boolean complete: Проверены ли все строки (false, если часть запросов завершилась ошибкой).
+ *
+ * Методы:
+ * - getIssues(): Возвращает неизменяемый список проблем.
+ * - getIssue(String): Возвращает проблему строки по ID товара или null.
+ * - hasIssues(): Есть ли хотя бы одна проблема.
+ * - hasStockIssues(): Есть ли строки, которые нельзя заказать (нет в наличии, не хватает, товар удалён).
+ * - isComplete(): Проверены ли все строки.
+ *
+ * Вложенный класс:
+ * - Issue: Проблема одной строки.
+ *   - Type type: PRICE_CHANGED, INSUFFICIENT_STOCK, OUT_OF_STOCK или NOT_FOUND.
+ *   - String productId, name: Товар.
+ *   - int previousPrice, currentPrice: Цена в корзине до проверки и текущая цена товара.
+ *   - int requestedQuantity, availableQuantity: Количество в корзине и в наличии.
+ *   - getMessage(): Текст для строки корзины.
+ *
+ * Логика:
+ * - У строки отмечается одна, самая важная проблема: удалённый товар или нехватка важнее изменения цены.
+ * - Результат строит CartManager.revalidateCart(); создаётся только внутри пакета.
+ */
+
+public final class CartValidation {
+    private final Map<String, Issue> issues;
+    private final boolean complete;
+
+    CartValidation(List<Issue> issues, boolean complete) {
+        Map<String, Issue> issuesById = new LinkedHashMap<>();
+        for (Issue issue : issues) {
+            issuesById.put(issue.getProductId(), issue);
+        }
+        this.issues = Collections.unmodifiableMap(issuesById);
+        this.complete = complete;
+    }
+
+    public List<Issue> getIssues() {
+        return Collections.unmodifiableList(new ArrayList<>(issues.values()));
+    }
+
+    public Issue getIssue(String productId) {
+        return issues.get(productId);
+    }
+
+    public boolean hasIssues() {
+        return !issues.isEmpty();
+    }
+
+    public boolean hasStockIssues() {
+        for (Issue issue : issues.values()) {
+            if (issue.getType() != Issue.Type.PRICE_CHANGED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public static final class Issue {
+        public enum Type { PRICE_CHANGED, INSUFFICIENT_STOCK, OUT_OF_STOCK, NOT_FOUND }
+
+        private final Type type;
+        private final String productId;
+        private final String name;
+        private final int previousPrice;
+        private final int currentPrice;
+        private final int requestedQuantity;
+        private final int availableQuantity;
+
+        Issue(Type type, CartItem item, int currentPrice, int availableQuantity) {
+            this.type = type;
+            this.productId = item.getProductId();
+            this.name = item.getName();
+            this.previousPrice = item.getPrice();
+            this.currentPrice = currentPrice;
+            this.requestedQuantity = item.getQuantity();
+            this.availableQuantity = availableQuantity;
+        }
+
+        public Type getType() { return type; }
+        public String getProductId() { return productId; }
+        public String getName() { return name; }
+        public int getPreviousPrice() { return previousPrice; }
+        public int getCurrentPrice() { return currentPrice; }
+        public int getRequestedQuantity() { return requestedQuantity; }
+        public int getAvailableQuantity() { return availableQuantity; }
+
+        public String getMessage() {
+            switch (type) {
+                case PRICE_CHANGED:
+                    return "Цена изменилась: " + previousPrice + " → " + currentPrice + " руб.";
+                case INSUFFICIENT_STOCK:
+                    return "В наличии только " + availableQuantity + " шт.";
+                case OUT_OF_STOCK:
+                    return "Нет в наличии";
+                default:
+                    return "Товар больше не продаётся";
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,345 @@
+package com.example.factorio;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * CatalogStore - локальная база SQLite с копией каталога (товары и категории).
+ *
+ * Основные функции:
+ * - Хранение товаров и категорий на диске, чтобы экраны отображали каталог сразу после запуска, без ожидания сети.
+ * - Хранение отметки последней синхронизации (watermark) для каждой коллекции.
+ * - Применение изменений из CatalogSync: добавление, обновление и удаление документов по надгробиям.
+ *
+ * Поля:
+ * - static CatalogStore instance: Единственный экземпляр CatalogStore (создаётся в init()).
+ * - String PRODUCTS, CATEGORIES: Имена синхронизируемых коллекций (они же имена таблиц).
+ * - ExecutorService diskExecutor: Однопоточный исполнитель для всех обращений к базе.
+ * - Handler mainHandler: Для передачи результатов в основной поток.
+ *
+ * Методы:
+ * - init(Context): Создаёт единственный экземпляр CatalogStore.
+ * - getInstance(): Возвращает единственный экземпляр CatalogStore.
+ * - loadProducts(String, boolean, double, String, String, int, OnLoadedListener): Загружает первую страницу товаров
+ *   категории (или всего каталога) с фильтрами наличия и рейтинга и сортировкой из FilterSortActivity.
+ * - loadProductsByIds(Collection<String>, OnLoadedListener): Загружает товары по списку ID.
+ * - loadStock(OnLoadedListener): Загружает остатки всех товаров (ID товара -> количество) для StockCache.
+ * - loadCategories(OnLoadedListener): Загружает категории (null, если категории ещё ни разу не синхронизировались).
+ * - loadWatermark(String, OnLoadedListener): Загружает отметку последней синхронизации коллекции.
+ * - applyChanges(String, List<DocumentSnapshot>, Map<String, Timestamp>, Timestamp, boolean, Runnable):
+ *   Применяет изменения коллекции и новую отметку синхронизации в одной транзакции.
+ * - toMicros(Timestamp), fromMicros(long): Перевод временных меток в микросекунды и обратно.
+ *
+ * Вспомогательные методы:
+ * - buildOrderBy(String, String): Возвращает ORDER BY, совпадающий с ProductQueryPlanner.buildComparator().
+ *
+ * Интерфейс:
+ * - OnLoadedListener<T>: Для получения результата чтения в основном потоке.
+ *
+ * Логика:
+ * - Все чтения и записи выполняются в diskExecutor, результаты передаются в основной поток.
+ * - Фильтры, сортировка и размер страницы loadProducts() передаются в WHERE, ORDER BY и LIMIT: база читает только
+ *   нужные строки (по индексу (category, timestamp) для категории), а не весь каталог.
+ * - Временные метки хранятся в микросекундах - это точность временных меток Firestore, поэтому сравнения точны.
+ * - У каждой строки хранится updatedAt документа; надгробие удаляет строку, только если удаление произошло позже
+ *   последнего изменения, поэтому документ, созданный заново с тем же ID, не пропадает.
+ * - Это кэш: при изменении схемы таблицы пересоздаются, а данные заново загружаются полной синхронизацией.
+ */
+
+public class CatalogStore extends SQLiteOpenHelper {
+    private static final String TAG = "CatalogStore";
+    private static final String DATABASE_NAME = "catalog.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final int MAX_QUERY_ARGS = 500;
+    public static final String PRODUCTS = "products";
+    public static final String CATEGORIES = "categories";
+    private static final String SYNC_STATE = "sync_state";
+    private static CatalogStore instance;
+
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private CatalogStore(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    public static synchronized void init(Context context) {
+        if (instance == null) {
+            instance = new CatalogStore(context.getApplicationContext());
+        }
+    }
+
+    public static CatalogStore getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("CatalogStore не инициализирован");
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + PRODUCTS + " (id TEXT PRIMARY KEY, name TEXT, image_url TEXT, description TEXT, "
+                + "category TEXT, price INTEGER, quantity INTEGER, average_rating REAL, timestamp INTEGER, "
+                + "updated_at INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX products_category ON " + PRODUCTS + " (category, timestamp)");
+        db.execSQL("CREATE INDEX products_timestamp ON " + PRODUCTS + " (timestamp)");
+        db.execSQL("CREATE TABLE " + CATEGORIES + " (id TEXT PRIMARY KEY, name TEXT, image_url TEXT, timestamp INTEGER, "
+                + "updated_at INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE TABLE " + SYNC_STATE + " (collection TEXT PRIMARY KEY, watermark INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + PRODUCTS);
+        db.execSQL("DROP TABLE IF EXISTS " + CATEGORIES);
+        db.execSQL("DROP TABLE IF EXISTS " + SYNC_STATE);
+        onCreate(db);
+    }
+
+    public void loadProducts(String categoryId, boolean inStock, double minRating, String priceSort,
+                             String quantitySort, int limit, OnLoadedListener<List<Product>> listener) {
+        List<String> conditions = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        if (categoryId != null) {
+            conditions.add("category = ?");
+            args.add(categoryId);
+        }
+        if (inStock) {
+            conditions.add("quantity > 0");
+        }
+        if (minRating > 0.0) {
+            conditions.add("average_rating >= ?");
+            args.add(String.valueOf(minRating));
+        }
+        String selection = conditions.isEmpty() ? null : String.join(" AND ", conditions);
+        String orderBy = buildOrderBy(priceSort, quantitySort);
+        diskExecutor.execute(() -> {
+            List<Product> products = new ArrayList<>();
+            try (Cursor cursor = getReadableDatabase().query(PRODUCTS, null, selection,
+                    args.toArray(new String[0]), null, null, orderBy, String.valueOf(limit))) {
+                while (cursor.moveToNext()) {
+                    products.add(readProduct(cursor));
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка чтения товаров: ", e);
+            }
+            mainHandler.post(() -> listener.onLoaded(products));
+        });
+    }
+
+    public void loadProductsByIds(Collection<String> productIds, OnLoadedListener<Map<String, Product>> listener) {
+        List<String> ids = new ArrayList<>(productIds);
+        diskExecutor.execute(() -> {
+            Map<String, Product> products = new HashMap<>();
+            try {
+                SQLiteDatabase db = getReadableDatabase();
+                for (int start = 0; start < ids.size(); start += MAX_QUERY_ARGS) {
+                    List<String> chunk = ids.subList(start, Math.min(start + MAX_QUERY_ARGS, ids.size()));
+                    String placeholders = String.join(",", Collections.nCopies(chunk.size(), "?"));
+                    try (Cursor cursor = db.query(PRODUCTS, null, "id IN (" + placeholders + ")",
+                            chunk.toArray(new String[0]), null, null, null)) {
+                        while (cursor.moveToNext()) {
+                            Product product = readProduct(cursor);
+                            products.put(product.getId(), product);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка чтения товаров по ID: ", e);
+            }
+            mainHandler.post(() -> listener.onLoaded(products));
+        });
+    }
+
+    public void loadStock(OnLoadedListener<Map<String, Integer>> listener) {
+        diskExecutor.execute(() -> {
+            Map<String, Integer> stock = new HashMap<>();
+            try (Cursor cursor = getReadableDatabase().query(PRODUCTS, new String[]{"id", "quantity"},
+                    null, null, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    stock.put(cursor.getString(0), cursor.getInt(1));
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка чтения остатков: ", e);
+            }
+            mainHandler.post(() -> listener.onLoaded(stock));
+        });
+    }
+
+    public void loadCategories(OnLoadedListener<List<Category>> listener) {
+        diskExecutor.execute(() -> {
+            List<Category> categories = null;
+            try {
+                if (readWatermark(CATEGORIES) != null) {
+                    categories = new ArrayList<>();
+                    try (Cursor cursor = getReadableDatabase().query(CATEGORIES, null, null, null,
+                            null, null, "timestamp IS NULL, timestamp DESC")) {
+                        while (cursor.moveToNext()) {
+                            categories.add(new Category(
+                                    cursor.getString(cursor.getColumnIndexOrThrow("id")),
+                                    cursor.getString(cursor.getColumnIndexOrThrow("name")),
+                                    cursor.getString(cursor.getColumnIndexOrThrow("image_url"))));
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка чтения категорий: ", e);
+                categories = null;
+            }
+            List<Category> result = categories;
+            mainHandler.post(() -> listener.onLoaded(result));
+        });
+    }
+
+    public void loadWatermark(String collection, OnLoadedListener<Timestamp> listener) {
+        diskExecutor.execute(() -> {
+            Timestamp watermark = null;
+            try {
+                watermark = readWatermark(collection);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка чтения отметки синхронизации: ", e);
+            }
+            Timestamp result = watermark;
+            mainHandler.post(() -> listener.onLoaded(result));
+        });
+    }
+
+    // replaceAll - полная синхронизация: строки, которых нет в upserts, удаляются
+    void applyChanges(String collection, List<DocumentSnapshot> upserts, Map<String, Timestamp> deletions,
+                      Timestamp watermark, boolean replaceAll, Runnable onApplied) {
+        diskExecutor.execute(() -> {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+            try {
+                if (replaceAll) {
+                    db.delete(collection, null, null);
+                }
+                for (Map.Entry<String, Timestamp> deletion : deletions.entrySet()) {
+                    db.delete(collection, "id = ? AND updated_at <= ?",
+                            new String[]{deletion.getKey(), String.valueOf(toMicros(deletion.getValue()))});
+                }
+                for (DocumentSnapshot document : upserts) {
+                    ContentValues values = PRODUCTS.equals(collection) ? productValues(document) : categoryValues(document);
+                    db.insertWithOnConflict(collection, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                ContentValues state = new ContentValues();
+                state.put("collection", collection);
+                state.put("watermark", toMicros(watermark));
+                db.insertWithOnConflict(SYNC_STATE, null, state, SQLiteDatabase.CONFLICT_REPLACE);
+                db.setTransactionSuccessful();
+                Log.d(TAG, "Коллекция " + collection + ": обновлено " + upserts.size() + ", удалено " + deletions.size());
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Ошибка записи коллекции " + collection + ": ", e);
+            } finally {
+                db.endTransaction();
+            }
+            mainHandler.post(onApplied);
+        });
+    }
+
+    private Timestamp readWatermark(String collection) {
+        try (Cursor cursor = getReadableDatabase().query(SYNC_STATE, new String[]{"watermark"}, "collection = ?",
+                new String[]{collection}, null, null, null)) {
+            return cursor.moveToFirst() ? fromMicros(cursor.getLong(0)) : null;
+        }
+    }
+
+    private static ContentValues productValues(DocumentSnapshot document) {
+        ContentValues values = new ContentValues();
+        values.put("id", document.getId());
+        values.put("name", document.getString("name"));
+        values.put("image_url", document.getString("imageUrl"));
+        values.put("description", document.getString("description"));
+        values.put("category", document.getString("category"));
+        Long price = document.getLong("price");
+        values.put("price", price != null ? price : 0L);
+        Long quantity = document.getLong("quantity");
+        values.put("quantity", quantity != null ? quantity : 0L);
+        Double averageRating = document.getDouble("averageRating");
+        values.put("average_rating", averageRating != null ? averageRating : 0.0);
+        putTimestamps(values, document);
+        return values;
+    }
+
+    private static ContentValues categoryValues(DocumentSnapshot document) {
+        ContentValues values = new ContentValues();
+        values.put("id", document.getId());
+        values.put("name", document.getString("name"));
+        values.put("image_url", document.getString("imageUrl"));
+        putTimestamps(values, document);
+        return values;
+    }
+
+    private static void putTimestamps(ContentValues values, DocumentSnapshot document) {
+        Timestamp timestamp = document.getTimestamp("timestamp");
+        if (timestamp != null) {
+            values.put("timestamp", toMicros(timestamp));
+        } else {
+            values.putNull("timestamp");
+        }
+        Timestamp updatedAt = document.getTimestamp(CatalogSync.UPDATED_AT);
+        values.put("updated_at", updatedAt != null ? toMicros(updatedAt) : 0L);
+    }
+
+    // Порядок совпадает с ProductQueryPlanner.buildComparator(): товары без времени добавления идут первыми,
+    // при равных значениях - по ID
+    private static String buildOrderBy(String priceSort, String quantitySort) {
+        if ("asc".equals(priceSort)) {
+            return "price ASC, id ASC";
+        } else if ("desc".equals(priceSort)) {
+            return "price DESC, id ASC";
+        } else if ("asc".equals(quantitySort)) {
+            return "quantity ASC, id ASC";
+        } else if ("desc".equals(quantitySort)) {
+            return "quantity DESC, id ASC";
+        }
+        return "timestamp IS NOT NULL, timestamp DESC, id ASC";
+    }
+
+    private static Product readProduct(Cursor cursor) {
+        Product product = new Product();
+        product.setId(cursor.getString(cursor.getColumnIndexOrThrow("id")));
+        product.setName(cursor.getString(cursor.getColumnIndexOrThrow("name")));
+        product.setImageUrl(cursor.getString(cursor.getColumnIndexOrThrow("image_url")));
+        product.setDescription(cursor.getString(cursor.getColumnIndexOrThrow("description")));
+        product.setCategory(cursor.getString(cursor.getColumnIndexOrThrow("category")));
+        product.setPrice(cursor.getInt(cursor.getColumnIndexOrThrow("price")));
+        product.setQuantity(cursor.getInt(cursor.getColumnIndexOrThrow("quantity")));
+        product.setAverageRating(cursor.getDouble(cursor.getColumnIndexOrThrow("average_rating")));
+        int timestampIndex = cursor.getColumnIndexOrThrow("timestamp");
+        if (!cursor.isNull(timestampIndex)) {
+            product.setTimestamp(fromMicros(cursor.getLong(timestampIndex)));
+        }
+        return product;
+    }
+
+    static long toMicros(Timestamp timestamp) {
+        return timestamp.getSeconds() * 1_000_000L + timestamp.getNanoseconds() / 1_000;
+    }
+
+    static Timestamp fromMicros(long micros) {
+        return new Timestamp(Math.floorDiv(micros, 1_000_000L), (int) Math.floorMod(micros, 1_000_000L) * 1_000);
+    }
+
+    public interface OnLoadedListener<T> {
+        void onLoaded(T result);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,227 @@
+package com.example.factorio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CatalogStream - синглтон-класс, владеющий живыми подписками на запросы каталога.
+ *
+ * Основные функции:
+ * - Один слушатель Firestore на каждый уникальный запрос, независимо от числа экранов, которые на него подписаны.
+ * - Подсчёт подписчиков и отключение слушателя через период ожидания после ухода последнего из них.
+ * - Передача новому подписчику текущего состояния запроса без повторного чтения из Firestore.
+ *
+ * Поля:
+ * - static CatalogStream instance: Единственный экземпляр CatalogStream (синглтон).
+ * - long GRACE_PERIOD_MS: Сколько слушатель живёт после ухода последнего подписчика.
+ * - Map<Query, Entry> entries: Активные запросы и их подписчики.
+ * - Handler mainHandler: Для отложенного отключения слушателей и передачи состояния новым подписчикам.
+ *
+ * Методы:
+ * - getInstance(): Возвращает единственный экземпляр CatalogStream.
+ * - subscribe(Query, Listener): Подписывает на запрос и возвращает подписку (ListenerRegistration).
+ * - getActiveQueryCount(): Возвращает число запросов с живыми слушателями Firestore.
+ *
+ * Вспомогательные методы:
+ * - onSnapshot(Entry, QuerySnapshot, Exception): Рассылает изменения всем подписчикам запроса.
+ * - unsubscribe(Entry, Listener): Удаляет подписчика и планирует отключение слушателя.
+ * - toChanges(List<DocumentChange>): Преобразует изменения Firestore в Change.
+ *
+ * Интерфейс:
+ * - Listener: Для получения изменений запроса и ошибок.
+ *
+ * Вложенные классы:
+ * - Change: Изменение документа (ADDED, MODIFIED, REMOVED). Новому подписчику текущее состояние
+ *   передаётся как набор ADDED, поэтому изменения Firestore (DocumentChange) напрямую не подходят.
+ * - Entry: Слушатель Firestore, последний снимок и подписчики одного запроса.
+ * - Subscription: Подписка одного подписчика; remove() уменьшает счётчик подписчиков запроса.
+ *
+ * Логика:
+ * - Запросы сравниваются через Query.equals, поэтому одинаковые запросы разных экранов
+ *   (например, первая страница главной и категории "Все товары") делят один слушатель.
+ * - Состояние новому подписчику передаётся через mainHandler.post, а не внутри subscribe(),
+ *   чтобы вызывающий код успел сохранить подписку до первого вызова.
+ * - После ошибки слушатель Firestore прекращает работу, поэтому запрос удаляется и при следующей подписке создаётся заново.
+ * - Все методы вызываются из основного потока.
+ */
+
+public class CatalogStream {
+    private static final String TAG = "CatalogStream";
+    public static final long GRACE_PERIOD_MS = 30_000;
+    private static CatalogStream instance;
+
+    private final Map<Query, Entry> entries = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private CatalogStream() {}
+
+    public static CatalogStream getInstance() {
+        if (instance == null) {
+            instance = new CatalogStream();
+        }
+        return instance;
+    }
+
+    public ListenerRegistration subscribe(Query query, Listener listener) {
+        Entry entry = entries.get(query);
+        if (entry == null) {
+            Entry newEntry = new Entry(query);
+            entries.put(query, newEntry);
+            newEntry.registration = query.addSnapshotListener((snapshot, e) -> onSnapshot(newEntry, snapshot, e));
+            entry = newEntry;
+            Log.d(TAG, "Новый слушатель Firestore, активных запросов: " + entries.size());
+        } else if (entry.pendingDetach != null) {
+            mainHandler.removeCallbacks(entry.pendingDetach);
+            entry.pendingDetach = null;
+        }
+        entry.listeners.add(listener);
+
+        Subscription subscription = new Subscription(entry, listener);
+        if (entry.lastSnapshot != null) {
+            Entry current = entry;
+            mainHandler.post(() -> {
+                if (subscription.active && current.lastSnapshot != null) {
+                    List<Change> changes = new ArrayList<>();
+                    for (QueryDocumentSnapshot document : current.lastSnapshot) {
+                        changes.add(new Change(Change.Type.ADDED, document));
+                    }
+                    listener.onCatalogChanged(changes, current.lastSnapshot);
+                }
+            });
+        }
+        return subscription;
+    }
+
+    public int getActiveQueryCount() {
+        return entries.size();
+    }
+
+    private void onSnapshot(Entry entry, QuerySnapshot snapshot, Exception e) {
+        List<Listener> listeners = new ArrayList<>(entry.listeners);
+        if (e != null) {
+            Log.e(TAG, "Ошибка слушателя запроса: ", e);
+            if (entries.get(entry.query) == entry) {
+                entries.remove(entry.query);
+            }
+            if (entry.pendingDetach != null) {
+                mainHandler.removeCallbacks(entry.pendingDetach);
+            }
+            for (Listener listener : listeners) {
+                listener.onCatalogError(e);
+            }
+            return;
+        }
+        if (snapshot == null) {
+            return;
+        }
+        entry.lastSnapshot = snapshot;
+        List<Change> changes = toChanges(snapshot.getDocumentChanges());
+        for (Listener listener : listeners) {
+            if (entry.listeners.contains(listener)) {
+                listener.onCatalogChanged(changes, snapshot);
+            }
+        }
+    }
+
+    private void unsubscribe(Entry entry, Listener listener) {
+        entry.listeners.remove(listener);
+        if (!entry.listeners.isEmpty() || entry.pendingDetach != null || entries.get(entry.query) != entry) {
+            return;
+        }
+        entry.pendingDetach = () -> {
+            entry.pendingDetach = null;
+            if (entry.listeners.isEmpty()) {
+                entry.registration.remove();
+                entries.remove(entry.query);
+                Log.d(TAG, "Слушатель Firestore отключён, активных запросов: " + entries.size());
+            }
+        };
+        mainHandler.postDelayed(entry.pendingDetach, GRACE_PERIOD_MS);
+    }
+
+    private static List<Change> toChanges(List<DocumentChange> documentChanges) {
+        List<Change> changes = new ArrayList<>(documentChanges.size());
+        for (DocumentChange change : documentChanges) {
+            Change.Type type;
+            switch (change.getType()) {
+                case ADDED:
+                    type = Change.Type.ADDED;
+                    break;
+                case MODIFIED:
+                    type = Change.Type.MODIFIED;
+                    break;
+                default:
+                    type = Change.Type.REMOVED;
+                    break;
+            }
+            changes.add(new Change(type, change.getDocument()));
+        }
+        return changes;
+    }
+
+    public interface Listener {
+        void onCatalogChanged(List<Change> changes, QuerySnapshot snapshot);
+
+        void onCatalogError(Exception e);
+    }
+
+    public static class Change {
+        public enum Type { ADDED, MODIFIED, REMOVED }
+
+        private final Type type;
+        private final QueryDocumentSnapshot document;
+
+        Change(Type type, QueryDocumentSnapshot document) {
+            this.type = type;
+            this.document = document;
+        }
+
+        public Type getType() { return type; }
+        public QueryDocumentSnapshot getDocument() { return document; }
+    }
+
+    private static class Entry {
+        final Query query;
+        final Set<Listener> listeners = new LinkedHashSet<>();
+        ListenerRegistration registration;
+        QuerySnapshot lastSnapshot;
+        Runnable pendingDetach;
+
+        Entry(Query query) {
+            this.query = query;
+        }
+    }
+
+    private class Subscription implements ListenerRegistration {
+        private final Entry entry;
+        private final Listener listener;
+        private boolean active = true;
+
+        Subscription(Entry entry, Listener listener) {
+            this.entry = entry;
+            this.listener = listener;
+        }
+
+        @Override
+        public void remove() {
+            if (active) {
+                active = false;
+                unsubscribe(entry, listener);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,305 @@
+package com.example.factorio;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CatalogSync - синглтон-класс, синхронизирующий CatalogStore с коллекциями "products" и "categories".
+ *
+ * Основные функции:
+ * - Первая синхронизация: полная загрузка коллекции в CatalogStore.
+ * - Последующие синхронизации: только документы, у которых поле updatedAt позже отметки последней синхронизации.
+ * - Удаления через надгробия: коллекции "deletedProducts" и "deletedCategories" с полем deletedAt.
+ * - Живые обновления: после первого снимка изменения продолжают приходить теми же слушателями.
+ * - Передача остатков товаров в StockCache сразу при получении изменений, до записи на диск.
+ *
+ * Поля:
+ * - static CatalogSync instance: Единственный экземпляр CatalogSync (синглтон).
+ * - String UPDATED_AT: Поле времени последнего изменения документа каталога.
+ * - String DELETED_AT: Поле времени удаления в надгробии.
+ * - FirebaseFirestore db: Ссылка на Firestore.
+ * - Set<OnCatalogSyncedListener> listeners: Слушатели, уведомляемые о записи изменений в CatalogStore.
+ * - Map<String, CollectionSync> running: Синхронизации коллекций, работающие в текущем процессе.
+ *
+ * Методы:
+ * - getInstance(): Возвращает единственный экземпляр CatalogSync.
+ * - start(): Запускает синхронизацию коллекций, которые ещё не синхронизируются (или остановились после ошибки).
+ * - addOnCatalogSyncedListener(OnCatalogSyncedListener), removeOnCatalogSyncedListener(OnCatalogSyncedListener):
+ *   Управление слушателями.
+ * - tombstoneCollection(String): Возвращает имя коллекции надгробий для коллекции каталога.
+ * - deleteWithTombstone(String, String): Удаляет документ каталога и записывает надгробие одной пакетной записью.
+ *
+ * Интерфейс:
+ * - OnCatalogSyncedListener: Для получения уведомлений о синхронизации коллекции и ошибках.
+ *
+ * Вложенный класс:
+ * - CollectionSync: Слушатели и отметки синхронизации одной коллекции.
+ *
+ * Логика:
+ * - Все, кто изменяет товары и категории, записывают updatedAt = serverTimestamp(), а удаляют через deleteWithTombstone().
+ * - Изменениям товаров в обход приложения (консоль, скрипты) updatedAt проставляет функция ensureProductTimestamp
+ *   (functions/index.js), поэтому они тоже попадают в дельта-синхронизацию.
+ * - Отметки берутся из серверных временных меток документов, поэтому расхождение часов устройства на них не влияет.
+ * - Снимки из локального кэша Firestore пропускаются: по ним нельзя сдвигать отметку, так как кэш может быть неполным.
+ * - Документы и надгробия слушаются отдельно, у каждого слушателя своя отметка; в CatalogStore сохраняется меньшая,
+ *   поэтому после перезапуска ничего не теряется (повторно полученные изменения применяются без последствий).
+ * - После каждой применённой порции слушатель переподписывается с новой отметкой: иначе результат запроса
+ *   накапливал бы все изменения сессии, а каждый снимок заново содержал бы уже применённые документы.
+ *   Запрос фильтруется на сервере по отметке, поэтому изменения между отпиской и подпиской не теряются.
+ * - Чтения Firestore при обычной синхронизации пропорциональны числу изменений, а не размеру каталога.
+ * - Все методы вызываются из основного потока.
+ */
+
+public class CatalogSync {
+    private static final String TAG = "CatalogSync";
+    public static final String UPDATED_AT = "updatedAt";
+    public static final String DELETED_AT = "deletedAt";
+    private static final String[] COLLECTIONS = {CatalogStore.PRODUCTS, CatalogStore.CATEGORIES};
+    private static final Timestamp EPOCH = new Timestamp(0, 0);
+    private static CatalogSync instance;
+
+    private final FirebaseFirestore db;
+    private final Set<OnCatalogSyncedListener> listeners = new LinkedHashSet<>();
+    private final Map<String, CollectionSync> running = new HashMap<>();
+
+    private CatalogSync() {
+        db = FirebaseFirestore.getInstance();
+    }
+
+    public static CatalogSync getInstance() {
+        if (instance == null) {
+            instance = new CatalogSync();
+        }
+        return instance;
+    }
+
+    public void start() {
+        for (String collection : COLLECTIONS) {
+            if (!running.containsKey(collection)) {
+                CollectionSync sync = new CollectionSync(collection);
+                running.put(collection, sync);
+                CatalogStore.getInstance().loadWatermark(collection, sync::begin);
+            }
+        }
+    }
+
+    public void addOnCatalogSyncedListener(OnCatalogSyncedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnCatalogSyncedListener(OnCatalogSyncedListener listener) {
+        listeners.remove(listener);
+    }
+
+    public static String tombstoneCollection(String collection) {
+        return "deleted" + Character.toUpperCase(collection.charAt(0)) + collection.substring(1);
+    }
+
+    public static Task<Void> deleteWithTombstone(String collection, String documentId) {
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put(DELETED_AT, FieldValue.serverTimestamp());
+        WriteBatch batch = db.batch();
+        batch.delete(db.collection(collection).document(documentId));
+        batch.set(db.collection(tombstoneCollection(collection)).document(documentId), tombstone);
+        return batch.commit();
+    }
+
+    private void notifySynced(String collection) {
+        for (OnCatalogSyncedListener listener : new ArrayList<>(listeners)) {
+            listener.onCatalogSynced(collection);
+        }
+    }
+
+    private void notifyError(String collection, Exception e) {
+        for (OnCatalogSyncedListener listener : new ArrayList<>(listeners)) {
+            listener.onCatalogSyncError(collection, e);
+        }
+    }
+
+    private static Timestamp later(Timestamp a, Timestamp b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    public interface OnCatalogSyncedListener {
+        void onCatalogSynced(String collection);
+
+        void onCatalogSyncError(String collection, Exception e);
+    }
+
+    private class CollectionSync {
+        private final String collection;
+        private ListenerRegistration fullListener;
+        private ListenerRegistration changesListener;
+        private ListenerRegistration tombstonesListener;
+        private Timestamp changesWatermark;
+        private Timestamp tombstonesWatermark;
+
+        CollectionSync(String collection) {
+            this.collection = collection;
+        }
+
+        void begin(Timestamp watermark) {
+            if (running.get(collection) != this) {
+                return;
+            }
+            if (watermark == null) {
+                fullSync();
+            } else {
+                listenForChanges(watermark);
+            }
+        }
+
+        // Слушатель, а не get(): при запуске без сети он дождётся соединения
+        private void fullSync() {
+            Log.d(TAG, "Полная синхронизация коллекции " + collection);
+            fullListener = db.collection(collection).addSnapshotListener((snapshot, e) -> {
+                if (e != null) {
+                    fail(e);
+                    return;
+                }
+                if (snapshot == null || snapshot.getMetadata().isFromCache() || fullListener == null) {
+                    return;
+                }
+                fullListener.remove();
+                fullListener = null;
+
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                Timestamp watermark = EPOCH;
+                for (DocumentSnapshot document : documents) {
+                    Timestamp updatedAt = document.getTimestamp(UPDATED_AT);
+                    if (updatedAt != null) {
+                        watermark = later(watermark, updatedAt);
+                    }
+                }
+                Timestamp syncedWatermark = watermark;
+                if (CatalogStore.PRODUCTS.equals(collection)) {
+                    StockCache.getInstance().replaceAll(documents);
+                }
+                CatalogStore.getInstance().applyChanges(collection, documents, Collections.emptyMap(),
+                        syncedWatermark, true, () -> {
+                            notifySynced(collection);
+                            if (running.get(collection) == this) {
+                                listenForChanges(syncedWatermark);
+                            }
+                        });
+            });
+        }
+
+        private void listenForChanges(Timestamp watermark) {
+            listenForUpserts(watermark);
+            listenForTombstones(watermark);
+            Log.d(TAG, "Коллекция " + collection + " синхронизируется начиная с " + watermark.toDate());
+        }
+
+        private void listenForUpserts(Timestamp watermark) {
+            changesWatermark = watermark;
+            changesListener = db.collection(collection)
+                    .whereGreaterThan(UPDATED_AT, watermark)
+                    .addSnapshotListener((snapshot, e) -> {
+                        if (e != null) {
+                            fail(e);
+                            return;
+                        }
+                        if (snapshot == null || snapshot.getMetadata().isFromCache()) {
+                            return;
+                        }
+                        // Документы с незавершённой записью придут ещё раз после подтверждения сервером
+                        List<DocumentSnapshot> upserts = new ArrayList<>();
+                        Timestamp newWatermark = changesWatermark;
+                        for (DocumentSnapshot document : snapshot.getDocuments()) {
+                            Timestamp updatedAt = document.getTimestamp(UPDATED_AT);
+                            if (document.getMetadata().hasPendingWrites() || updatedAt == null
+                                    || updatedAt.compareTo(changesWatermark) <= 0) {
+                                continue;
+                            }
+                            upserts.add(document);
+                            newWatermark = later(newWatermark, updatedAt);
+                        }
+                        if (!upserts.isEmpty()) {
+                            changesWatermark = newWatermark;
+                            persist(upserts, Collections.emptyMap());
+                            changesListener.remove();
+                            listenForUpserts(newWatermark);
+                        }
+                    });
+        }
+
+        private void listenForTombstones(Timestamp watermark) {
+            tombstonesWatermark = watermark;
+            tombstonesListener = db.collection(tombstoneCollection(collection))
+                    .whereGreaterThan(DELETED_AT, watermark)
+                    .addSnapshotListener((snapshot, e) -> {
+                        if (e != null) {
+                            fail(e);
+                            return;
+                        }
+                        if (snapshot == null || snapshot.getMetadata().isFromCache()) {
+                            return;
+                        }
+                        Map<String, Timestamp> deletions = new HashMap<>();
+                        Timestamp newWatermark = tombstonesWatermark;
+                        for (DocumentSnapshot document : snapshot.getDocuments()) {
+                            Timestamp deletedAt = document.getTimestamp(DELETED_AT);
+                            if (document.getMetadata().hasPendingWrites() || deletedAt == null
+                                    || deletedAt.compareTo(tombstonesWatermark) <= 0) {
+                                continue;
+                            }
+                            deletions.put(document.getId(), deletedAt);
+                            newWatermark = later(newWatermark, deletedAt);
+                        }
+                        if (!deletions.isEmpty()) {
+                            tombstonesWatermark = newWatermark;
+                            persist(Collections.emptyList(), deletions);
+                            tombstonesListener.remove();
+                            listenForTombstones(newWatermark);
+                        }
+                    });
+        }
+
+        private void persist(List<DocumentSnapshot> upserts, Map<String, Timestamp> deletions) {
+            Timestamp watermark = changesWatermark.compareTo(tombstonesWatermark) <= 0 ? changesWatermark : tombstonesWatermark;
+            if (CatalogStore.PRODUCTS.equals(collection)) {
+                StockCache.getInstance().applyChanges(upserts, deletions.keySet());
+            }
+            CatalogStore.getInstance().applyChanges(collection, upserts, deletions, watermark, false,
+                    () -> notifySynced(collection));
+        }
+
+        // После ошибки слушатели Firestore прекращают работу - следующий start() запустит синхронизацию заново
+        private void fail(Exception e) {
+            Log.e(TAG, "Ошибка синхронизации коллекции " + collection + ": ", e);
+            if (fullListener != null) {
+                fullListener.remove();
+                fullListener = null;
+            }
+            if (changesListener != null) {
+                changesListener.remove();
+                changesListener = null;
+            }
+            if (tombstonesListener != null) {
+                tombstonesListener.remove();
+                tombstonesListener = null;
+            }
+            if (running.get(collection) == this) {
+                running.remove(collection);
+                notifyError(collection, e);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -14,9 +14,7 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.bumptech.glide.Glide;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -25,32 +23,36 @@ import java.util.List;
  * CategoriesPage - фрагмент для отображения списка категорий товаров.
  *
  * Основные функции:
- * - Загрузка категорий из Firestore.
+ * - Получение категорий из общего CategoryRepository.
  * - Отображение категорий в виде сетки с использованием RecyclerView.
  * - Обновление списка категорий при изменениях в Firestore.
  *
  * Поля:
  * - RecyclerView categoriesRecyclerView: Отображение категорий в виде сетки.
  * - CategoryAdapter categoryAdapter: Адаптер для управления элементами категорий.
- * - FirebaseFirestore db: Ссылка на Firestore для загрузки данных.
  * - List<Category> categoriesList: Список категорий для отображения.
  *
  * Методы:
  * - onCreateView(LayoutInflater, ViewGroup, Bundle): Инициализация интерфейса, настройка RecyclerView и адаптера.
- * - loadCategoriesFromFirestore(): Загрузка списка категорий из Firestore с использованием слушателя изменений.
+ * - onDestroyView(): Удаляет слушателя категорий при уничтожении представления.
+ * - onCategoriesChanged(List<Category>): Обновляет список категорий для отображения.
+ * - onCategoriesError(Exception): Сообщает об ошибке загрузки категорий.
  *
  * Логика:
- * - При загрузке фрагмента категории загружаются из Firestore и сортируются по времени добавления.
+ * - Категории приходят из CategoryRepository уже отсортированными по времени добавления; при повторном открытии
+ *   вкладки список показывается сразу, без нового запроса к Firestore.
+ * - Отображаются только категории с изображением.
  * - Если список категорий пуст, отображается уведомление.
  * - Любые изменения в коллекции "categories" автоматически обновляют отображение.
+ * - После получения списка изображения всех категорий загружаются в кэш памяти в фоне (категорий немного),
+ *   поэтому при прокрутке сетки они отображаются без ожидания декодирования.
  */
 
-public class CategoriesPage extends Fragment {
+public class CategoriesPage extends Fragment implements CategoryRepository.OnCategoriesChangedListener {
 
     private static final String TAG = "CategoriesPage";
     private RecyclerView categoriesRecyclerView;
     private CategoryAdapter categoryAdapter;
-    private FirebaseFirestore db;
     private List<Category> categoriesList;
 
     @Nullable
@@ -59,47 +61,43 @@ public class CategoriesPage extends Fragment {
                              @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_categories_page, container, false);
 
-        db = FirebaseFirestore.getInstance();
         categoriesRecyclerView = view.findViewById(R.id.categories_recycler_view);
-        categoriesRecyclerView.setLayoutManager(new GridLayoutManager(getContext(), 2));
+        categoriesRecyclerView.setLayoutManager(new GridLayoutManager(getContext(), CategoryAdapter.SPAN_COUNT));
         categoriesList = new ArrayList<>();
-        categoryAdapter = new CategoryAdapter(categoriesList);
+        categoryAdapter = new CategoryAdapter(requireContext(), categoriesList);
         categoriesRecyclerView.setAdapter(categoryAdapter);
+        categoryAdapter.attachImagePreloader(categoriesRecyclerView);
 
-        loadCategoriesFromFirestore();
+        CategoryRepository.getInstance().addOnCategoriesChangedListener(this);
 
         return view;
     }
 
-    private void loadCategoriesFromFirestore() {
-        db.collection("categories")
-                .orderBy("timestamp", Query.Direction.DESCENDING) // Сортировка по времени добавления
-                .addSnapshotListener((snapshots, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Ошибка загрузки категорий: " + e.getMessage());
-                        Toast.makeText(getContext(), "Ошибка загрузки категорий: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    if (snapshots != null) {
-                        Log.d(TAG, "Получено категорий: " + snapshots.size());
-                        categoriesList.clear();
-                        for (QueryDocumentSnapshot document : snapshots) {
-                            String id = document.getId();
-                            String name = document.getString("name");
-                            String imageUrl = document.getString("imageUrl");
-                            if (name != null && imageUrl != null) {
-                                Category category = new Category(id, name, imageUrl);
-                                categoriesList.add(category);
-                                Log.d(TAG, "Категория: " + name + ", ID: " + id);
-                            }
-                        }
-                        categoryAdapter.notifyDataSetChanged();
-                        if (categoriesList.isEmpty()) {
-                            Toast.makeText(getContext(), "Категорий нет в базе данных", Toast.LENGTH_SHORT).show();
-                        }
-                    } else {
-                        Log.w(TAG, "Snapshots равен null");
-                    }
-                });
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        CategoryRepository.getInstance().removeOnCategoriesChangedListener(this);
+    }
+
+    @Override
+    public void onCategoriesChanged(List<Category> categories) {
+        Log.d(TAG, "Получено категорий: " + categories.size());
+        categoriesList.clear();
+        for (Category category : categories) {
+            if (category.getImageUrl() != null) {
+                categoriesList.add(category);
+            }
+        }
+        categoryAdapter.notifyDataSetChanged();
+        categoryAdapter.preloadImages(Glide.with(this), categoriesList);
+        if (categoriesList.isEmpty()) {
+            Toast.makeText(getContext(), "Категорий нет в базе данных", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    public void onCategoriesError(Exception e) {
+        Log.e(TAG, "Ошибка загрузки категорий: " + e.getMessage());
+        Toast.makeText(getContext(), "Ошибка загрузки категорий: " + e.getMessage(), Toast.LENGTH_SHORT).show();
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.example.factorio;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.drawable.Drawable;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -9,10 +10,17 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.RequestManager;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -23,11 +31,18 @@ import java.util.List;
  * - Обработка нажатий на карточки для перехода к продуктам внутри категории.
  *
  * Поля:
+ * - int SPAN_COUNT: Число столбцов сетки категорий.
+ * - int IMAGE_PRELOAD_COUNT: Сколько изображений следующих карточек предзагружается при прокрутке.
  * - List<Category> categories: Список категорий для отображения.
+ * - ListImageSize imageSize: Размер изображения карточки для загрузки и предзагрузки.
  *
  * Методы:
  * - onCreateViewHolder(ViewGroup, int): Создает ViewHolder для элемента категории.
  * - onBindViewHolder(CategoryViewHolder, int): Привязывает данные категории к ViewHolder.
+ * - imageRequest(RequestManager, Category): Строит запрос Glide изображения категории (общий для привязки и предзагрузки).
+ * - attachImagePreloader(RecyclerView): Включает предзагрузку изображений следующих карточек при прокрутке.
+ * - preloadImages(RequestManager, List<Category>): Загружает изображения категорий в кэш памяти заранее.
+ * - getPreloadItems(int), getPreloadRequestBuilder(Category): Реализация ListPreloader.PreloadModelProvider.
  * - getItemCount(): Возвращает количество категорий в списке.
  *
  * Вложенный класс:
@@ -43,13 +58,21 @@ import java.util.List;
  * - При нажатии на карточку происходит переход к активности `CategoryProductsActivity`,
  *   где отображаются продукты, относящиеся к выбранной категории.
  * - Glide используется для загрузки изображений с поддержкой плейсхолдера и обработки ошибок.
+ * - Изображения загружаются с явным размером (ListImageSize); предзагрузка использует тот же запрос,
+ *   поэтому при привязке изображение берётся из кэша памяти.
  */
 
-public class CategoryAdapter extends RecyclerView.Adapter<CategoryAdapter.CategoryViewHolder> {
+public class CategoryAdapter extends RecyclerView.Adapter<CategoryAdapter.CategoryViewHolder>
+        implements ListPreloader.PreloadModelProvider<Category> {
+    public static final int SPAN_COUNT = 2;
+    public static final int IMAGE_PRELOAD_COUNT = 6;
     private List<Category> categories;
+    private final ListImageSize imageSize;
+    private RequestManager preloadRequests;
 
-    public CategoryAdapter(List<Category> categories) {
+    public CategoryAdapter(Context context, List<Category> categories) {
         this.categories = categories;
+        this.imageSize = ListImageSize.forCategoryCard(context);
     }
 
     @NonNull
@@ -64,11 +87,7 @@ public class CategoryAdapter extends RecyclerView.Adapter<CategoryAdapter.Catego
     public void onBindViewHolder(@NonNull CategoryViewHolder holder, int position) {
         Category category = categories.get(position);
         holder.categoryName.setText(category.getName());
-        Glide.with(holder.itemView.getContext())
-                .load(category.getImageUrl())
-                .placeholder(R.drawable.ic_placeholder)
-                .error(R.drawable.ic_placeholder)
-                .into(holder.categoryImage);
+        imageRequest(Glide.with(holder.itemView.getContext()), category).into(holder.categoryImage);
 
         // Обработка нажатия на карточку категории
         holder.itemView.setOnClickListener(v -> {
@@ -84,6 +103,45 @@ public class CategoryAdapter extends RecyclerView.Adapter<CategoryAdapter.Catego
         return categories.size();
     }
 
+    private RequestBuilder<Drawable> imageRequest(RequestManager requestManager, Category category) {
+        return requestManager
+                .load(category.getImageUrl())
+                .placeholder(R.drawable.ic_placeholder)
+                .error(R.drawable.ic_placeholder)
+                .apply(FactorioGlideModule.THUMBNAIL_OPTIONS)
+                .override(imageSize.getWidth(), imageSize.getHeight())
+                .fitCenter();
+    }
+
+    public void attachImagePreloader(RecyclerView recyclerView) {
+        preloadRequests = Glide.with(recyclerView);
+        recyclerView.addOnScrollListener(new RecyclerViewPreloader<>(preloadRequests, this,
+                new FixedPreloadSizeProvider<>(imageSize.getWidth(), imageSize.getHeight()), IMAGE_PRELOAD_COUNT));
+    }
+
+    public void preloadImages(RequestManager requestManager, List<Category> categoriesToPreload) {
+        for (Category category : categoriesToPreload) {
+            if (category.getImageUrl() != null) {
+                imageRequest(requestManager, category).preload(imageSize.getWidth(), imageSize.getHeight());
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public List<Category> getPreloadItems(int position) {
+        if (position >= categories.size()) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(categories.get(position));
+    }
+
+    @Nullable
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Category category) {
+        return imageRequest(preloadRequests, category);
+    }
+
     static class CategoryViewHolder extends RecyclerView.ViewHolder {
         ImageView categoryImage;
         TextView categoryName;
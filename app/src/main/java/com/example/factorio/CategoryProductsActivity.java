@@ -13,12 +13,17 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -35,38 +40,57 @@ import java.util.Set;
  * - FloatingActionButton backFab: Кнопка для возврата к предыдущему экрану.
  * - ProductAdapter productAdapter: Адаптер для управления отображением товаров.
  * - List<Product> productsList: Список товаров для отображения.
+ * - Map<String, Product> productsById: Товары из загруженных страниц по идентификатору.
  * - FirebaseFirestore db: Ссылка на Firestore для работы с данными.
  * - FirebaseAuth auth: Ссылка на FirebaseAuth для проверки текущего пользователя.
  * - String categoryId: Идентификатор категории товаров.
  * - String categoryName: Название категории товаров.
  * - Set<String> favoriteIds: Множество идентификаторов избранных товаров.
+ * - PagedProductSource pagedSource: Постраничный источник товаров категории.
+ * - ListenerRegistration favoritesListener: Слушатель изменений избранного.
+ * - boolean showingStoredProducts: Отображаются ли товары из локального каталога до прихода первой страницы.
  *
  * Методы:
  * - onCreate(Bundle): Инициализация активности, настройка RecyclerView и загрузка данных.
  * - onDestroy(): Удаление слушателей при уничтожении активности.
- * - onCartChanged(List<CartItem>): Обновление интерфейса при изменении корзины.
  * - loadFavoritesAndProducts(): Загрузка избранных товаров и товаров из категории.
- * - loadProductsByCategory(Set<String>): Загрузка товаров из Firestore для текущей категории.
+ * - showStoredProducts(): Отображение первой страницы категории из локального каталога (CatalogStore).
+ * - loadProductsByCategory(): Запуск постраничной загрузки товаров текущей категории.
+ * - onPageChanged(List<CatalogStream.Change>): Применение изменений загруженных страниц к списку.
+ * - findPosition(Product, Comparator<Product>): Поиск позиции товара в productsList двоичным поиском.
+ * - applyFavorites(): Обновление статуса избранного у загруженных товаров.
  *
  * Логика:
  * - При загрузке активности загружается список товаров, относящихся к категории, а также избранные товары для авторизованных пользователей.
  * - Если категория имеет ID "all", загружаются все товары, иначе только товары, относящиеся к категории.
- * - Обновление состояния корзины отображается в реальном времени благодаря CartManager.
+ * - Сразу после открытия отображаются товары категории из локального каталога; первая страница из Firestore
+ *   заменяет их целиком.
+ * - Товары загружаются страницами, следующая страница подгружается при прокрутке к концу списка,
+ *   а живые обновления приходят только для загруженных страниц.
+ * - Обновление состояния корзины отображается в реальном времени: ProductAdapter сам слушает CartManager
+ *   и перепривязывает только кнопки количества изменившихся товаров.
  * - Товары отображаются с информацией о наличии, принадлежности к категории и статусе избранного.
+ * - Позиция изменившегося товара находится двоичным поиском по его прежней версии из productsById,
+ *   поэтому стоимость изменения не зависит от числа загруженных товаров.
+ * - Полученные товары сохраняются в ProductStore, чтобы экран товара открывался без ожидания Firestore.
  */
 
-public class CategoryProductsActivity extends AppCompatActivity implements CartManager.OnCartChangedListener {
+public class CategoryProductsActivity extends AppCompatActivity {
     private static final String TAG = "CategoryProductsActivity";
     private RecyclerView categoryProductsRecyclerView;
     private TextView categoryTitle;
     private FloatingActionButton backFab;
     private ProductAdapter productAdapter;
     private List<Product> productsList;
+    private final Map<String, Product> productsById = new HashMap<>();
     private FirebaseFirestore db;
     private FirebaseAuth auth;
     private String categoryId;
     private String categoryName;
     private Set<String> favoriteIds;
+    private PagedProductSource pagedSource;
+    private ListenerRegistration favoritesListener;
+    private boolean showingStoredProducts = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -89,15 +113,32 @@ public class CategoryProductsActivity extends AppCompatActivity implements CartM
         productAdapter = new ProductAdapter(this, productsList);
 
         categoryProductsRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        ProductViewPool.getInstance().attach(categoryProductsRecyclerView);
         categoryProductsRecyclerView.setAdapter(productAdapter);
+        productAdapter.attachImagePreloader(categoryProductsRecyclerView);
+
+        Query query = "all".equals(categoryId)
+                ? db.collection("products")
+                : db.collection("products").whereEqualTo("category", categoryId);
+        pagedSource = new PagedProductSource(query, PagedProductSource.DEFAULT_PAGE_SIZE,
+                new PagedProductSource.OnPageChangedListener() {
+                    @Override
+                    public void onPageChanged(List<CatalogStream.Change> changes) {
+                        CategoryProductsActivity.this.onPageChanged(changes);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Ошибка загрузки товаров для категории " + categoryId + ": " + e.getMessage());
+                        Toast.makeText(CategoryProductsActivity.this, "Ошибка загрузки товаров", Toast.LENGTH_SHORT).show();
+                    }
+                });
+        pagedSource.attachTo(categoryProductsRecyclerView);
 
         categoryTitle.setText(categoryName != null ? categoryName : "Товары");
+        showStoredProducts();
 
-        CartManager.getInstance().addOnCartChangedListener(this);
-        CartManager.getInstance().loadCartFromFirestore(items -> {
-            Log.d(TAG, "Корзина загружена в CategoryProductsActivity, элементов: " + items.size());
-            loadFavoritesAndProducts();
-        });
+        loadFavoritesAndProducts();
 
         backFab.setOnClickListener(v -> finish());
     }
@@ -105,81 +146,148 @@ public class CategoryProductsActivity extends AppCompatActivity implements CartM
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        CartManager.getInstance().removeOnCartChangedListener(this);
-    }
-
-    @Override
-    public void onCartChanged(List<CartItem> cartItems) {
-        Log.d(TAG, "Корзина изменилась в CategoryProductsActivity, элементов: " + cartItems.size());
-        productAdapter.notifyDataSetChanged();
+        pagedSource.stop();
+        if (favoritesListener != null) {
+            favoritesListener.remove();
+        }
     }
 
     private void loadFavoritesAndProducts() {
         FirebaseUser user = auth.getCurrentUser();
         if (user == null) {
             Log.d(TAG, "Пользователь не авторизован, загружаем товары без избранного");
-            loadProductsByCategory(new HashSet<>());
+            loadProductsByCategory();
             return;
         }
 
         String userId = user.getUid();
-        db.collection("users").document(userId).collection("favorites")
+        boolean[] productsRequested = {false};
+        favoritesListener = db.collection("users").document(userId).collection("favorites")
                 .addSnapshotListener((snapshot, e) -> {
                     if (e != null) {
                         Log.e(TAG, "Ошибка загрузки избранного: " + e.getMessage());
                         Toast.makeText(this, "Ошибка загрузки избранного", Toast.LENGTH_SHORT).show();
-                        loadProductsByCategory(new HashSet<>());
-                        return;
-                    }
-                    favoriteIds.clear();
-                    if (snapshot != null) {
-                        for (QueryDocumentSnapshot document : snapshot) {
-                            String productId = document.getString("productId");
-                            if (productId != null) {
-                                favoriteIds.add(productId);
+                    } else {
+                        favoriteIds.clear();
+                        if (snapshot != null) {
+                            for (QueryDocumentSnapshot document : snapshot) {
+                                String productId = document.getString("productId");
+                                if (productId != null) {
+                                    favoriteIds.add(productId);
+                                }
                             }
+                            Log.d(TAG, "Избранное загружено: " + favoriteIds.size() + " элементов");
                         }
-                        Log.d(TAG, "Избранное загружено: " + favoriteIds.size() + " элементов");
                     }
-                    loadProductsByCategory(favoriteIds);
+                    // Товары подписываются один раз, дальнейшие изменения избранного применяются к уже загруженным
+                    if (!productsRequested[0]) {
+                        productsRequested[0] = true;
+                        loadProductsByCategory();
+                    } else {
+                        applyFavorites();
+                    }
                 });
     }
 
-    private void loadProductsByCategory(Set<String> favoriteIds) {
-        Query query;
-        if ("all".equals(categoryId)) {
-            query = db.collection("products")
-                    .orderBy("timestamp", Query.Direction.DESCENDING);
-        } else {
-            query = db.collection("products")
-                    .whereEqualTo("category", categoryId)
-                    .orderBy("timestamp", Query.Direction.DESCENDING);
-        }
-
-        query.addSnapshotListener((snapshot, e) -> {
-            if (e != null) {
-                Log.e(TAG, "Ошибка загрузки товаров для категории " + categoryId + ": " + e.getMessage());
-                Toast.makeText(this, "Ошибка загрузки товаров", Toast.LENGTH_SHORT).show();
-                return;
-            }
-            productsList.clear();
-            if (snapshot != null) {
-                Log.d(TAG, "Получено товаров: " + snapshot.size());
-                for (QueryDocumentSnapshot document : snapshot) {
-                    Product product = document.toObject(Product.class);
-                    if (product != null) {
-                        product.setId(document.getId());
+    private void showStoredProducts() {
+        showingStoredProducts = true;
+        CatalogStore.getInstance().loadProducts("all".equals(categoryId) ? null : categoryId, false, 0.0, null, null,
+                PagedProductSource.DEFAULT_PAGE_SIZE,
+                products -> {
+                    if (!showingStoredProducts || isDestroyed()) {
+                        return;
+                    }
+                    for (Product product : products) {
                         product.setFavorite(favoriteIds.contains(product.getId()));
                         product.setCategoryName(categoryName != null ? categoryName : "Без категории");
-                        Long quantity = document.getLong("quantity");
-                        product.setQuantity(quantity != null ? quantity.intValue() : 0);
-                        productsList.add(product);
-                        Log.d(TAG, "Добавлен товар: " + product.getName() + ", ID: " + product.getId() + ", В наличии: " + product.getQuantity() + ", В корзине: " + CartManager.getInstance().getItemQuantity(product.getId())); // Исправлено: getItemQuantity
                     }
+                    productsList.clear();
+                    productsList.addAll(products);
+                    productAdapter.notifyDataSetChanged();
+                    Log.d(TAG, "Товаров из локального каталога: " + products.size());
+                });
+    }
+
+    private void loadProductsByCategory() {
+        if (!showingStoredProducts) {
+            productsList.clear();
+            productsById.clear();
+            productAdapter.notifyDataSetChanged();
+        }
+        pagedSource.start();
+    }
+
+    private void onPageChanged(List<CatalogStream.Change> changes) {
+        Comparator<Product> comparator = PagedProductSource.NEWEST_FIRST.thenComparing(Product::getId);
+        // Первая страница целиком заменяет товары из локального каталога
+        boolean replacingStored = showingStoredProducts;
+        if (replacingStored) {
+            showingStoredProducts = false;
+            productsList.clear();
+            productsById.clear();
+        }
+        for (CatalogStream.Change change : changes) {
+            QueryDocumentSnapshot document = change.getDocument();
+            Product oldProduct = productsById.get(document.getId());
+            int oldPosition = oldProduct != null ? findPosition(oldProduct, comparator) : -1;
+            if (oldPosition != -1) {
+                productsList.remove(oldPosition);
+            }
+
+            if (change.getType() == CatalogStream.Change.Type.REMOVED) {
+                productsById.remove(document.getId());
+                ProductStore.getInstance().remove(document.getId());
+                if (oldPosition != -1 && !replacingStored) {
+                    productAdapter.notifyItemRemoved(oldPosition);
+                }
+                continue;
+            }
+
+            Product product = document.toObject(Product.class);
+            product.setId(document.getId());
+            product.setFavorite(favoriteIds.contains(product.getId()));
+            product.setCategoryName(categoryName != null ? categoryName : "Без категории");
+            Long quantity = document.getLong("quantity");
+            product.setQuantity(quantity != null ? quantity.intValue() : 0);
+            ProductStore.getInstance().put(product);
+            productsById.put(product.getId(), product);
+
+            int newPosition = Collections.binarySearch(productsList, product, comparator);
+            if (newPosition < 0) {
+                newPosition = -newPosition - 1;
+            }
+            productsList.add(newPosition, product);
+            if (replacingStored) {
+                continue;
+            }
+            if (oldPosition == -1) {
+                productAdapter.notifyItemInserted(newPosition);
+            } else {
+                if (oldPosition != newPosition) {
+                    productAdapter.notifyItemMoved(oldPosition, newPosition);
                 }
+                productAdapter.notifyItemChanged(newPosition);
             }
+        }
+        if (replacingStored) {
             productAdapter.notifyDataSetChanged();
-            Log.d(TAG, "UI обновлён, товаров в списке: " + productsList.size());
-        });
+        }
+        Log.d(TAG, "UI обновлён, товаров в списке: " + productsList.size());
+    }
+
+    private int findPosition(Product product, Comparator<Product> comparator) {
+        int position = Collections.binarySearch(productsList, product, comparator);
+        return position >= 0 && productsList.get(position) == product ? position : -1;
+    }
+
+    private void applyFavorites() {
+        for (int i = 0; i < productsList.size(); i++) {
+            Product product = productsList.get(i);
+            boolean isFavorite = favoriteIds.contains(product.getId());
+            if (product.isFavorite() != isFavorite) {
+                product.setFavorite(isFavorite);
+                productAdapter.notifyItemChanged(i, ProductAdapter.PAYLOAD_FAVORITE);
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package com.example.factorio;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CategoryRepository - синглтон-класс, хранящий категории товаров для всего приложения.
+ *
+ * Основные функции:
+ * - Категории читаются из локального каталога (CatalogStore), который синхронизирует CatalogSync,
+ *   вместо отдельной загрузки коллекции "categories" на каждом экране и при каждом запуске.
+ * - Поиск названия категории по ID за O(1) без обращения к Firestore.
+ * - Уведомление экранов об изменениях списка категорий.
+ *
+ * Поля:
+ * - static CategoryRepository instance: Единственный экземпляр CategoryRepository (синглтон).
+ * - boolean started: Подписан ли репозиторий на CatalogSync.
+ * - List<Category> categories: Категории, отсортированные по времени добавления (сначала новые).
+ * - Map<String, Category> categoriesById: ID категории -> категория.
+ * - boolean loaded: Загружены ли категории.
+ * - Set<OnCategoriesChangedListener> listeners: Слушатели, уведомляемые об изменениях категорий.
+ *
+ * Методы:
+ * - getInstance(): Возвращает единственный экземпляр CategoryRepository.
+ * - addOnCategoriesChangedListener(OnCategoriesChangedListener): Добавляет слушателя и запускает загрузку при необходимости.
+ * - removeOnCategoriesChangedListener(OnCategoriesChangedListener): Удаляет слушателя.
+ * - getCategories(): Возвращает неизменяемый список категорий.
+ * - getCategoryName(String, String): Возвращает название категории по ID или значение по умолчанию.
+ * - isLoaded(): Возвращает, загружены ли категории.
+ * - onCatalogSynced(String), onCatalogSyncError(String, Exception): Обработка синхронизации каталога.
+ * - reload(): Перечитывает категории из CatalogStore.
+ *
+ * Интерфейс:
+ * - OnCategoriesChangedListener: Для получения списка категорий и ошибок.
+ *
+ * Логика:
+ * - Подписка на CatalogSync создаётся при первом слушателе и не отключается: категорий немного, а нужны они почти каждому экрану.
+ * - При запуске категории сразу читаются с диска; при первом запуске приложения (каталог ещё пуст)
+ *   они появляются после полной синхронизации.
+ * - Новый слушатель сразу получает текущий список, если он уже загружен.
+ * - Изменения категорий приходят через CatalogSync, после чего список перечитывается из CatalogStore.
+ * - После ошибки синхронизации следующая подписка запускает её заново.
+ * - Все методы вызываются из основного потока.
+ */
+
+public class CategoryRepository implements CatalogSync.OnCatalogSyncedListener {
+    private static final String TAG = "CategoryRepository";
+    private static CategoryRepository instance;
+
+    private final Set<OnCategoriesChangedListener> listeners = new LinkedHashSet<>();
+    private boolean started = false;
+    private List<Category> categories = Collections.emptyList();
+    private Map<String, Category> categoriesById = new HashMap<>();
+    private boolean loaded = false;
+
+    private CategoryRepository() {}
+
+    public static CategoryRepository getInstance() {
+        if (instance == null) {
+            instance = new CategoryRepository();
+        }
+        return instance;
+    }
+
+    public void addOnCategoriesChangedListener(OnCategoriesChangedListener listener) {
+        listeners.add(listener);
+        if (!started) {
+            started = true;
+            CatalogSync.getInstance().addOnCatalogSyncedListener(this);
+            reload();
+        }
+        CatalogSync.getInstance().start();
+        if (loaded) {
+            listener.onCategoriesChanged(categories);
+        }
+    }
+
+    public void removeOnCategoriesChangedListener(OnCategoriesChangedListener listener) {
+        listeners.remove(listener);
+    }
+
+    public List<Category> getCategories() {
+        return categories;
+    }
+
+    public String getCategoryName(String categoryId, String defaultName) {
+        Category category = categoryId != null ? categoriesById.get(categoryId) : null;
+        return category != null ? category.getName() : defaultName;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    @Override
+    public void onCatalogSynced(String collection) {
+        if (CatalogStore.CATEGORIES.equals(collection)) {
+            reload();
+        }
+    }
+
+    @Override
+    public void onCatalogSyncError(String collection, Exception e) {
+        if (CatalogStore.CATEGORIES.equals(collection)) {
+            Log.e(TAG, "Ошибка загрузки категорий: ", e);
+            for (OnCategoriesChangedListener listener : new ArrayList<>(listeners)) {
+                listener.onCategoriesError(e);
+            }
+        }
+    }
+
+    private void reload() {
+        CatalogStore.getInstance().loadCategories(storedCategories -> {
+            if (storedCategories == null) {
+                Log.d(TAG, "Категории ещё не синхронизированы");
+                return;
+            }
+            List<Category> newCategories = new ArrayList<>(storedCategories.size());
+            Map<String, Category> newCategoriesById = new HashMap<>();
+            for (Category category : storedCategories) {
+                if (category.getName() != null) {
+                    newCategories.add(category);
+                    newCategoriesById.put(category.getId(), category);
+                }
+            }
+            categories = Collections.unmodifiableList(newCategories);
+            categoriesById = newCategoriesById;
+            loaded = true;
+            Log.d(TAG, "Категорий загружено: " + categories.size());
+
+            for (OnCategoriesChangedListener listener : new ArrayList<>(listeners)) {
+                if (listeners.contains(listener)) {
+                    listener.onCategoriesChanged(categories);
+                }
+            }
+        });
+    }
+
+    public interface OnCategoriesChangedListener {
+        void onCategoriesChanged(List<Category> categories);
+
+        void onCategoriesError(Exception e);
+    }
+}
\ No newline at end of file
@@ -18,15 +18,16 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.WriteBatch;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * CheckoutActivity - активность для оформления заказа.
@@ -45,6 +46,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * - Button checkoutButton: Кнопка для оформления заказа.
  * - CheckBox termsCheckbox: Чекбокс для подтверждения условий использования.
  * - List<CartItem> cartItems: Список товаров в корзине.
+ * - CartTotals totals: Итоги заказа (число товаров, сумма, комиссия по способу оплаты), считаются один раз.
  * - CheckoutAdapter checkoutAdapter: Адаптер для отображения товаров в списке.
  * - FirebaseFirestore db: Ссылка на Firestore для работы с данными.
  * - FirebaseAuth auth: Ссылка на FirebaseAuth для проверки текущего пользователя.
@@ -54,20 +56,28 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * - initViews(): Инициализирует элементы интерфейса.
  * - setupListeners(): Настраивает обработчики событий для интерфейса.
  * - updateCheckoutButtonState(boolean): Обновляет состояние кнопки оформления заказа.
- * - updateUI(int): Обновляет отображение информации о заказе.
- * - updateCommissionAndTotal(int, int): Рассчитывает комиссию и итоговую сумму в зависимости от способа оплаты.
- * - checkStockBeforeCheckout(): Проверяет наличие товаров перед оформлением заказа.
- * - checkoutOrder(): Создает заказ и обновляет количество товаров в базе данных.
- * - completeCheckout(String, String, int): Завершает процесс оформления заказа, очищает корзину и возвращает данные результата.
- * - calculateTotalItems(List<CartItem>): Вычисляет общее количество товаров.
- * - calculateTotalPrice(List<CartItem>): Вычисляет общую стоимость товаров.
+ * - updateUI(): Обновляет отображение информации о заказе.
+ * - updateCommissionAndTotal(int): Отображает комиссию и итоговую сумму из CartTotals в зависимости от способа оплаты.
+ * - showCartItems(List<CartItem>): Показывает товары с обновлёнными ценами и пересчитывает итоги.
+ * - checkoutOrder(): Записывает отложенные изменения корзины и запускает транзакцию оформления заказа.
+ * - runCheckoutTransaction(String, String): Оформляет заказ одной транзакцией Firestore.
+ * - refreshCartItems(): Перечитывает цены и наличие товаров после отказа транзакции.
+ * - completeCheckout(String, String, int): Завершает процесс оформления заказа и возвращает данные результата.
  *
  * Логика:
  * - Пользователь может выбрать способ оплаты (карта или наличные).
  * - Комиссия добавляется только при оплате картой (5% от общей стоимости).
- * - Перед оформлением заказа проверяется наличие товаров на складе.
- * - Заказ сохраняется в Firestore с обновлением количества товаров.
- * - После успешного оформления корзина очищается, и пользователь получает уведомление.
+ * - Заказ оформляется одной транзакцией Firestore (runTransaction): она читает документы всех товаров заказа,
+ *   проверяет наличие и цены на сервере, списывает остатки и атомарно записывает заказ в orders, запись
+ *   в users/{uid}/orders_history и удаление заказанных товаров из users/{uid}/cart. Отдельной проверки перед
+ *   заказом нет, и продать товар дважды между проверкой и списанием нельзя.
+ * - Остаток "горячих" товаров может быть разделён на шарды (StockShards): тогда списывается случайный шард
+ *   с достаточным остатком, а документ товара только читается, и одновременные заказы реже конфликтуют.
+ * - Если товара не хватает или изменилась цена, транзакция отменяется без записей, а цены и остатки корзины
+ *   перечитываются (CartManager.revalidateCart), чтобы пользователь увидел пересчитанную сумму.
+ * - Перед транзакцией сохраняются отложенные записи корзины; если сохранить их не удалось, оформление
+ *   отменяется с сообщением об ошибке, а кнопка заказа снова становится доступной.
+ * - После успешного оформления заказанные товары убираются из локальной корзины, и пользователь получает уведомление.
  */
 
 public class CheckoutActivity extends AppCompatActivity {
@@ -81,6 +91,7 @@ public class CheckoutActivity extends AppCompatActivity {
     private Button checkoutButton;
     private CheckBox termsCheckbox;
     private List<CartItem> cartItems;
+    private CartTotals totals;
     private CheckoutAdapter checkoutAdapter;
     private FirebaseFirestore db;
     private FirebaseAuth auth;
@@ -99,12 +110,13 @@ public class CheckoutActivity extends AppCompatActivity {
 
         cartItems = (List<CartItem>) getIntent().getSerializableExtra("cart_items");
         if (cartItems == null) cartItems = new ArrayList<>();
+        totals = CartTotals.of(cartItems);
 
         checkoutAdapter = new CheckoutAdapter(cartItems);
         checkoutRecyclerView.setLayoutManager(new LinearLayoutManager(this));
         checkoutRecyclerView.setAdapter(checkoutAdapter);
 
-        updateUI(calculateTotalPrice(cartItems));
+        updateUI();
 
         setupListeners();
     }
@@ -133,16 +145,13 @@ public class CheckoutActivity extends AppCompatActivity {
                 Toast.makeText(this, "Пожалуйста, согласитесь с условиями использования", Toast.LENGTH_SHORT).show();
                 return;
             }
-            checkStockBeforeCheckout();
+            checkoutOrder();
         });
 
-        paymentMethodGroup.setOnCheckedChangeListener((group, checkedId) -> {
-            int totalPrice = calculateTotalPrice(cartItems);
-            updateCommissionAndTotal(totalPrice, checkedId);
-        });
+        paymentMethodGroup.setOnCheckedChangeListener((group, checkedId) -> updateCommissionAndTotal(checkedId));
 
         int initialCheckedId = paymentMethodGroup.getCheckedRadioButtonId();
-        updateCommissionAndTotal(calculateTotalPrice(cartItems), initialCheckedId);
+        updateCommissionAndTotal(initialCheckedId);
     }
 
     private void updateCheckoutButtonState(boolean isChecked) {
@@ -157,67 +166,30 @@ public class CheckoutActivity extends AppCompatActivity {
         }
     }
 
-    private void updateUI(int totalPrice) {
-        int totalItems = calculateTotalItems(cartItems);
-        itemsCountText.setText("Товары (" + totalItems + ")");
-        totalPriceText.setText(totalPrice + " ₽");
-        updateCommissionAndTotal(totalPrice, paymentMethodGroup.getCheckedRadioButtonId());
+    private void updateUI() {
+        itemsCountText.setText("Товары (" + totals.getItemCount() + ")");
+        totalPriceText.setText(totals.getSubtotal() + " ₽");
+        updateCommissionAndTotal(paymentMethodGroup.getCheckedRadioButtonId());
     }
 
-    private void updateCommissionAndTotal(int totalPrice, int checkedId) {
-        int commission = 0;
+    private void updateCommissionAndTotal(int checkedId) {
         if (checkedId == R.id.payment_card) {
-            commission = (int) (totalPrice * 0.05);
             findViewById(R.id.commission_layout).setVisibility(View.VISIBLE);
-            commissionAmountText.setText(commission + " ₽");
-            totalAmountText.setText((totalPrice + commission) + " ₽");
+            commissionAmountText.setText(totals.getCommission(CartTotals.PaymentMethod.CARD) + " ₽");
+            totalAmountText.setText(totals.getTotal(CartTotals.PaymentMethod.CARD) + " ₽");
         } else if (checkedId == R.id.payment_cash) {
             findViewById(R.id.commission_layout).setVisibility(View.GONE);
             commissionAmountText.setText("0 ₽");
-            totalAmountText.setText(totalPrice + " ₽");
+            totalAmountText.setText(totals.getTotal(CartTotals.PaymentMethod.CASH) + " ₽");
         }
     }
 
-    private void checkStockBeforeCheckout() {
-        if (cartItems.isEmpty()) {
-            Toast.makeText(this, "Корзина пуста", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
-        final int[] processedItems = {0};
-        AtomicBoolean stockAvailable = new AtomicBoolean(true);
-
-        for (CartItem item : cartItems) {
-            String productId = item.getProductId();
-            int requestedQuantity = item.getQuantity();
-
-            db.collection("products").document(productId)
-                    .get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        processedItems[0]++;
-                        if (documentSnapshot.exists()) {
-                            Long currentQuantity = documentSnapshot.getLong("quantity");
-                            if (currentQuantity == null || currentQuantity < requestedQuantity) {
-                                stockAvailable.set(false);
-                                Toast.makeText(this, "Товара '" + item.getName() + "' нет в наличии", Toast.LENGTH_LONG).show();
-                            }
-                        } else {
-                            stockAvailable.set(false);
-                            Toast.makeText(this, "Товар '" + item.getName() + "' не найден", Toast.LENGTH_LONG).show();
-                        }
-
-                        if (processedItems[0] == cartItems.size()) {
-                            if (stockAvailable.get()) {
-                                checkoutOrder();
-                            }
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        processedItems[0]++;
-                        Toast.makeText(this, "Ошибка проверки наличия", Toast.LENGTH_SHORT).show();
-                        Log.e(TAG, "Ошибка Firestore: ", e);
-                    });
-        }
+    private void showCartItems(List<CartItem> items) {
+        cartItems.clear();
+        cartItems.addAll(items);
+        totals = CartTotals.of(cartItems);
+        checkoutAdapter.notifyDataSetChanged();
+        updateUI();
     }
 
     private void checkoutOrder() {
@@ -233,52 +205,132 @@ public class CheckoutActivity extends AppCompatActivity {
             return;
         }
 
-        int totalPrice = calculateTotalPrice(cartItems);
-        int commission = paymentCard.isChecked() ? (int) (totalPrice * 0.05) : 0;
-        int finalPrice = totalPrice + commission;
+        if (cartItems.isEmpty()) {
+            Toast.makeText(this, "Корзина пуста", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        checkoutButton.setEnabled(false);
+        // Отложенные записи корзины должны попасть на сервер раньше транзакции, которая удаляет документы корзины
+        CartManager.getInstance().flushPendingWrites(saved -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (!saved) {
+                // Без сохранённой корзины транзакция удалила бы документы, которые потом перезапишет отложенная запись
+                Log.e(TAG, "Не удалось сохранить корзину перед оформлением заказа");
+                checkoutButton.setEnabled(true);
+                Toast.makeText(this, "Не удалось сохранить корзину, проверьте подключение", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            runCheckoutTransaction(user.getUid(), email);
+        });
+    }
+
+    // Чтение товаров, проверка наличия и цен, списание остатков, заказ, запись в историю и очистка корзины -
+    // одна транзакция: между проверкой и списанием никто не купит тот же товар
+    private void runCheckoutTransaction(String userId, String email) {
+        CartTotals.PaymentMethod paymentMethod = paymentCard.isChecked() ? CartTotals.PaymentMethod.CARD : CartTotals.PaymentMethod.CASH;
+        long totalPrice = totals.getSubtotal();
+        int commission = Math.toIntExact(totals.getCommission(paymentMethod));
+        long finalPrice = totals.getTotal(paymentMethod);
+        List<CartItem> orderedItems = new ArrayList<>(cartItems);
+
+        DocumentReference orderRef = db.collection("orders").document();
+        String orderId = orderRef.getId();
+        DocumentReference historyRef = db.collection("users").document(userId)
+                .collection("orders_history").document(orderId);
 
         Map<String, Object> orderData = new HashMap<>();
-        orderData.put("userId", user.getUid());
+        orderData.put("userId", userId);
         orderData.put("email", email);
         orderData.put("timestamp", FieldValue.serverTimestamp());
-        orderData.put("items", new ArrayList<>(cartItems));
+        orderData.put("items", orderedItems);
         orderData.put("totalPrice", totalPrice);
         orderData.put("commission", commission);
         orderData.put("finalPrice", finalPrice);
-        orderData.put("paymentMethod", paymentCard.isChecked() ? "card" : "cash");
-
-        WriteBatch batch = db.batch();
-
-        for (CartItem item : cartItems) {
-            String productId = item.getProductId();
-            int orderedQuantity = item.getQuantity();
-            batch.update(db.collection("products").document(productId),
-                    "quantity", FieldValue.increment(-orderedQuantity));
-        }
+        orderData.put("paymentMethod", paymentMethod.getId());
+
+        Map<String, Object> historyData = new HashMap<>();
+        historyData.put("orderId", orderId);
+        historyData.put("email", email);
+        historyData.put("timestamp", FieldValue.serverTimestamp());
+        historyData.put("items", orderedItems);
+        historyData.put("subtotal", totalPrice);
+        historyData.put("commission", commission);
+        historyData.put("totalWithCommission", finalPrice);
+        historyData.put("paymentMethod", paymentMethod.getId());
+
+        db.runTransaction(transaction -> {
+            // Все чтения транзакции выполняются до записей
+            List<DocumentSnapshot> products = new ArrayList<>();
+            for (CartItem item : orderedItems) {
+                products.add(transaction.get(db.collection("products").document(item.getProductId())));
+            }
+            // Для шардированных товаров читаются и шарды остатка (StockShards), тоже до первой записи
+            List<StockShards.Decrement> decrements = new ArrayList<>();
+            for (int i = 0; i < orderedItems.size(); i++) {
+                CartItem item = orderedItems.get(i);
+                DocumentSnapshot product = products.get(i);
+                if (!product.exists()) {
+                    throw new FirebaseFirestoreException("Товар '" + item.getName() + "' не найден",
+                            FirebaseFirestoreException.Code.FAILED_PRECONDITION);
+                }
+                Long price = product.getLong("price");
+                if (price == null || price != item.getPrice()) {
+                    throw new FirebaseFirestoreException("Цена товара '" + item.getName() + "' изменилась",
+                            FirebaseFirestoreException.Code.FAILED_PRECONDITION);
+                }
+                StockShards.Decrement decrement = StockShards.planDecrement(transaction, product, item.getQuantity());
+                if (decrement == null) {
+                    throw new FirebaseFirestoreException("Товара '" + item.getName() + "' нет в наличии",
+                            FirebaseFirestoreException.Code.FAILED_PRECONDITION);
+                }
+                decrements.add(decrement);
+            }
+            for (StockShards.Decrement decrement : decrements) {
+                decrement.apply(transaction);
+            }
+            transaction.set(orderRef, orderData);
+            transaction.set(historyRef, historyData);
+            for (CartItem item : orderedItems) {
+                transaction.delete(db.collection("users").document(userId).collection("cart").document(item.getProductId()));
+            }
+            return null;
+        }).addOnSuccessListener(result -> {
+            Log.d(TAG, "Заказ оформлен одной транзакцией: " + orderId + ", товаров: " + orderedItems.size());
+            List<String> productIds = new ArrayList<>();
+            for (CartItem item : orderedItems) {
+                productIds.add(item.getProductId());
+            }
+            CartManager.getInstance().onOrderPlaced(productIds);
+            completeCheckout(orderId, email, commission);
+        }).addOnFailureListener(e -> {
+            Log.e(TAG, "Ошибка оформления заказа: ", e);
+            if (isDestroyed()) {
+                return;
+            }
+            updateCheckoutButtonState(termsCheckbox.isChecked());
+            if (e instanceof FirebaseFirestoreException
+                    && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.FAILED_PRECONDITION) {
+                Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+                refreshCartItems();
+            } else {
+                Toast.makeText(this, "Ошибка создания заказа", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
 
-        db.collection("orders")
-                .add(orderData)
-                .addOnSuccessListener(documentReference -> {
-                    String orderId = documentReference.getId();
-                    batch.commit()
-                            .addOnSuccessListener(aVoid -> {
-                                Log.d(TAG, "Количество товаров обновлено");
-                                completeCheckout(orderId, email, commission);
-                            })
-                            .addOnFailureListener(e -> {
-                                Log.e(TAG, "Ошибка обновления товаров: ", e);
-                                Toast.makeText(this, "Ошибка при обновлении товаров", Toast.LENGTH_SHORT).show();
-                            });
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Ошибка создания заказа: ", e);
-                    Toast.makeText(this, "Ошибка создания заказа", Toast.LENGTH_SHORT).show();
-                });
+    // После отказа транзакции цены и остатки корзины перечитываются, чтобы пользователь увидел актуальную сумму
+    private void refreshCartItems() {
+        CartManager.getInstance().revalidateCart(validation -> {
+            if (!isDestroyed()) {
+                showCartItems(CartManager.getInstance().getCartItems());
+            }
+        });
     }
 
     private void completeCheckout(String orderId, String email, int commission) {
-        CartManager.getInstance().removeAllFromCart();
-
         Intent resultIntent = new Intent();
         resultIntent.putExtra("order_id", orderId);
         resultIntent.putExtra("email", email);
@@ -290,19 +342,4 @@ public class CheckoutActivity extends AppCompatActivity {
         finish();
     }
 
-    private int calculateTotalItems(List<CartItem> items) {
-        int totalItems = 0;
-        for (CartItem item : items) {
-            totalItems += item.getQuantity();
-        }
-        return totalItems;
-    }
-
-    private int calculateTotalPrice(List<CartItem> items) {
-        int totalPrice = 0;
-        for (CartItem item : items) {
-            totalPrice += item.getTotalPrice();
-        }
-        return totalPrice;
-    }
 }
\ No newline at end of file
@@ -41,7 +41,7 @@ import java.util.List;
  *
  * Логика:
  * - Товары отображаются с информацией о названии, количестве и общей стоимости.
- * - Используется Glide для загрузки изображений с поддержкой плейсхолдера.
+ * - Используется Glide для загрузки изображений с поддержкой плейсхолдера; изображение уменьшается до размера в разметке.
  * - Клик на изображение товара открывает экран с деталями товара (ProductDetailsActivity).
  */
 
@@ -73,10 +73,14 @@ public class CheckoutAdapter extends RecyclerView.Adapter<CheckoutAdapter.Checko
         holder.itemName.setText(item.getName());
         holder.itemTotalPrice.setText(item.getTotalPrice() + " ₽");
         holder.itemQuantity.setText("Количество: " + item.getQuantity());
+        ListImageSize imageSize = ListImageSize.forCartItem(holder.itemView.getContext());
         Glide.with(holder.itemView.getContext())
                 .load(item.getImageUrl())
                 .placeholder(R.drawable.ic_placeholder)
                 .error(R.drawable.ic_placeholder)
+                .apply(FactorioGlideModule.THUMBNAIL_OPTIONS)
+                .override(imageSize.getWidth(), imageSize.getHeight())
+                .centerCrop()
                 .into(holder.itemImage);
     }
 
@@ -0,0 +1,52 @@
+package com.example.factorio;
+
+import android.app.ActivityManager;
+import android.app.Application;
+
+import com.bumptech.glide.Glide;
+
+/**
+ * FactorioApplication - класс приложения, инициализирующий общие компоненты до открытия первого экрана.
+ *
+ * Методы:
+ * - onCreate(): Открывает локальный каталог (CatalogStore), синхронно восстанавливает корзину из CartJournal
+ *   (CartManager.start()), загружает из каталога остатки товаров (StockCache),
+ *   запускает синхронизацию каталога с Firestore (CatalogSync) и заготовку карточек товаров (ProductViewPool).
+ * - onTrimMemory(int): Записывает отложенные изменения корзины, когда приложение уходит в фон, и очищает кэш
+ *   изображений в памяти, когда приложение уходит в фон или системе не хватает памяти.
+ *
+ * Логика:
+ * - Инициализация выполняется здесь, а не в MainActivity, так как после восстановления процесса
+ *   первым может открыться любой экран, читающий каталог с диска.
+ * - Glide сам уменьшает свои кэши при нехватке памяти; здесь кэш памяти очищается полностью, как только интерфейс
+ *   скрыт (миниатюры быстро восстанавливаются из дискового кэша), а на устройствах с малым объёмом памяти - уже при
+ *   TRIM_MEMORY_RUNNING_LOW, не дожидаясь завершения процесса.
+ */
+
+public class FactorioApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        CatalogStore.init(this);
+        CartJournal.init(this);
+        CartManager.getInstance().start();
+        StockCache.getInstance().load();
+        CatalogSync.getInstance().start();
+        ProductViewPool.init(this);
+        ProductViewPool.getInstance().preinflate(ProductViewPool.DEFAULT_PREINFLATE_COUNT);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            CartManager.getInstance().flushPendingWrites();
+        }
+        ActivityManager activityManager = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+        boolean lowRam = activityManager != null && activityManager.isLowRamDevice();
+        if (level >= TRIM_MEMORY_UI_HIDDEN || (lowRam && level >= TRIM_MEMORY_RUNNING_LOW)) {
+            Glide.get(this).clearMemory();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,82 @@
+package com.example.factorio;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
+import com.bumptech.glide.load.resource.bitmap.DownsampleStrategy;
+import com.bumptech.glide.module.AppGlideModule;
+import com.bumptech.glide.request.RequestOptions;
+
+/**
+ * FactorioGlideModule - настройка Glide для всего приложения: бюджет памяти, дисковый кэш и параметры декодирования.
+ *
+ * Основные функции:
+ * - Явные размеры кэша памяти, пула Bitmap и дискового кэша с уменьшенным бюджетом для устройств с малым объёмом памяти.
+ * - Параметры декодирования для миниатюр в списках и для крупного изображения на экране товара.
+ *
+ * Поля:
+ * - long DISK_CACHE_SIZE, LOW_RAM_DISK_CACHE_SIZE: Размер дискового кэша изображений.
+ * - RequestOptions THUMBNAIL_OPTIONS: Миниатюры в списках (item_product, item_category, item_cart, item_checkout).
+ * - RequestOptions DETAIL_OPTIONS: Изображение товара в ProductDetailsActivity.
+ *
+ * Методы:
+ * - applyOptions(Context, GlideBuilder): Задаёт размеры кэшей.
+ * - isManifestParsingEnabled(): Отключает поиск модулей в манифесте (устаревший способ подключения).
+ *
+ * Логика:
+ * - Миниатюры декодируются в RGB_565 (2 байта на пиксель вместо 4; изображения с прозрачностью Glide
+ *   всё равно декодирует в ARGB_8888). Стратегию уменьшения миниатюрам задаёт преобразование в адаптере:
+ *   centerCrop() выбирает CENTER_OUTSIDE, fitCenter() - FIT_CENTER, и вызванное после apply() оно заменило бы
+ *   стратегию из THUMBNAIL_OPTIONS. Вместе с override(ListImageSize) это уменьшает даже очень большие
+ *   изображения каталога при декодировании до размера карточки.
+ * - Изображение на экране товара декодируется в ARGB_8888 и уменьшается до размера, достаточного,
+ *   чтобы заполнить ImageView (CENTER_OUTSIDE, как требует centerCrop).
+ * - На устройствах с малым объёмом памяти кэш памяти рассчитан на один экран вместо двух, а доля памяти
+ *   приложения под изображения меньше; кэши дополнительно очищаются в FactorioApplication.onTrimMemory().
+ */
+
+@GlideModule
+public class FactorioGlideModule extends AppGlideModule {
+    private static final String TAG = "FactorioGlideModule";
+    public static final long DISK_CACHE_SIZE = 100L * 1024 * 1024;
+    public static final long LOW_RAM_DISK_CACHE_SIZE = 40L * 1024 * 1024;
+
+    public static final RequestOptions THUMBNAIL_OPTIONS = new RequestOptions()
+            .format(DecodeFormat.PREFER_RGB_565);
+
+    public static final RequestOptions DETAIL_OPTIONS = new RequestOptions()
+            .format(DecodeFormat.PREFER_ARGB_8888)
+            .downsample(DownsampleStrategy.CENTER_OUTSIDE);
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean lowRam = activityManager != null && activityManager.isLowRamDevice();
+
+        MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context)
+                .setMemoryCacheScreens(lowRam ? 1 : 2)
+                .setBitmapPoolScreens(lowRam ? 1 : 2)
+                .setMaxSizeMultiplier(lowRam ? 0.25f : 0.33f)
+                .build();
+        builder.setMemoryCache(new LruResourceCache(calculator.getMemoryCacheSize()));
+        builder.setBitmapPool(new LruBitmapPool(calculator.getBitmapPoolSize()));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, lowRam ? LOW_RAM_DISK_CACHE_SIZE : DISK_CACHE_SIZE));
+        Log.d(TAG, "Кэш памяти: " + calculator.getMemoryCacheSize() + " байт, пул Bitmap: "
+                + calculator.getBitmapPoolSize() + " байт, малый объём памяти: " + lowRam);
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false;
+    }
+}
\ No newline at end of file
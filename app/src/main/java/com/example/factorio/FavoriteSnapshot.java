@@ -0,0 +1,93 @@
+package com.example.factorio;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FavoriteSnapshot - вспомогательный класс для денормализованной копии товара в документе избранного.
+ *
+ * Основные функции:
+ * - Формирование документа users/{uid}/favorites/{productId} вместе с копией полей товара,
+ *   нужных для карточки в списке избранного.
+ * - Восстановление товара из такой копии, чтобы FavoritesActivity отображала список по одному запросу
+ *   к коллекции избранного, не читая каждый товар отдельно.
+ *
+ * Поля:
+ * - String PRODUCT: Имя поля документа избранного с копией товара.
+ *
+ * Методы:
+ * - toFavoriteData(String, Product): Возвращает данные документа избранного (productId, addedAt и копия товара).
+ * - toSnapshotData(Product): Возвращает только копию полей товара.
+ * - hasSnapshot(DocumentSnapshot): Есть ли в документе избранного копия товара.
+ * - toProduct(DocumentSnapshot): Восстанавливает товар из копии или возвращает null, если копии нет.
+ *
+ * Логика:
+ * - Копия - это данные на момент добавления в избранное: цена и остаток в ней могут устареть,
+ *   поэтому экран избранного показывает её только до прихода актуальных данных из ProductStore,
+ *   локального каталога или Firestore.
+ * - Документы, добавленные до появления копии, читаются как раньше - только по productId.
+ */
+
+public final class FavoriteSnapshot {
+    public static final String PRODUCT = "product";
+
+    private FavoriteSnapshot() {}
+
+    public static Map<String, Object> toFavoriteData(String productId, Product product) {
+        Map<String, Object> favoriteData = new HashMap<>();
+        favoriteData.put("productId", productId);
+        favoriteData.put("addedAt", System.currentTimeMillis());
+        if (product != null) {
+            favoriteData.put(PRODUCT, toSnapshotData(product));
+        }
+        return favoriteData;
+    }
+
+    public static Map<String, Object> toSnapshotData(Product product) {
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("name", product.getName());
+        snapshot.put("description", product.getDescription());
+        snapshot.put("imageUrl", product.getImageUrl());
+        snapshot.put("category", product.getCategory());
+        snapshot.put("price", product.getPrice());
+        snapshot.put("quantity", product.getQuantity());
+        snapshot.put("averageRating", product.getAverageRating());
+        return snapshot;
+    }
+
+    public static boolean hasSnapshot(DocumentSnapshot document) {
+        return document.get(PRODUCT) instanceof Map;
+    }
+
+    public static Product toProduct(DocumentSnapshot document) {
+        String productId = document.getString("productId");
+        Object value = document.get(PRODUCT);
+        if (productId == null || !(value instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> snapshot = (Map<?, ?>) value;
+        Product product = new Product();
+        product.setId(productId);
+        product.setName(getString(snapshot, "name"));
+        product.setDescription(getString(snapshot, "description"));
+        product.setImageUrl(getString(snapshot, "imageUrl"));
+        product.setCategory(getString(snapshot, "category"));
+        product.setPrice(getNumber(snapshot, "price").intValue());
+        product.setQuantity(getNumber(snapshot, "quantity").intValue());
+        product.setAverageRating(getNumber(snapshot, "averageRating").doubleValue());
+        return product;
+    }
+
+    private static String getString(Map<?, ?> snapshot, String key) {
+        Object value = snapshot.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    // Firestore возвращает целые числа как Long, дробные - как Double
+    private static Number getNumber(Map<?, ?> snapshot, String key) {
+        Object value = snapshot.get(key);
+        return value instanceof Number ? (Number) value : 0;
+    }
+}
\ No newline at end of file
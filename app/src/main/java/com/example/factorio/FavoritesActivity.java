@@ -10,15 +10,23 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * FavoritesActivity - активность для отображения списка избранных товаров.
@@ -35,33 +43,52 @@ import java.util.Map;
  * - List<Product> favoritesList: Список избранных товаров.
  * - FirebaseFirestore db: Ссылка на Firestore для работы с данными.
  * - FirebaseAuth auth: Ссылка на FirebaseAuth для проверки текущего пользователя.
- * - Map<String, String> categoryNames: Карта для хранения названий категорий по их ID.
+ * - int ID_QUERY_CHUNK_SIZE: Сколько ID помещается в один запрос whereIn (ограничение Firestore - 30).
+ * - int MAX_BATCH_WRITES: Максимум операций в одном WriteBatch.
+ * - boolean favoritesRequested: Запрошен ли список избранного (после загрузки категорий).
  *
  * Методы:
  * - onCreate(Bundle): Инициализация активности, настройка интерфейса и загрузка данных.
- * - onDestroy(): Удаляет слушатели изменений корзины при завершении активности.
- * - onCartChanged(List<CartItem>): Обновляет состояние товаров в избранном при изменении корзины.
- * - loadCategories(): Загружает названия категорий из Firestore.
- * - loadFavorites(): Загружает список избранных товаров из Firestore для текущего пользователя.
- * - updateUI(): Обновляет интерфейс в зависимости от состояния списка избранных товаров.
+ * - onDestroy(): Удаляет слушатель изменений категорий при завершении активности.
+ * - onCategoriesChanged(List<Category>): Загружает избранное после загрузки категорий или обновляет названия категорий.
+ * - onCategoriesError(Exception): Загружает избранное без названий категорий, если категории не загрузились.
+ * - loadFavorites(): Загружает список избранного с копиями товаров и обновляет их из ProductStore и локального каталога.
+ * - showFavorites(List<String>, Map<String, Product>): Строит список избранного из известных товаров и уведомляет
+ *   адаптер только об изменившихся позициях, если состав списка не изменился.
+ * - sameProducts(List<Product>, List<Product>): Проверяет, совпадают ли ID товаров двух списков по порядку.
+ * - loadMissingProducts(String, List<String>, Map<String, Product>, List<String>, Set<String>): Загружает из Firestore
+ *   товары, которых нет в локальном каталоге, запросами whereIn по ID.
+ * - saveSnapshots(String, Collection<Product>, Set<String>): Дополняет копией товара старые документы избранного.
+ * - commitSnapshots(WriteBatch, int): Отправляет пакет записи копий.
+ * - addFavorite(Product): Добавляет товар в список избранного с названием категории.
+ * - updateUI(): Переключает список и сообщение о пустом избранном.
  *
  * Логика:
- * - При загрузке активности сначала загружаются категории, а затем избранные товары.
+ * - Названия категорий берутся из общего CategoryRepository; избранные товары загружаются после получения категорий.
  * - Если пользователь не авторизован, активность завершается с уведомлением.
- * - Для каждого избранного товара загружается информация из коллекции "products".
+ * - Список отображается сразу по одному запросу к коллекции избранного: в каждом документе хранится копия товара
+ *   (FavoriteSnapshot), остаток для неё берётся из StockCache.
+ * - Затем копии заменяются актуальными товарами: из ProductStore (уже загруженные другими экранами),
+ *   из локального каталога (CatalogStore), а оставшиеся - из коллекции "products" параллельными запросами
+ *   whereIn(FieldPath.documentId()) по ID_QUERY_CHUNK_SIZE ID вместо чтения каждого товара отдельно.
+ *   Результаты всех запросов применяются к списку один раз, после Tasks.whenAllComplete.
+ * - Товар, не найденный в Firestore, убирается из списка; при ошибке запроса остаётся его копия.
+ * - Документы избранного без копии товара дополняются ею после загрузки товара (пакетами WriteBatch).
  * - Если список избранного пуст, отображается соответствующее сообщение.
- * - Состояние корзины синхронизируется с отображением избранных товаров через CartManager.
+ * - Состояние корзины синхронизируется с отображением избранных товаров самим ProductAdapter через CartManager.
  */
 
-public class FavoritesActivity extends AppCompatActivity implements CartManager.OnCartChangedListener {
+public class FavoritesActivity extends AppCompatActivity implements CategoryRepository.OnCategoriesChangedListener {
     private static final String TAG = "FavoritesActivity";
+    private static final int ID_QUERY_CHUNK_SIZE = 30;
+    private static final int MAX_BATCH_WRITES = 500;
     private RecyclerView favoritesRecyclerView;
     private TextView emptyFavoritesText;
     private ProductAdapter productAdapter;
     private List<Product> favoritesList;
     private FirebaseFirestore db;
     private FirebaseAuth auth;
-    private Map<String, String> categoryNames;
+    private boolean favoritesRequested = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -74,54 +101,42 @@ public class FavoritesActivity extends AppCompatActivity implements CartManager.
         auth = FirebaseAuth.getInstance();
 
         favoritesList = new ArrayList<>();
-        categoryNames = new HashMap<>();
         productAdapter = new ProductAdapter(this, favoritesList);
         favoritesRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+        ProductViewPool.getInstance().attach(favoritesRecyclerView);
         favoritesRecyclerView.setAdapter(productAdapter);
+        productAdapter.attachImagePreloader(favoritesRecyclerView);
 
-        CartManager.getInstance().addOnCartChangedListener(this);
-        loadCategories();
+        CategoryRepository.getInstance().addOnCategoriesChangedListener(this);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        CartManager.getInstance().removeOnCartChangedListener(this);
+        CategoryRepository.getInstance().removeOnCategoriesChangedListener(this);
     }
 
     @Override
-    public void onCartChanged(List<CartItem> cartItems) {
-        Log.d(TAG, "Корзина изменилась, элементов: " + cartItems.size());
-        for (CartItem item : cartItems) {
-            for (int i = 0; i < favoritesList.size(); i++) {
-                if (favoritesList.get(i).getId().equals(item.getProductId())) {
-                    productAdapter.notifyItemChanged(i);
-                    break;
-                }
-            }
+    public void onCategoriesChanged(List<Category> categories) {
+        if (!favoritesRequested) {
+            favoritesRequested = true;
+            loadFavorites();
+            return;
+        }
+        CategoryRepository repository = CategoryRepository.getInstance();
+        for (Product product : favoritesList) {
+            product.setCategoryName(repository.getCategoryName(product.getCategory(), "Без категории"));
         }
+        productAdapter.notifyItemRangeChanged(0, favoritesList.size());
     }
 
-    private void loadCategories() {
-        db.collection("categories")
-                .get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful()) {
-                        categoryNames.clear();
-                        for (QueryDocumentSnapshot document : task.getResult()) {
-                            String name = document.getString("name");
-                            if (name != null) {
-                                categoryNames.put(document.getId(), name);
-                                Log.d(TAG, "Категория загружена: " + name + ", ID: " + document.getId());
-                            }
-                        }
-                        loadFavorites();
-                    } else {
-                        Log.e(TAG, "Ошибка загрузки категорий: ", task.getException());
-                        Toast.makeText(this, "Ошибка загрузки категорий", Toast.LENGTH_SHORT).show();
-                        loadFavorites();
-                    }
-                });
+    @Override
+    public void onCategoriesError(Exception e) {
+        if (!favoritesRequested) {
+            Toast.makeText(this, "Ошибка загрузки категорий", Toast.LENGTH_SHORT).show();
+            favoritesRequested = true;
+            loadFavorites();
+        }
     }
 
     private void loadFavorites() {
@@ -136,55 +151,68 @@ public class FavoritesActivity extends AppCompatActivity implements CartManager.
         db.collection("users").document(userId).collection("favorites")
                 .get()
                 .addOnSuccessListener(snapshot -> {
-                    favoritesList.clear();
-                    if (!snapshot.isEmpty()) {
-                        Log.d(TAG, "Получено избранных: " + snapshot.size());
-                        int totalFavorites = snapshot.size();
-                        int[] loadedCount = {0};
-
-                        for (QueryDocumentSnapshot document : snapshot) {
-                            String productId = document.getString("productId");
-                            if (productId != null) {
-                                db.collection("products").document(productId)
-                                        .get()
-                                        .addOnSuccessListener(productDoc -> {
-                                            if (productDoc.exists()) {
-                                                Product product = productDoc.toObject(Product.class);
-                                                if (product != null) {
-                                                    product.setId(productId);
-                                                    product.setFavorite(true);
-                                                    String categoryId = product.getCategory();
-                                                    String categoryName = categoryNames.getOrDefault(categoryId, "Без категории");
-                                                    product.setCategoryName(categoryName);
-                                                    Long quantity = productDoc.getLong("quantity");
-                                                    product.setQuantity(quantity != null ? quantity.intValue() : 0);
-                                                    favoritesList.add(product);
-                                                    Log.d(TAG, "Добавлен товар: " + product.getName() + ", ID: " + productId);
-                                                }
-                                            }
-                                            loadedCount[0]++;
-                                            if (loadedCount[0] == totalFavorites) {
-                                                updateUI();
-                                            }
-                                        })
-                                        .addOnFailureListener(ex -> {
-                                            Log.e(TAG, "Ошибка загрузки товара " + productId + ": ", ex);
-                                            loadedCount[0]++;
-                                            if (loadedCount[0] == totalFavorites) {
-                                                updateUI();
-                                            }
-                                        });
-                            } else {
-                                loadedCount[0]++;
-                                if (loadedCount[0] == totalFavorites) {
-                                    updateUI();
-                                }
-                            }
+                    List<String> productIds = new ArrayList<>();
+                    Map<String, Product> knownProducts = new HashMap<>();
+                    Set<String> withoutSnapshot = new HashSet<>();
+                    for (QueryDocumentSnapshot document : snapshot) {
+                        String productId = document.getString("productId");
+                        if (productId == null) {
+                            continue;
                         }
-                    } else {
+                        productIds.add(productId);
+                        Product snapshotProduct = FavoriteSnapshot.toProduct(document);
+                        if (snapshotProduct != null) {
+                            snapshotProduct.setQuantity(StockCache.getInstance()
+                                    .getAvailableQuantity(productId, snapshotProduct.getQuantity()));
+                            knownProducts.put(productId, snapshotProduct);
+                        } else {
+                            withoutSnapshot.add(productId);
+                        }
+                    }
+                    Log.d(TAG, "Получено избранных: " + productIds.size() + ", с копией товара: " + knownProducts.size());
+                    if (productIds.isEmpty()) {
+                        favoritesList.clear();
+                        productAdapter.notifyDataSetChanged();
                         Log.d(TAG, "Список избранного пуст");
                         updateUI();
+                        return;
+                    }
+                    // Копии из документов избранного отображаются сразу, товары из ProductStore заменяют их
+                    Map<String, Product> cachedProducts = ProductStore.getInstance().getAll(productIds);
+                    knownProducts.putAll(cachedProducts);
+                    showFavorites(productIds, knownProducts);
+                    updateUI();
+                    saveSnapshots(userId, cachedProducts.values(), withoutSnapshot);
+
+                    List<String> notCachedIds = new ArrayList<>();
+                    for (String productId : productIds) {
+                        if (!cachedProducts.containsKey(productId)) {
+                            notCachedIds.add(productId);
+                        }
                     }
+                    if (notCachedIds.isEmpty()) {
+                        Log.d(TAG, "Все избранные товары найдены в ProductStore");
+                        return;
+                    }
+                    CatalogStore.getInstance().loadProductsByIds(notCachedIds, storedProducts -> {
+                        if (isDestroyed()) {
+                            return;
+                        }
+                        knownProducts.putAll(storedProducts);
+                        showFavorites(productIds, knownProducts);
+                        updateUI();
+                        saveSnapshots(userId, storedProducts.values(), withoutSnapshot);
+
+                        List<String> missingIds = new ArrayList<>();
+                        for (String productId : notCachedIds) {
+                            if (!storedProducts.containsKey(productId)) {
+                                missingIds.add(productId);
+                            }
+                        }
+                        Log.d(TAG, "Из памяти: " + cachedProducts.size() + ", из локального каталога: " + storedProducts.size()
+                                + ", из Firestore: " + missingIds.size());
+                        loadMissingProducts(userId, productIds, knownProducts, missingIds, withoutSnapshot);
+                    });
                 })
                 .addOnFailureListener(e -> {
                     Log.e(TAG, "Ошибка загрузки избранного: ", e);
@@ -192,8 +220,131 @@ public class FavoritesActivity extends AppCompatActivity implements CartManager.
                 });
     }
 
+    // Список строится заново в порядке productIds из товаров, найденных в knownProducts. Если состав списка
+    // не изменился (копии заменены актуальными товарами), обновляются только позиции с другим объектом товара
+    private void showFavorites(List<String> productIds, Map<String, Product> knownProducts) {
+        List<Product> previous = new ArrayList<>(favoritesList);
+        favoritesList.clear();
+        for (String productId : productIds) {
+            Product product = knownProducts.get(productId);
+            if (product != null) {
+                addFavorite(product);
+            }
+        }
+        if (!sameProducts(previous, favoritesList)) {
+            productAdapter.notifyDataSetChanged();
+            return;
+        }
+        for (int i = 0; i < favoritesList.size(); i++) {
+            if (previous.get(i) != favoritesList.get(i)) {
+                productAdapter.notifyItemChanged(i);
+            }
+        }
+    }
+
+    private static boolean sameProducts(List<Product> previous, List<Product> current) {
+        if (previous.size() != current.size()) {
+            return false;
+        }
+        for (int i = 0; i < current.size(); i++) {
+            if (!previous.get(i).getId().equals(current.get(i).getId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Товары, которых нет ни в памяти, ни в локальном каталоге, читаются запросами whereIn по ID документов
+    // (до ID_QUERY_CHUNK_SIZE ID в запросе); запросы выполняются параллельно, а список обновляется один раз,
+    // когда завершатся все
+    private void loadMissingProducts(String userId, List<String> productIds, Map<String, Product> knownProducts,
+                                     List<String> missingIds, Set<String> withoutSnapshot) {
+        if (missingIds.isEmpty()) {
+            return;
+        }
+        List<List<String>> chunks = new ArrayList<>();
+        List<Task<QuerySnapshot>> queries = new ArrayList<>();
+        for (int start = 0; start < missingIds.size(); start += ID_QUERY_CHUNK_SIZE) {
+            List<String> chunk = new ArrayList<>(
+                    missingIds.subList(start, Math.min(start + ID_QUERY_CHUNK_SIZE, missingIds.size())));
+            chunks.add(chunk);
+            queries.add(db.collection("products").whereIn(FieldPath.documentId(), chunk).get());
+        }
+        Tasks.whenAllComplete(queries).addOnCompleteListener(task -> {
+            if (isDestroyed()) {
+                return;
+            }
+            List<Product> loadedProducts = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                Task<QuerySnapshot> query = queries.get(i);
+                if (!query.isSuccessful()) {
+                    Log.e(TAG, "Ошибка загрузки товаров избранного: ", query.getException());
+                    continue;
+                }
+                Set<String> loadedIds = new HashSet<>();
+                for (QueryDocumentSnapshot productDoc : query.getResult()) {
+                    Product product = productDoc.toObject(Product.class);
+                    product.setId(productDoc.getId());
+                    Long quantity = productDoc.getLong("quantity");
+                    product.setQuantity(quantity != null ? quantity.intValue() : 0);
+                    ProductStore.getInstance().put(product);
+                    knownProducts.put(product.getId(), product);
+                    loadedProducts.add(product);
+                    loadedIds.add(product.getId());
+                }
+                // Товаров, которых нет в ответе, больше не существует - их копии из избранного не показываются
+                for (String productId : chunks.get(i)) {
+                    if (!loadedIds.contains(productId)) {
+                        knownProducts.remove(productId);
+                    }
+                }
+            }
+            showFavorites(productIds, knownProducts);
+            updateUI();
+            saveSnapshots(userId, loadedProducts, withoutSnapshot);
+        });
+    }
+
+    // Документы избранного, добавленные до появления копии товара, один раз дополняются ею.
+    // update(), а не set(): избранное, удалённое за это время, не должно появиться снова
+    private void saveSnapshots(String userId, Collection<Product> products, Set<String> withoutSnapshot) {
+        if (withoutSnapshot.isEmpty()) {
+            return;
+        }
+        WriteBatch batch = db.batch();
+        int batchSize = 0;
+        for (Product product : products) {
+            if (!withoutSnapshot.remove(product.getId())) {
+                continue;
+            }
+            batch.update(db.collection("users").document(userId).collection("favorites").document(product.getId()),
+                    FavoriteSnapshot.PRODUCT, FavoriteSnapshot.toSnapshotData(product));
+            batchSize++;
+            if (batchSize == MAX_BATCH_WRITES) {
+                commitSnapshots(batch, batchSize);
+                batch = db.batch();
+                batchSize = 0;
+            }
+        }
+        if (batchSize > 0) {
+            commitSnapshots(batch, batchSize);
+        }
+    }
+
+    private void commitSnapshots(WriteBatch batch, int batchSize) {
+        batch.commit()
+                .addOnSuccessListener(aVoid -> Log.d(TAG, "Копии товаров добавлены в избранное: " + batchSize))
+                .addOnFailureListener(e -> Log.e(TAG, "Ошибка сохранения копий товаров в избранном: ", e));
+    }
+
+    private void addFavorite(Product product) {
+        product.setFavorite(true);
+        product.setCategoryName(CategoryRepository.getInstance().getCategoryName(product.getCategory(), "Без категории"));
+        favoritesList.add(product);
+        Log.d(TAG, "Добавлен товар: " + product.getName() + ", ID: " + product.getId());
+    }
+
     private void updateUI() {
-        productAdapter.notifyDataSetChanged();
         if (favoritesList.isEmpty()) {
             favoritesRecyclerView.setVisibility(View.GONE);
             emptyFavoritesText.setVisibility(View.VISIBLE);
@@ -0,0 +1,61 @@
+package com.example.factorio;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+/**
+ * ListImageSize - размер, до которого Glide уменьшает изображения в списках.
+ *
+ * Основные функции:
+ * - Единый размер изображения для загрузки при привязке элемента и для предзагрузки (RecyclerViewPreloader).
+ *
+ * Поля:
+ * - int width, height: Ширина и высота изображения в пикселях.
+ *
+ * Методы:
+ * - forProductCard(Context): Размер изображения карточки товара (item_product).
+ * - forCategoryCard(Context): Размер изображения карточки категории в сетке (item_category).
+ * - forCartItem(Context): Размер изображения товара в корзине и при оформлении заказа (item_cart, item_checkout).
+ * - getWidth(), getHeight(): Возвращают размер в пикселях.
+ *
+ * Логика:
+ * - Ключ кэша Glide включает размер, поэтому предзагруженное изображение попадает в кэш памяти при привязке,
+ *   только если оба запроса используют один и тот же размер; размер представления Glide в этом случае не ждёт.
+ * - Высота берётся из dimens.xml (она же задана в разметке), ширина - из ширины экрана за вычетом отступов карточки.
+ */
+
+public class ListImageSize {
+    private final int width;
+    private final int height;
+
+    private ListImageSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public static ListImageSize forProductCard(Context context) {
+        Resources resources = context.getResources();
+        int width = resources.getDisplayMetrics().widthPixels - 2 * resources.getDimensionPixelSize(R.dimen.list_card_inset);
+        return new ListImageSize(width, resources.getDimensionPixelSize(R.dimen.product_image_height));
+    }
+
+    public static ListImageSize forCategoryCard(Context context) {
+        Resources resources = context.getResources();
+        int width = resources.getDisplayMetrics().widthPixels / CategoryAdapter.SPAN_COUNT
+                - 2 * resources.getDimensionPixelSize(R.dimen.list_card_inset);
+        return new ListImageSize(width, resources.getDimensionPixelSize(R.dimen.category_image_height));
+    }
+
+    public static ListImageSize forCartItem(Context context) {
+        int size = context.getResources().getDimensionPixelSize(R.dimen.cart_item_image_size);
+        return new ListImageSize(size, size);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
\ No newline at end of file
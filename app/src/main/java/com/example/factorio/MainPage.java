@@ -25,9 +25,12 @@ import com.google.firebase.firestore.QueryDocumentSnapshot;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * MainPage - фрагмент главной страницы приложения для отображения списка товаров.
@@ -41,10 +44,20 @@ import java.util.Map;
  * - RecyclerView productsRecyclerView: Список товаров.
  * - ProductAdapter productAdapter: Адаптер для отображения товаров.
  * - FirebaseFirestore db: Ссылка на Firestore для работы с данными.
- * - List<Product> productsList: Полный список товаров.
- * - List<Product> filteredList: Отфильтрованный список товаров.
- * - Map<String, String> categoryNames: Карта для хранения названий категорий по их ID.
+ * - Map<String, Product> productsById: Полный каталог товаров, индексированный по ID.
+ * - List<Product> filteredList: Отфильтрованный и отсортированный список товаров.
+ * - Set<String> favoriteIds: Идентификаторы избранных товаров.
+ * - PagedProductSource pagedSource: Постраничный источник товаров с живыми обновлениями загруженных страниц.
+ * - ProductQueryPlanner queryPlanner: Планировщик, переносящий фильтры и сортировку в запрос Firestore.
+ * - boolean productsStarted: Запущена ли загрузка товаров.
+ * - boolean showingStoredProducts: Отображаются ли товары из локального каталога до прихода первой страницы.
+ * - int storedProductsRequest: Номер последнего чтения локального каталога (устаревшие результаты отбрасываются).
+ * - boolean categoriesLoaded: Загружены ли названия категорий (CategoryRepository).
  * - String currentQuery: Текущий поисковый запрос.
+ * - String[] queryTokens: Нормализованные слова текущего запроса.
+ * - ProductSearchIndex searchIndex: Префиксный индекс названий товаров.
+ * - ProductSearchPipeline searchPipeline: Фоновый конвейер поиска, фильтрации и сортировки.
+ * - List<Product> catalogSnapshot: Неизменяемая копия каталога для фонового потока (сбрасывается при изменениях).
  * - boolean inStockFilter: Фильтр "В наличии".
  * - String priceSort: Параметр сортировки по цене ("asc", "desc", "none").
  * - String quantitySort: Параметр сортировки по количеству ("asc", "desc", "none").
@@ -53,27 +66,51 @@ import java.util.Map;
  * Методы:
  * - onCreateView(LayoutInflater, ViewGroup, Bundle): Инициализация интерфейса и загрузка данных.
  * - onActivityResult(int, int, Intent): Обработка результатов фильтрации, сортировки и изменений избранного.
- * - onResume(): Загрузка товаров при возвращении к фрагменту.
- * - onDestroyView(): Удаление слушателей изменений корзины при уничтожении фрагмента.
- * - onCartChanged(List<CartItem>): Обработка изменений корзины.
+ * - onResume(): Обновление избранного при возвращении к фрагменту.
+ * - onDestroyView(): Удаление слушателя изменений категорий и остановка конвейера поиска при уничтожении фрагмента.
+ * - onCategoriesChanged(List<Category>): Запускает загрузку товаров после загрузки категорий или обновляет их названия.
+ * - onCategoriesError(Exception): Сообщает об ошибке загрузки категорий.
  * - openFilterSortActivity(): Открывает активность для настройки фильтров и сортировки.
- * - loadCategories(): Загружает категории из Firestore.
  * - loadProductsFromFirestore(): Загружает товары из Firestore.
- * - fetchProducts(List<String>): Загружает товары с учетом избранного.
+ * - fetchProducts(): Запускает постраничную загрузку товаров или обновляет избранное у уже загруженных.
+ * - startProducts(): Строит план запроса для текущих фильтров и перезапускает постраничную загрузку.
+ * - showStoredProducts(): Отображает первую страницу из локального каталога (CatalogStore) с текущими фильтрами.
+ * - onPageChanged(List<CatalogStream.Change>): Применяет изменения загруженных страниц к каталогу.
+ * - applyProductChange(CatalogStream.Change): Применяет одно изменение документа к каталогу и списку.
+ * - toProduct(QueryDocumentSnapshot): Преобразует документ в Product с избранным и категорией и сохраняет его в ProductStore.
  * - searchProducts(String): Выполняет поиск товаров по запросу.
  * - updateFavoriteStatus(String, boolean): Обновляет статус избранного для товара.
  * - addToCart(Product): Добавляет товар в корзину.
- * - getProductPositionById(String): Возвращает позицию товара в filteredList по его ID.
- * - applyFiltersAndSort(): Применяет текущие фильтры и сортировку к списку товаров.
+ * - findPosition(Product): Находит позицию товара в filteredList двоичным поиском.
+ * - matchesFilters(Product): Проверяет товар на соответствие поиску и фильтрам.
+ * - buildFilter(): Возвращает предикат для текущих фильтров наличия и рейтинга.
+ * - buildComparator(): Возвращает компаратор для текущей сортировки.
+ * - getCatalogSnapshot(): Возвращает неизменяемую копию каталога, пересоздавая её только после изменений.
+ * - applyFiltersAndSort(): Применяет текущие фильтры и сортировку к списку товаров без задержки.
+ * - submitSearch(boolean): Передаёт текущий запрос и фильтры в конвейер поиска.
+ * - onSearchResults(List<Product>): Публикует результат конвейера в адаптер.
  *
  * Логика:
  * - Товары загружаются из Firestore и отображаются в списке.
+ * - Названия категорий берутся из общего CategoryRepository, поэтому фрагмент не загружает категории сам.
+ * - До прихода первой страницы из Firestore отображаются товары из локального каталога (CatalogStore),
+ *   поэтому при запуске и смене фильтров список появляется сразу, без ожидания сети.
+ * - Товары загружаются страницами (PagedProductSource), следующая страница подгружается при прокрутке к концу списка,
+ *   поэтому время первой отрисовки и число чтений не зависят от размера каталога.
+ * - Первая страница строит список целиком, последующие изменения применяются как ADDED/MODIFIED/REMOVED
+ *   с точечными уведомлениями адаптера, поэтому стоимость обновления зависит от размера изменения, а не каталога.
+ * - Фильтры и сортировка из FilterSortActivity переносятся в запрос Firestore (ProductQueryPlanner), поэтому
+ *   передаются только подходящие документы; при отсутствии индекса они выполняются в памяти по загруженным страницам.
+ * - Поиск работает по загруженным страницам; если результатов меньше страницы, подгружается следующая.
  * - Пользователь может искать товары, фильтровать их по наличию, рейтингу, а также сортировать по цене или количеству.
+ * - Поиск разрешается через ProductSearchIndex, который строится по первому снимку и обновляется по изменениям.
+ * - Ввод в строке поиска обрабатывается ProductSearchPipeline с задержкой и в фоновом потоке, изменения фильтров - сразу.
  * - Избранные товары синхронизируются с состоянием пользователя.
- * - Корзина обновляется в реальном времени, и фильтры пересчитываются при изменении ее состояния.
+ * - Корзина обновляется в реальном времени самим ProductAdapter: перепривязываются только кнопки количества
+ *   изменившихся товаров, а список и фильтры при изменении корзины не пересчитываются.
  */
 
-public class MainPage extends Fragment implements CartManager.OnCartChangedListener {
+public class MainPage extends Fragment implements CategoryRepository.OnCategoriesChangedListener {
     private static final String TAG = "MainPage";
     private static final int FILTER_SORT_REQUEST = 2;
     private static final int FAVORITE_UPDATE_REQUEST = 1;
@@ -81,10 +118,20 @@ public class MainPage extends Fragment implements CartManager.OnCartChangedListe
     private RecyclerView productsRecyclerView;
     private ProductAdapter productAdapter;
     private FirebaseFirestore db;
-    private List<Product> productsList = new ArrayList<>();
+    private Map<String, Product> productsById = new LinkedHashMap<>();
     private List<Product> filteredList = new ArrayList<>();
-    private Map<String, String> categoryNames;
+    private Set<String> favoriteIds = new HashSet<>();
+    private PagedProductSource pagedSource;
+    private final ProductQueryPlanner queryPlanner = new ProductQueryPlanner();
+    private boolean productsStarted = false;
+    private boolean showingStoredProducts = false;
+    private int storedProductsRequest = 0;
+    private boolean categoriesLoaded = false;
     private String currentQuery = "";
+    private String[] queryTokens = new String[0];
+    private final ProductSearchIndex searchIndex = new ProductSearchIndex();
+    private ProductSearchPipeline searchPipeline;
+    private List<Product> catalogSnapshot;
     private boolean inStockFilter = false;
     private String priceSort = "none";
     private String quantitySort = "none";
@@ -97,19 +144,30 @@ public class MainPage extends Fragment implements CartManager.OnCartChangedListe
         View view = inflater.inflate(R.layout.fragment_main_page, container, false);
 
         db = FirebaseFirestore.getInstance();
-        categoryNames = new HashMap<>();
 
         productsRecyclerView = view.findViewById(R.id.products_recycler_view);
         productsRecyclerView.setLayoutManager(new LinearLayoutManager(getContext(), LinearLayoutManager.VERTICAL, false));
+        ProductViewPool.getInstance().attach(productsRecyclerView);
         productAdapter = new ProductAdapter(getContext(), filteredList);
         productsRecyclerView.setAdapter(productAdapter);
+        productAdapter.attachImagePreloader(productsRecyclerView);
+        searchPipeline = new ProductSearchPipeline(searchIndex, this::onSearchResults);
+        productsRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0 && pagedSource != null) {
+                    pagedSource.maybeLoadMore(recyclerView);
+                }
+            }
+        });
+        productsStarted = false;
+        categoriesLoaded = false;
 
         MaterialButton filterButton = view.findViewById(R.id.filter_button);
         filterButton.setOnClickListener(v -> openFilterSortActivity());
 
-        CartManager.getInstance().addOnCartChangedListener(this);
-
-        loadCategories();
+        CategoryRepository.getInstance().addOnCategoriesChangedListener(this);
+        showStoredProducts();
 
         return view;
     }
@@ -126,32 +184,54 @@ public class MainPage extends Fragment implements CartManager.OnCartChangedListe
             priceSort = data.getStringExtra("priceSort");
             quantitySort = data.getStringExtra("quantitySort");
             ratingFilter = data.getDoubleExtra("ratingFilter", 0.0);
-            applyFiltersAndSort();
+            if (productsStarted) {
+                startProducts();
+            } else {
+                applyFiltersAndSort();
+            }
         }
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        loadProductsFromFirestore();
+        if (categoriesLoaded) {
+            loadProductsFromFirestore();
+        }
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
-        CartManager.getInstance().removeOnCartChangedListener(this);
+        CategoryRepository.getInstance().removeOnCategoriesChangedListener(this);
+        if (pagedSource != null) {
+            pagedSource.stop();
+            pagedSource = null;
+        }
+        searchPipeline.shutdown();
+        searchPipeline = null;
     }
 
     @Override
-    public void onCartChanged(List<CartItem> cartItems) {
-        Log.d(TAG, "Корзина изменилась в MainPage, элементов: " + cartItems.size());
-        for (CartItem item : cartItems) {
-            int position = getProductPositionById(item.getProductId());
-            if (position != -1) {
-                productAdapter.notifyItemChanged(position);
-            }
+    public void onCategoriesChanged(List<Category> categories) {
+        if (!categoriesLoaded) {
+            categoriesLoaded = true;
+            loadProductsFromFirestore();
+            return;
+        }
+        // Категория переименована или удалена - обновляем названия загруженных товаров без перезагрузки страниц
+        CategoryRepository repository = CategoryRepository.getInstance();
+        for (Product product : productsById.values()) {
+            product.setCategoryName(repository.getCategoryName(product.getCategory(), "Без категории"));
+        }
+        productAdapter.notifyItemRangeChanged(0, filteredList.size());
+    }
+
+    @Override
+    public void onCategoriesError(Exception e) {
+        if (!categoriesLoaded) {
+            Toast.makeText(getContext(), "Ошибка загрузки категорий", Toast.LENGTH_SHORT).show();
         }
-        applyFiltersAndSort(); // Пересчитываем фильтры для актуального состояния
     }
 
     private void openFilterSortActivity() {
@@ -163,30 +243,9 @@ public class MainPage extends Fragment implements CartManager.OnCartChangedListe
         startActivityForResult(intent, FILTER_SORT_REQUEST);
     }
 
-    private void loadCategories() {
-        db.collection("categories")
-                .get()
-                .addOnCompleteListener(task -> {
-                    if (task.isSuccessful()) {
-                        categoryNames.clear();
-                        for (QueryDocumentSnapshot document : task.getResult()) {
-                            String name = document.getString("name");
-                            if (name != null) {
-                                categoryNames.put(document.getId(), name);
-                                Log.d(TAG, "Категория загружена: " + name + ", ID: " + document.getId());
-                            }
-                        }
-                        loadProductsFromFirestore();
-                    } else {
-                        Log.e(TAG, "Ошибка загрузки категорий: ", task.getException());
-                        Toast.makeText(getContext(), "Ошибка загрузки категорий", Toast.LENGTH_SHORT).show();
-                    }
-                });
-    }
-
     private void loadProductsFromFirestore() {
         FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
-        List<String> favoriteIds = new ArrayList<>();
+        Set<String> favoriteIds = new HashSet<>();
         if (user != null) {
             String userId = user.getUid();
             db.collection("users").document(userId).collection("favorites")
@@ -203,59 +262,208 @@ public class MainPage extends Fragment implements CartManager.OnCartChangedListe
                         } else {
                             Log.e(TAG, "Ошибка загрузки избранного: ", task.getException());
                         }
-                        fetchProducts(favoriteIds);
+                        this.favoriteIds = favoriteIds;
+                        fetchProducts();
                     });
         } else {
-            fetchProducts(favoriteIds);
+            this.favoriteIds = favoriteIds;
+            fetchProducts();
+        }
+    }
+
+    private void fetchProducts() {
+        if (searchPipeline == null) {
+            return;
+        }
+        if (!productsStarted) {
+            productsStarted = true;
+            startProducts();
+            return;
+        }
+        // Страницы уже загружены и обновляются слушателями - достаточно обновить избранное
+        for (Product product : productsById.values()) {
+            boolean isFavorite = favoriteIds.contains(product.getId());
+            if (product.isFavorite() != isFavorite) {
+                updateFavoriteStatus(product.getId(), isFavorite);
+            }
         }
     }
 
-    private void fetchProducts(List<String> favoriteIds) {
-        db.collection("products")
-                .addSnapshotListener((snapshot, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Ошибка загрузки товаров: ", e);
+    private void startProducts() {
+        if (pagedSource != null) {
+            pagedSource.stop();
+        }
+        searchPipeline.cancel();
+        productsById.clear();
+        searchIndex.clear();
+        catalogSnapshot = null;
+        if (!showStoredProducts()) {
+            filteredList.clear();
+            productAdapter.notifyDataSetChanged();
+        }
+
+        ProductQueryPlanner.Plan plan = queryPlanner.plan(db.collection("products"),
+                inStockFilter, ratingFilter, priceSort, quantitySort);
+        pagedSource = new PagedProductSource(plan.query, plan.insertionsAtTop, PagedProductSource.DEFAULT_PAGE_SIZE,
+                new PagedProductSource.OnPageChangedListener() {
+                    @Override
+                    public void onPageChanged(List<CatalogStream.Change> changes) {
+                        MainPage.this.onPageChanged(changes);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        if (queryPlanner.onQueryFailed(plan, e)) {
+                            startProducts();
+                            return;
+                        }
                         Toast.makeText(getContext(), "Ошибка загрузки товаров", Toast.LENGTH_SHORT).show();
+                    }
+                });
+        pagedSource.start();
+    }
+
+    // Возвращает false, если локальный каталог не подходит (например, при активном поиске)
+    private boolean showStoredProducts() {
+        if (queryTokens.length > 0) {
+            return false;
+        }
+        showingStoredProducts = true;
+        int request = ++storedProductsRequest;
+        CatalogStore.getInstance().loadProducts(null, inStockFilter, ratingFilter, priceSort, quantitySort,
+                PagedProductSource.DEFAULT_PAGE_SIZE,
+                products -> {
+                    if (!showingStoredProducts || request != storedProductsRequest || searchPipeline == null) {
                         return;
                     }
-                    if (snapshot != null) {
-                        productsList.clear();
-                        filteredList.clear();
-                        Log.d(TAG, "Получено товаров: " + snapshot.size());
-                        for (QueryDocumentSnapshot document : snapshot) {
-                            Product product = document.toObject(Product.class);
-                            if (product != null) {
-                                product.setId(document.getId());
-                                product.setFavorite(favoriteIds.contains(document.getId()));
-                                String categoryName = categoryNames.getOrDefault(product.getCategory(), "Без категории");
-                                product.setCategoryName(categoryName);
-                                productsList.add(product);
-                                Log.d(TAG, "Товар добавлен: " + product.getName() + ", ID: " + product.getId() + ", Rating: " + product.getAverageRating());
-                            }
-                        }
-                        applyFiltersAndSort();
-                    } else {
-                        Log.w(TAG, "Snapshot равен null");
+                    CategoryRepository categoryRepository = CategoryRepository.getInstance();
+                    for (Product product : products) {
+                        product.setFavorite(favoriteIds.contains(product.getId()));
+                        product.setCategoryName(categoryRepository.getCategoryName(product.getCategory(), "Без категории"));
                     }
+                    filteredList.clear();
+                    filteredList.addAll(products);
+                    productAdapter.notifyDataSetChanged();
+                    Log.d(TAG, "Товаров из локального каталога: " + products.size());
                 });
+        return true;
+    }
+
+    private void onPageChanged(List<CatalogStream.Change> changes) {
+        catalogSnapshot = null;
+        if (productsById.isEmpty()) {
+            // Первая страница: строим список целиком
+            Log.d(TAG, "Получено товаров: " + changes.size());
+            for (CatalogStream.Change change : changes) {
+                if (change.getType() != CatalogStream.Change.Type.REMOVED) {
+                    Product product = toProduct(change.getDocument());
+                    if (product != null) {
+                        productsById.put(product.getId(), product);
+                        searchIndex.put(product);
+                    }
+                }
+            }
+            applyFiltersAndSort();
+            return;
+        }
+        // Последующие изменения: применяем только изменившиеся документы
+        Log.d(TAG, "Изменений в каталоге: " + changes.size());
+        // Результат поиска, посчитанный по старому каталогу, устарел - пересчитаем его после изменений
+        boolean searchInFlight = searchPipeline != null && searchPipeline.cancel();
+        for (CatalogStream.Change change : changes) {
+            applyProductChange(change);
+        }
+        if (searchInFlight) {
+            applyFiltersAndSort();
+        }
+    }
+
+    private void applyProductChange(CatalogStream.Change change) {
+        QueryDocumentSnapshot document = change.getDocument();
+        String productId = document.getId();
+        Product oldProduct = productsById.get(productId);
+        int oldPosition = oldProduct != null ? findPosition(oldProduct) : -1;
+        if (oldPosition != -1) {
+            filteredList.remove(oldPosition);
+        }
+
+        if (change.getType() == CatalogStream.Change.Type.REMOVED) {
+            productsById.remove(productId);
+            searchIndex.remove(productId);
+            ProductStore.getInstance().remove(productId);
+            if (oldPosition != -1) {
+                productAdapter.notifyItemRemoved(oldPosition);
+            }
+            Log.d(TAG, "Товар удалён: " + productId);
+            return;
+        }
+
+        Product product = toProduct(document);
+        if (product == null) {
+            return;
+        }
+        productsById.put(productId, product);
+        searchIndex.put(product);
+
+        if (!matchesFilters(product)) {
+            if (oldPosition != -1) {
+                productAdapter.notifyItemRemoved(oldPosition);
+            }
+            return;
+        }
+
+        int newPosition = Collections.binarySearch(filteredList, product, buildComparator());
+        if (newPosition < 0) {
+            newPosition = -newPosition - 1;
+        }
+        filteredList.add(newPosition, product);
+        if (oldPosition == -1) {
+            productAdapter.notifyItemInserted(newPosition);
+        } else {
+            if (oldPosition != newPosition) {
+                productAdapter.notifyItemMoved(oldPosition, newPosition);
+            }
+            productAdapter.notifyItemChanged(newPosition);
+        }
+        Log.d(TAG, "Товар обновлён: " + product.getName() + ", позиция: " + oldPosition + " -> " + newPosition);
+    }
+
+    @Nullable
+    private Product toProduct(QueryDocumentSnapshot document) {
+        Product product = document.toObject(Product.class);
+        if (product != null) {
+            product.setId(document.getId());
+            product.setFavorite(favoriteIds.contains(document.getId()));
+            String categoryName = CategoryRepository.getInstance().getCategoryName(product.getCategory(), "Без категории");
+            product.setCategoryName(categoryName);
+            ProductStore.getInstance().put(product);
+        }
+        return product;
     }
 
     public void searchProducts(String query) {
         currentQuery = query;
-        applyFiltersAndSort();
+        queryTokens = ProductSearchIndex.tokenize(query);
+        submitSearch(true);
     }
 
     private void updateFavoriteStatus(String productId, boolean isFavorite) {
-        for (Product product : productsList) {
-            if (product.getId().equals(productId)) {
-                product.setFavorite(isFavorite);
-                break;
-            }
+        if (productId == null) {
+            return;
+        }
+        if (isFavorite) {
+            favoriteIds.add(productId);
+        } else {
+            favoriteIds.remove(productId);
+        }
+        Product product = productsById.get(productId);
+        if (product == null) {
+            return;
         }
-        int position = getProductPositionById(productId);
+        product.setFavorite(isFavorite);
+        int position = findPosition(product);
         if (position != -1) {
-            filteredList.get(position).setFavorite(isFavorite);
-            productAdapter.notifyItemChanged(position);
+            productAdapter.notifyItemChanged(position, ProductAdapter.PAYLOAD_FAVORITE);
         }
     }
 
@@ -278,64 +486,57 @@ public class MainPage extends Fragment implements CartManager.OnCartChangedListe
         );
         CartManager.getInstance().addToCart(cartItem);
         Toast.makeText(getContext(), product.getName() + " добавлен в корзину", Toast.LENGTH_SHORT).show();
-        int position = getProductPositionById(product.getId());
-        if (position != -1) {
-            productAdapter.notifyItemChanged(position);
-        }
     }
 
-    private int getProductPositionById(String productId) {
-        for (int i = 0; i < filteredList.size(); i++) {
-            if (filteredList.get(i).getId().equals(productId)) {
-                return i;
-            }
-        }
-        return -1;
+    private int findPosition(Product product) {
+        int position = Collections.binarySearch(filteredList, product, buildComparator());
+        return position >= 0 && filteredList.get(position) == product ? position : -1;
     }
 
-    private void applyFiltersAndSort() {
-        filteredList.clear();
-        String lowerQuery = currentQuery.trim().toLowerCase();
-
-        for (Product product : productsList) {
-            boolean matchesQuery = lowerQuery.isEmpty();
-            if (!lowerQuery.isEmpty()) {
-                String lowerName = product.getName().toLowerCase();
-                String[] words = lowerName.split("\\s+");
-                for (String word : words) {
-                    if (word.startsWith(lowerQuery)) {
-                        matchesQuery = true;
-                        break;
-                    }
-                }
-            }
+    private boolean matchesFilters(Product product) {
+        boolean matchesQuery = queryTokens.length == 0 || searchIndex.matches(product, queryTokens);
+        return matchesQuery && buildFilter().test(product);
+    }
 
-            boolean matchesStock = !inStockFilter || product.getQuantity() > 0;
-            boolean matchesRating = ratingFilter == 0.0 || product.getAverageRating() >= ratingFilter;
+    // Значения фильтров копируются, чтобы предикат можно было безопасно выполнять в фоновом потоке
+    private Predicate<Product> buildFilter() {
+        boolean inStock = inStockFilter;
+        double minRating = ratingFilter;
+        return product -> (!inStock || product.getQuantity() > 0)
+                && (minRating == 0.0 || product.getAverageRating() >= minRating);
+    }
 
-            if (matchesQuery && matchesStock && matchesRating) {
-                filteredList.add(product);
-                Log.d(TAG, "Товар соответствует фильтру: " + product.getName() + ", Rating: " + product.getAverageRating());
-            }
+    private Comparator<Product> buildComparator() {
+        return ProductQueryPlanner.buildComparator(priceSort, quantitySort);
+    }
+
+    private List<Product> getCatalogSnapshot() {
+        if (catalogSnapshot == null) {
+            catalogSnapshot = Collections.unmodifiableList(new ArrayList<>(productsById.values()));
         }
+        return catalogSnapshot;
+    }
 
-        // Сортировка
-        if ("asc".equals(priceSort)) {
-            Collections.sort(filteredList, Comparator.comparingInt(Product::getPrice));
-        } else if ("desc".equals(priceSort)) {
-            Collections.sort(filteredList, (p1, p2) -> Integer.compare(p2.getPrice(), p1.getPrice()));
-        } else if ("asc".equals(quantitySort)) {
-            Collections.sort(filteredList, Comparator.comparingInt(Product::getQuantity));
-        } else if ("desc".equals(quantitySort)) {
-            Collections.sort(filteredList, (p1, p2) -> Integer.compare(p2.getQuantity(), p1.getQuantity()));
-        } else {
-            Collections.sort(filteredList, (p1, p2) -> {
-                if (p1.getTimestamp() == null || p2.getTimestamp() == null) return 0;
-                return p2.getTimestamp().compareTo(p1.getTimestamp());
-            });
+    private void applyFiltersAndSort() {
+        submitSearch(false);
+    }
+
+    private void submitSearch(boolean debounce) {
+        if (searchPipeline == null) {
+            return;
         }
+        String filterKey = inStockFilter + "|" + ratingFilter + "|" + priceSort + "|" + quantitySort;
+        searchPipeline.submit(queryTokens, filterKey, buildFilter(), buildComparator(), getCatalogSnapshot(), debounce);
+    }
 
+    private void onSearchResults(List<Product> results) {
+        showingStoredProducts = false;
+        filteredList.clear();
+        filteredList.addAll(results);
         productAdapter.notifyDataSetChanged();
         Log.d(TAG, "Фильтрация и сортировка завершены, товаров в filteredList: " + filteredList.size());
+        if (pagedSource != null) {
+            pagedSource.maybeLoadMore(productsRecyclerView);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,294 @@
+package com.example.factorio;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * PagedProductSource - постраничный источник товаров с живыми обновлениями только для загруженного окна.
+ *
+ * Основные функции:
+ * - Загрузка товаров страницами через orderBy("timestamp").startAfter(cursor).limit(n).
+ * - Подгрузка следующей страницы, когда RecyclerView приближается к концу списка.
+ * - Отдельная подписка CatalogStream на каждую загруженную страницу, поэтому обновления приходят только для загруженных товаров,
+ *   а одинаковые страницы разных экранов делят один слушатель Firestore.
+ *
+ * Поля:
+ * - int DEFAULT_PAGE_SIZE: Размер страницы по умолчанию.
+ * - int PREFETCH_DISTANCE: За сколько элементов до конца списка начинается загрузка следующей страницы.
+ * - Comparator<Product> NEWEST_FIRST: Порядок товаров, совпадающий с порядком запроса (сначала новые).
+ * - Query baseQuery: Отсортированный запрос без ограничений по страницам.
+ * - boolean insertionsAtTop: Новые документы всегда попадают в начало (сортировка по времени добавления).
+ * - int pageSize: Размер страницы.
+ * - OnPageChangedListener listener: Получатель изменений.
+ * - List<ListenerRegistration> pageListeners: Подписки загруженных страниц.
+ * - Map<String, Integer> ownerPage: ID товара -> номер страницы, от которой он получен последним.
+ * - List<DocumentSnapshot> pageStarts, pageEnds: Курсоры начала (предыдущий документ) и конца каждой страницы.
+ * - DocumentSnapshot lastCursor: Последний документ последней загруженной страницы.
+ * - boolean loading: Загружается ли сейчас страница.
+ * - boolean hasMore: Есть ли ещё страницы.
+ *
+ * Методы:
+ * - start(): Загружает первую страницу.
+ * - loadNextPage(): Загружает следующую страницу, если она есть и не загружается.
+ * - attachTo(RecyclerView): Подгружает следующую страницу при прокрутке к концу списка.
+ * - maybeLoadMore(RecyclerView): Проверяет, близок ли конец списка, и подгружает страницу.
+ * - stop(): Отменяет подписки всех страниц.
+ * - anchorPage(int, List<CatalogStream.Change>): Переподписывает страницу на диапазон между её курсорами
+ *   после сдвига документов за limit(n).
+ * - deliver(int, List<CatalogStream.Change>): Передаёт изменения страницы получателю.
+ *
+ * Интерфейс:
+ * - OnPageChangedListener: Для получения изменений документов и ошибок.
+ *
+ * Логика:
+ * - Курсором следующей страницы служит последний документ первого снимка предыдущей страницы. Снимок из кэша
+ *   тоже завершает загрузку страницы (без сети прокрутка не останавливается), а ответ сервера уточняет курсор
+ *   и hasMore, пока страница остаётся последней.
+ * - Каждая страница читается одним слушателем startAfter(курсор предыдущей).limit(n). Вставка в загруженную страницу
+ *   вытесняет её последние документы за limit(n); только в этом случае страница переподписывается на диапазон
+ *   startAfter(курсор предыдущей).endAt(свой курсор), а удаления из снимка со сдвигом откладываются до первого снимка
+ *   диапазона - так сдвинутый товар не пропадает из списка, а удалённый удаляется. При сортировке по времени
+ *   добавления новые товары попадают только в первую страницу, поэтому так проверяется лишь она.
+ * - Запрос сортируется по timestamp (или по полю сортировки), а Firestore не возвращает документы без этого поля.
+ *   Все экраны записывают timestamp при создании и изменении товара, а функция ensureProductTimestamp
+ *   (functions/index.js) проставляет его товарам, записанным в обход приложения.
+ * - Удаление документа передаётся только от страницы-владельца, так как документ может одновременно входить в две страницы.
+ */
+
+public class PagedProductSource {
+    private static final String TAG = "PagedProductSource";
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int PREFETCH_DISTANCE = 5;
+
+    // Товары без временной метки (ещё не подтверждённые сервером) считаются самыми новыми
+    public static final Comparator<Product> NEWEST_FIRST = (p1, p2) -> {
+        if (p1.getTimestamp() == null) return p2.getTimestamp() == null ? 0 : -1;
+        if (p2.getTimestamp() == null) return 1;
+        return p2.getTimestamp().compareTo(p1.getTimestamp());
+    };
+
+    private final Query baseQuery;
+    private final boolean insertionsAtTop;
+    private final int pageSize;
+    private final OnPageChangedListener listener;
+    private final List<ListenerRegistration> pageListeners = new ArrayList<>();
+    private final Map<String, Integer> ownerPage = new HashMap<>();
+    private final List<DocumentSnapshot> pageStarts = new ArrayList<>();
+    private final List<DocumentSnapshot> pageEnds = new ArrayList<>();
+    private DocumentSnapshot lastCursor;
+    private boolean loading = false;
+    private boolean hasMore = true;
+
+    public PagedProductSource(Query baseQuery, int pageSize, OnPageChangedListener listener) {
+        this(baseQuery.orderBy("timestamp", Query.Direction.DESCENDING), true, pageSize, listener);
+    }
+
+    public PagedProductSource(Query orderedQuery, boolean insertionsAtTop, int pageSize, OnPageChangedListener listener) {
+        this.baseQuery = orderedQuery;
+        this.insertionsAtTop = insertionsAtTop;
+        this.pageSize = pageSize;
+        this.listener = listener;
+    }
+
+    public void start() {
+        stop();
+        lastCursor = null;
+        hasMore = true;
+        loadNextPage();
+    }
+
+    public void loadNextPage() {
+        if (loading || !hasMore) {
+            return;
+        }
+        loading = true;
+        Query pageQuery = lastCursor != null
+                ? baseQuery.startAfter(lastCursor).limit(pageSize)
+                : baseQuery.limit(pageSize);
+        int pageIndex = pageListeners.size();
+        pageStarts.add(lastCursor);
+        pageEnds.add(null);
+        boolean[] settled = {false, false};
+        boolean[] anchored = {false};
+        List<CatalogStream.Change> heldRemovals = new ArrayList<>();
+
+        ListenerRegistration registration = CatalogStream.getInstance().subscribe(pageQuery, new CatalogStream.Listener() {
+            @Override
+            public void onCatalogChanged(List<CatalogStream.Change> changes, QuerySnapshot snapshot) {
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                boolean fromCache = snapshot.getMetadata().isFromCache();
+                // Полная страница после удаления означает, что документ мог лишь сдвинуться за limit(n):
+                // удаление откладывается до снимка страницы, переподписанной на диапазон между курсорами
+                if (settled[0] && !anchored[0] && (pageIndex == 0 || !insertionsAtTop)
+                        && documents.size() == pageSize && hasRemovals(changes)) {
+                    anchored[0] = true;
+                    List<CatalogStream.Change> kept = new ArrayList<>();
+                    for (CatalogStream.Change change : changes) {
+                        (change.getType() == CatalogStream.Change.Type.REMOVED ? heldRemovals : kept).add(change);
+                    }
+                    deliver(pageIndex, kept);
+                    anchorPage(pageIndex, heldRemovals);
+                    return;
+                }
+                deliver(pageIndex, changes);
+                // Страница из кэша тоже снимает флаг загрузки, иначе без сети прокрутка остановится;
+                // ответ сервера уточняет курсор и hasMore, пока страница последняя
+                if (!settled[0] || (!fromCache && !settled[1] && pageIndex == pageListeners.size() - 1)) {
+                    settled[0] = true;
+                    settled[1] = !fromCache;
+                    loading = false;
+                    hasMore = documents.size() == pageSize;
+                    if (!documents.isEmpty()) {
+                        lastCursor = documents.get(documents.size() - 1);
+                        pageEnds.set(pageIndex, lastCursor);
+                    }
+                    Log.d(TAG, "Страница " + pageIndex + " загружена" + (fromCache ? " из кэша" : "")
+                            + ", товаров: " + documents.size() + ", есть ещё: " + hasMore);
+                }
+            }
+
+            @Override
+            public void onCatalogError(Exception e) {
+                Log.e(TAG, "Ошибка загрузки страницы " + pageIndex + ": ", e);
+                if (!settled[0]) {
+                    loading = false;
+                }
+                listener.onError(e);
+            }
+        });
+        pageListeners.add(registration);
+    }
+
+    // Переподписка нужна только после сдвига за limit(n): страница слушает диапазон между курсорами
+    // (последняя страница - без верхней границы). Отложенные удаления передаются для документов,
+    // которых нет в первом снимке диапазона, то есть действительно удалённых или ушедших из него
+    private void anchorPage(int pageIndex, List<CatalogStream.Change> heldRemovals) {
+        DocumentSnapshot pageStart = pageStarts.get(pageIndex);
+        DocumentSnapshot pageEnd = pageEnds.get(pageIndex);
+        Query anchoredQuery = pageStart != null ? baseQuery.startAfter(pageStart) : baseQuery;
+        if (pageEnd != null && (hasMore || pageIndex < pageListeners.size() - 1)) {
+            anchoredQuery = anchoredQuery.endAt(pageEnd);
+        }
+        boolean[] firstSnapshot = {true};
+        ListenerRegistration anchored = CatalogStream.getInstance().subscribe(anchoredQuery, new CatalogStream.Listener() {
+            @Override
+            public void onCatalogChanged(List<CatalogStream.Change> changes, QuerySnapshot snapshot) {
+                if (firstSnapshot[0]) {
+                    firstSnapshot[0] = false;
+                    Set<String> present = new HashSet<>();
+                    for (DocumentSnapshot document : snapshot.getDocuments()) {
+                        present.add(document.getId());
+                    }
+                    List<CatalogStream.Change> all = new ArrayList<>(changes);
+                    for (CatalogStream.Change removal : heldRemovals) {
+                        if (!present.contains(removal.getDocument().getId())) {
+                            all.add(removal);
+                        }
+                    }
+                    deliver(pageIndex, all);
+                    return;
+                }
+                deliver(pageIndex, changes);
+            }
+
+            @Override
+            public void onCatalogError(Exception e) {
+                Log.e(TAG, "Ошибка обновления страницы " + pageIndex + ": ", e);
+                listener.onError(e);
+            }
+        });
+        pageListeners.get(pageIndex).remove();
+        pageListeners.set(pageIndex, anchored);
+        Log.d(TAG, "Страница " + pageIndex + " переподписана на диапазон между курсорами");
+    }
+
+    private static boolean hasRemovals(List<CatalogStream.Change> changes) {
+        for (CatalogStream.Change change : changes) {
+            if (change.getType() == CatalogStream.Change.Type.REMOVED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Документ может оказаться сразу в двух страницах (например, после удаления соседнего товара),
+    // поэтому удаление передаётся дальше только от страницы, которой документ принадлежит
+    private void deliver(int pageIndex, List<CatalogStream.Change> pageChanges) {
+        List<CatalogStream.Change> changes = new ArrayList<>();
+        for (CatalogStream.Change change : pageChanges) {
+            String productId = change.getDocument().getId();
+            if (change.getType() == CatalogStream.Change.Type.REMOVED) {
+                Integer owner = ownerPage.get(productId);
+                if (owner == null || owner != pageIndex) {
+                    continue;
+                }
+                ownerPage.remove(productId);
+            } else {
+                ownerPage.put(productId, pageIndex);
+            }
+            changes.add(change);
+        }
+        if (!changes.isEmpty()) {
+            listener.onPageChanged(changes);
+        }
+    }
+
+    public void attachTo(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0) {
+                    maybeLoadMore(recyclerView);
+                }
+            }
+        });
+    }
+
+    public void maybeLoadMore(RecyclerView recyclerView) {
+        if (loading || !hasMore || recyclerView.getAdapter() == null) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        if (layoutManager == null) {
+            return;
+        }
+        int itemCount = recyclerView.getAdapter().getItemCount();
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (itemCount < pageSize || lastVisible >= itemCount - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+    }
+
+    public void stop() {
+        for (ListenerRegistration registration : pageListeners) {
+            registration.remove();
+        }
+        pageListeners.clear();
+        pageStarts.clear();
+        pageEnds.clear();
+        ownerPage.clear();
+        loading = false;
+    }
+
+    public interface OnPageChangedListener {
+        void onPageChanged(List<CatalogStream.Change> changes);
+
+        void onError(Exception e);
+    }
+}
\ No newline at end of file
@@ -21,9 +21,11 @@ import com.google.firebase.Timestamp;
  * - boolean isFavorite: Статус избранного для продукта.
  * - Timestamp timestamp: Временная метка добавления продукта.
  * - double averageRating: Средний рейтинг продукта.
+ * - int stockShards: Число шардов остатка (0 - остаток хранится в quantity, см. StockShards).
  *
  * Конструкторы:
  * - Product(): Пустой конструктор, необходимый для работы с Firestore.
+ * - Product(Product): Копирует все поля другого продукта (используется ProductStore).
  *
  * Методы:
  * - getId(), setId(String): Получение и установка идентификатора продукта.
@@ -37,6 +39,7 @@ import com.google.firebase.Timestamp;
  * - isFavorite(), setFavorite(boolean): Получение и установка статуса избранного для продукта.
  * - getTimestamp(), setTimestamp(Timestamp): Получение и установка временной метки добавления продукта.
  * - getAverageRating(), setAverageRating(double): Получение и установка среднего рейтинга продукта.
+ * - getStockShards(), setStockShards(int): Получение и установка числа шардов остатка.
  */
 
 public class Product {
@@ -45,9 +48,25 @@ public class Product {
     private boolean isFavorite;
     private Timestamp timestamp;
     private double averageRating; // Новое поле для среднего рейтинга
+    private int stockShards;
 
     public Product() {}
 
+    public Product(Product other) {
+        this.id = other.id;
+        this.name = other.name;
+        this.imageUrl = other.imageUrl;
+        this.description = other.description;
+        this.category = other.category;
+        this.categoryName = other.categoryName;
+        this.price = other.price;
+        this.quantity = other.quantity;
+        this.isFavorite = other.isFavorite;
+        this.timestamp = other.timestamp;
+        this.averageRating = other.averageRating;
+        this.stockShards = other.stockShards;
+    }
+
     public String getId() { return id; }
     public void setId(String id) { this.id = id; }
     public String getName() { return name; }
@@ -70,4 +89,6 @@ public class Product {
     public void setTimestamp(Timestamp timestamp) { this.timestamp = timestamp; }
     public double getAverageRating() { return averageRating; }
     public void setAverageRating(double averageRating) { this.averageRating = averageRating; }
+    public int getStockShards() { return stockShards; }
+    public void setStockShards(int stockShards) { this.stockShards = stockShards; }
 }
\ No newline at end of file
@@ -3,8 +3,8 @@ package com.example.factorio;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
+import android.graphics.drawable.Drawable;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
@@ -14,14 +14,20 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.ListPreloader;
+import com.bumptech.glide.RequestBuilder;
+import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
+import com.bumptech.glide.util.FixedPreloadSizeProvider;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.FirebaseFirestore;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,16 +47,29 @@ import java.util.Map;
  * - FirebaseFirestore db: Firestore для взаимодействия с базой данных.
  * - FirebaseAuth auth: FirebaseAuth для проверки текущего пользователя.
  * - Map<String, Integer> cartQuantities: Карта для хранения количества товаров в корзине.
+ * - Map<String, Integer> positionsById: Индекс позиций товаров в productList по id (строится лениво).
+ * - boolean positionsValid: Актуален ли индекс позиций; сбрасывается при любом изменении состава списка.
+ * - Object PAYLOAD_CART: Частичное обновление - изменилось количество товара в корзине.
+ * - Object PAYLOAD_FAVORITE: Частичное обновление - изменился статус избранного.
+ * - int IMAGE_PRELOAD_COUNT: Сколько изображений следующих карточек предзагружается при прокрутке.
+ * - ListImageSize imageSize: Размер изображения карточки для загрузки и предзагрузки.
  *
  * Конструкторы:
  * - ProductAdapter(Context, List<Product>): Инициализация адаптера с контекстом и списком продуктов.
  *
  * Методы:
- * - loadCartItems(): Загружает текущие товары в корзине и обновляет UI.
- * - onCartChanged(List<CartItem>): Обновляет состояние корзины при изменении.
- * - onCreateViewHolder(ViewGroup, int): Создает ViewHolder для элемента списка.
+ * - loadCartItems(): Берёт количество товаров в корзине из текущего состояния CartManager.
+ * - onCartChanged(CartSnapshot, List<CartChange>): Применяет изменения корзины и обновляет карточки только затронутых товаров.
+ * - notifyCartQuantityChanged(String): Перепривязывает кнопки количества одной карточки по id товара.
+ * - positionOf(String): Находит позицию товара по индексу positionsById, при необходимости перестраивая индекс.
+ * - onCreateViewHolder(ViewGroup, int): Создает ViewHolder для элемента списка из карточки ProductViewPool.
+ * - onViewRecycled(ProductViewHolder): Отвязывает обработчики нажатий и изображение перед возвратом карточки в общий пул.
  * - onBindViewHolder(ProductViewHolder, int): Привязывает данные продукта к ViewHolder.
+ * - onBindViewHolder(ProductViewHolder, int, List<Object>): Частичная привязка по PAYLOAD_CART / PAYLOAD_FAVORITE.
  * - updateButtonState(ProductViewHolder, int, Product): Обновляет состояние кнопок и UI для продукта.
+ * - imageRequest(Product): Строит запрос Glide изображения товара (общий для привязки и предзагрузки).
+ * - attachImagePreloader(RecyclerView): Включает предзагрузку изображений следующих карточек при прокрутке.
+ * - getPreloadItems(int), getPreloadRequestBuilder(Product): Реализация ListPreloader.PreloadModelProvider.
  * - getItemCount(): Возвращает количество товаров в списке.
  * - onDetachedFromRecyclerView(RecyclerView): Удаляет слушателя изменений корзины при уничтожении адаптера.
  *
@@ -64,19 +83,39 @@ import java.util.Map;
  * Логика:
  * - Пользователь может добавлять товары в корзину, изменять их количество или удалять.
  * - Если товара нет в наличии, кнопка "Купить" становится неактивной.
+ * - Наличие при нажатии "Купить" и "+" проверяется по StockCache, без чтения документа товара из Firestore.
  * - Избранные товары синхронизируются с Firestore.
  * - Клики на детали продукта перенаправляют на экран с дополнительной информацией.
  * - Обновление UI корзины происходит в реальном времени.
+ * - Изображения загружаются с явным размером (ListImageSize), а следующие IMAGE_PRELOAD_COUNT карточек
+ *   предзагружаются при прокрутке, поэтому при привязке изображение обычно уже в кэше памяти.
+ * - При изменении корзины перепривязываются только карточки товаров, у которых изменилось количество в корзине,
+ *   и только их кнопки количества: изображения, тексты и обработчики кликов не трогаются. ITEM_UPDATED
+ *   без изменения количества пропускается - цена и название карточки берутся из Product.
+ * - CartManager передаёт список изменений (CartChange), поэтому одно нажатие "+" стоит O(1): количество берётся
+ *   из события, а позиция карточки - из индекса positionsById, без сравнения всей корзины со всем каталогом.
+ * - Индекс позиций сбрасывается наблюдателем адаптера при вставке, удалении, перемещении и полной перерисовке;
+ *   частичные обновления PAYLOAD_CART и PAYLOAD_FAVORITE состав списка не меняют и индекс не сбрасывают.
+ * - Экраны со списками товаров сообщают об изменении избранного через notifyItemChanged(position, PAYLOAD_FAVORITE).
+ * - При добавлении в избранное в документ записывается копия товара (FavoriteSnapshot), чтобы экран избранного
+ *   отображался по одному запросу.
  */
 
-public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductViewHolder> implements CartManager.OnCartChangedListener {
+public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductViewHolder>
+        implements CartManager.OnCartChangedListener, ListPreloader.PreloadModelProvider<Product> {
     private static final String TAG = "ProductAdapter";
+    public static final int IMAGE_PRELOAD_COUNT = 4;
     private Context context;
     private List<Product> productList;
     private CartManager cartManager;
     private FirebaseFirestore db;
     private FirebaseAuth auth;
     private Map<String, Integer> cartQuantities;
+    private final Map<String, Integer> positionsById = new HashMap<>();
+    private boolean positionsValid;
+    public static final Object PAYLOAD_CART = new Object();
+    public static final Object PAYLOAD_FAVORITE = new Object();
+    private final ListImageSize imageSize;
 
     public ProductAdapter(Context context, List<Product> productList) {
         this.context = context;
@@ -85,36 +124,130 @@ public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductV
         this.db = FirebaseFirestore.getInstance();
         this.auth = FirebaseAuth.getInstance();
         this.cartQuantities = new HashMap<>();
+        this.imageSize = ListImageSize.forProductCard(context);
+        registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                positionsValid = false;
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount, @Nullable Object payload) {
+                if (payload != PAYLOAD_CART && payload != PAYLOAD_FAVORITE) {
+                    positionsValid = false;
+                }
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                positionsValid = false;
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                positionsValid = false;
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                positionsValid = false;
+            }
+        });
         cartManager.addOnCartChangedListener(this);
         loadCartItems();
     }
 
+    // Корзина уже в памяти CartManager (восстановлена с диска при запуске), сверка с Firestore придёт через onCartChanged
     private void loadCartItems() {
-        cartManager.loadCartFromFirestore(items -> {
-            cartQuantities.clear();
-            for (CartItem item : items) {
-                cartQuantities.put(item.getProductId(), item.getQuantity());
-            }
-            Log.d(TAG, "Корзина загружена в адаптере, элементов: " + items.size());
-            notifyDataSetChanged();
-        });
+        for (CartItem item : cartManager.getCartItems()) {
+            cartQuantities.put(item.getProductId(), item.getQuantity());
+        }
     }
 
     @Override
-    public void onCartChanged(List<CartItem> cartItems) {
-        cartQuantities.clear();
-        for (CartItem item : cartItems) {
-            cartQuantities.put(item.getProductId(), item.getQuantity());
+    public void onCartChanged(CartSnapshot cart, List<CartChange> changes) {
+        for (CartChange change : changes) {
+            if (change.getType() == CartChange.Type.CLEARED) {
+                for (CartItem item : change.getPreviousCart().getItems()) {
+                    cartQuantities.remove(item.getProductId());
+                    notifyCartQuantityChanged(item.getProductId());
+                }
+                continue;
+            }
+            // Карточка показывает цену, название и изображение из Product, а не из корзины: ITEM_UPDATED
+            // с прежним количеством её не касается
+            if (change.getType() == CartChange.Type.ITEM_UPDATED
+                    && change.getPreviousQuantity() == change.getCurrentQuantity()) {
+                continue;
+            }
+            int quantity = change.getCurrentQuantity();
+            Integer previous = quantity > 0
+                    ? cartQuantities.put(change.getProductId(), quantity)
+                    : cartQuantities.remove(change.getProductId());
+            if (previous == null || previous != quantity) {
+                notifyCartQuantityChanged(change.getProductId());
+            }
+        }
+    }
+
+    private void notifyCartQuantityChanged(String productId) {
+        int position = positionOf(productId);
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position, PAYLOAD_CART);
         }
-        Log.d(TAG, "Корзина обновлена в адаптере, элементов: " + cartItems.size());
-        notifyDataSetChanged();
+    }
+
+    // Экраны меняют productList сами и затем сообщают адаптеру - поэтому найденная позиция дополнительно сверяется с id
+    private int positionOf(String productId) {
+        Integer position = positionsValid ? positionsById.get(productId) : null;
+        if (position != null && position < productList.size()
+                && productId.equals(productList.get(position).getId())) {
+            return position;
+        }
+        if (positionsValid && position == null) {
+            return RecyclerView.NO_POSITION;
+        }
+        positionsById.clear();
+        for (int i = 0; i < productList.size(); i++) {
+            positionsById.put(productList.get(i).getId(), i);
+        }
+        positionsValid = true;
+        position = positionsById.get(productId);
+        return position != null ? position : RecyclerView.NO_POSITION;
     }
 
     @NonNull
     @Override
     public ProductViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_product, parent, false);
-        return new ProductViewHolder(view);
+        return new ProductViewHolder(ProductViewPool.getInstance().obtainView(parent));
+    }
+
+    // Карточка возвращается в общий пул ProductViewPool и может достаться другому экрану -
+    // обработчики нажатий не должны удерживать этот адаптер и его Activity
+    @Override
+    public void onViewRecycled(@NonNull ProductViewHolder holder) {
+        holder.detailsButton.setOnClickListener(null);
+        holder.buyButton.setOnClickListener(null);
+        holder.increaseButton.setOnClickListener(null);
+        holder.decreaseButton.setOnClickListener(null);
+        holder.favoriteIcon.setOnClickListener(null);
+        Glide.with(holder.productImage.getContext()).clear(holder.productImage);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ProductViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        Product product = productList.get(position);
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_CART) {
+                updateButtonState(holder, cartQuantities.getOrDefault(product.getId(), 0), product);
+            } else if (payload == PAYLOAD_FAVORITE) {
+                holder.favoriteIcon.setImageResource(product.isFavorite() ? R.drawable.favorite_on : R.drawable.favorite);
+            }
+        }
     }
 
     @Override
@@ -128,11 +261,7 @@ public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductV
         holder.productQuantity.setText("В наличии: " + product.getQuantity());
 
         // Загрузка изображения
-        Glide.with(context)
-                .load(product.getImageUrl())
-                .placeholder(R.drawable.ic_placeholder)
-                .error(R.drawable.ic_placeholder)
-                .into(holder.productImage);
+        imageRequest(product).into(holder.productImage);
 
         // Обновление UI корзины
         Integer cartQuantity = cartQuantities.getOrDefault(product.getId(), 0);
@@ -155,35 +284,25 @@ public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductV
                 Toast.makeText(context, "Товара нет в наличии", Toast.LENGTH_SHORT).show();
                 return;
             }
-            db.collection("products").document(product.getId())
-                    .get()
-                    .addOnSuccessListener(document -> {
-                        if (document.exists()) {
-                            Long quantity = document.getLong("quantity");
-                            int availableQuantity = quantity != null ? quantity.intValue() : 0;
-                            if (availableQuantity > 0) {
-                                CartItem cartItem = new CartItem(
-                                        product.getId(),
-                                        product.getName(),
-                                        product.getPrice(),
-                                        1,
-                                        product.getImageUrl()
-                                );
-                                cartManager.addToCart(cartItem);
-                                Toast.makeText(context, product.getName() + " добавлен в корзину", Toast.LENGTH_SHORT).show();
-                            } else {
-                                Toast.makeText(context, "Товара нет в наличии", Toast.LENGTH_SHORT).show();
-                                product.setQuantity(0);
-                                notifyItemChanged(position);
-                            }
-                        } else {
-                            Toast.makeText(context, "Товар не найден", Toast.LENGTH_SHORT).show();
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        Toast.makeText(context, "Ошибка проверки наличия", Toast.LENGTH_SHORT).show();
-                        Log.e(TAG, "Ошибка Firestore: " + e.getMessage());
-                    });
+            int availableQuantity = StockCache.getInstance().getAvailableQuantity(product.getId(), product.getQuantity());
+            if (availableQuantity > 0) {
+                CartItem cartItem = new CartItem(
+                        product.getId(),
+                        product.getName(),
+                        product.getPrice(),
+                        1,
+                        product.getImageUrl()
+                );
+                cartManager.addToCart(cartItem);
+                Toast.makeText(context, product.getName() + " добавлен в корзину", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(context, "Товара нет в наличии", Toast.LENGTH_SHORT).show();
+                product.setQuantity(0);
+                int currentPosition = holder.getAdapterPosition();
+                if (currentPosition != RecyclerView.NO_POSITION) {
+                    notifyItemChanged(currentPosition);
+                }
+            }
         });
 
         holder.increaseButton.setOnClickListener(v -> {
@@ -193,25 +312,12 @@ public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductV
                 return;
             }
             int currentQuantity = cartQuantities.getOrDefault(product.getId(), 0);
-            db.collection("products").document(product.getId())
-                    .get()
-                    .addOnSuccessListener(document -> {
-                        if (document.exists()) {
-                            Long quantity = document.getLong("quantity");
-                            int availableQuantity = quantity != null ? quantity.intValue() : 0;
-                            if (currentQuantity < availableQuantity) {
-                                cartManager.updateQuantity(product.getId(), currentQuantity + 1);
-                            } else {
-                                Toast.makeText(context, "Нельзя добавить больше, чем есть в наличии", Toast.LENGTH_SHORT).show();
-                            }
-                        } else {
-                            Toast.makeText(context, "Товар не найден", Toast.LENGTH_SHORT).show();
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        Toast.makeText(context, "Ошибка проверки наличия", Toast.LENGTH_SHORT).show();
-                        Log.e(TAG, "Ошибка Firestore: " + e.getMessage());
-                    });
+            int availableQuantity = StockCache.getInstance().getAvailableQuantity(product.getId(), product.getQuantity());
+            if (currentQuantity < availableQuantity) {
+                cartManager.updateQuantity(product.getId(), currentQuantity + 1);
+            } else {
+                Toast.makeText(context, "Нельзя добавить больше, чем есть в наличии", Toast.LENGTH_SHORT).show();
+            }
         });
 
         holder.decreaseButton.setOnClickListener(v -> {
@@ -237,9 +343,7 @@ public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductV
             holder.favoriteIcon.setImageResource(newFavoriteState ? R.drawable.favorite_on : R.drawable.favorite);
             String userId = user.getUid();
             if (newFavoriteState) {
-                Map<String, Object> favoriteData = new HashMap<>();
-                favoriteData.put("productId", product.getId());
-                favoriteData.put("addedAt", System.currentTimeMillis());
+                Map<String, Object> favoriteData = FavoriteSnapshot.toFavoriteData(product.getId(), product);
                 db.collection("users").document(userId).collection("favorites").document(product.getId())
                         .set(favoriteData)
                         .addOnSuccessListener(aVoid -> {
@@ -265,6 +369,36 @@ public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductV
         });
     }
 
+    private RequestBuilder<Drawable> imageRequest(Product product) {
+        return Glide.with(context)
+                .load(product.getImageUrl())
+                .placeholder(R.drawable.ic_placeholder)
+                .error(R.drawable.ic_placeholder)
+                .apply(FactorioGlideModule.THUMBNAIL_OPTIONS)
+                .override(imageSize.getWidth(), imageSize.getHeight())
+                .centerCrop();
+    }
+
+    public void attachImagePreloader(RecyclerView recyclerView) {
+        recyclerView.addOnScrollListener(new RecyclerViewPreloader<>(Glide.with(context), this,
+                new FixedPreloadSizeProvider<>(imageSize.getWidth(), imageSize.getHeight()), IMAGE_PRELOAD_COUNT));
+    }
+
+    @NonNull
+    @Override
+    public List<Product> getPreloadItems(int position) {
+        if (position >= productList.size() || productList.get(position).getImageUrl() == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(productList.get(position));
+    }
+
+    @Nullable
+    @Override
+    public RequestBuilder<?> getPreloadRequestBuilder(@NonNull Product product) {
+        return imageRequest(product);
+    }
+
     private void updateButtonState(ProductViewHolder holder, int cartQuantity, Product product) {
         Log.d(TAG, "Обновление UI для товара: " + product.getName() +
                 ", в корзине: " + cartQuantity + ", в наличии: " + product.getQuantity());
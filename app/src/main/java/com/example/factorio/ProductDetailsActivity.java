@@ -22,13 +22,16 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 /**
  * ProductDetailsActivity - активность для отображения подробной информации о продукте.
@@ -48,14 +51,19 @@ import java.util.Map;
  * - ReviewAdapter reviewAdapter: Адаптер для отображения отзывов.
  * - String productId: Идентификатор текущего продукта.
  * - Product product: Объект продукта с подробной информацией.
+ * - boolean imageShown, String shownImageUrl: Загружено ли изображение и по какому адресу.
  * - int cartQuantity: Локальное состояние количества продукта в корзине.
  * - String currentUserReviewId: Идентификатор текущего отзыва пользователя.
  *
  * Методы:
  * - onCreate(Bundle): Инициализация интерфейса, загрузка данных продукта и отзывов, настройка обработчиков событий.
- * - onDestroy(): Удаляет слушателя изменений корзины при завершении активности.
- * - onCartChanged(List<CartItem>): Обновляет состояние корзины при изменении.
- * - loadProductDetails(): Загружает и отображает информацию о продукте.
+ * - onDestroy(): Удаляет слушателей изменений корзины и категорий при завершении активности.
+ * - onCartChanged(CartSnapshot, List<CartChange>): Обновляет кнопку корзины, если изменение касается этого товара.
+ * - onCategoriesChanged(List<Category>), onCategoriesError(Exception): Обновляют название категории продукта.
+ * - loadProductDetails(): Загружает информацию о продукте из Firestore (или перепроверяет товар из ProductStore).
+ * - loadShardedQuantity(Product): Читает точный остаток шардированного товара суммой шардов (StockShards).
+ * - showProduct(): Отображает название, описание, цену, наличие, изображение и рейтинг продукта.
+ * - showCategoryName(): Отображает название категории продукта из CategoryRepository.
  * - updateAddToCartButton(): Обновляет состояние кнопки добавления в корзину.
  * - loadReviews(): Загружает и отображает список отзывов.
  * - checkUserOrderAndReview(String): Проверяет, покупал ли пользователь продукт, и может ли он оставить отзыв.
@@ -72,10 +80,16 @@ import java.util.Map;
  * - Пользователь может взаимодействовать с продуктом: добавлять в корзину, изменять количество, оставлять отзывы и добавлять в избранное.
  * - Отзывы доступны только после покупки продукта.
  * - Средний рейтинг продукта обновляется при добавлении/удалении отзывов.
- * - Статус избранного синхронизируется с Firestore.
+ * - Статус избранного синхронизируется с Firestore; в документ избранного записывается копия товара (FavoriteSnapshot).
+ * - Если товар уже загружен другим экраном (ProductStore), название, цена и изображение отображаются сразу
+ *   при открытии, а чтение из Firestore только перепроверяет их в фоне.
+ * - Наличие при добавлении в корзину и увеличении количества проверяется по StockCache, без чтения из Firestore.
+ * - Название категории берётся из общего CategoryRepository без отдельного запроса к Firestore;
+ *   если категории ещё не загружены, оно отображается после их загрузки.
  */
 
-public class ProductDetailsActivity extends AppCompatActivity implements CartManager.OnCartChangedListener {
+public class ProductDetailsActivity extends AppCompatActivity implements CartManager.OnCartChangedListener,
+        CategoryRepository.OnCategoriesChangedListener {
     private static final String TAG = "ProductDetailsActivity";
 
     private ImageView productImage;
@@ -93,6 +107,8 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
     private ReviewAdapter reviewAdapter;
     private String productId;
     private Product product;
+    private boolean imageShown = false;
+    private String shownImageUrl;
     private String currentUserReviewId;
     private CartManager cartManager;
     private int cartQuantity; // Локальное состояние корзины
@@ -137,11 +153,16 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
             return;
         }
 
-        cartManager.loadCartFromFirestore(items -> {
-            Log.d(TAG, "Корзина загружена, элементов: " + items.size());
+        // Товар, уже загруженный другим экраном, отображается сразу; loadProductDetails() затем перепроверяет его
+        Product cachedProduct = ProductStore.getInstance().get(productId);
+        if (cachedProduct != null) {
+            product = cachedProduct;
             cartQuantity = cartManager.getItemQuantity(productId);
-            loadProductDetails();
-        });
+            showProduct();
+        }
+
+        cartQuantity = cartManager.getItemQuantity(productId);
+        loadProductDetails();
 
         FirebaseUser user = auth.getCurrentUser();
         if (user != null) {
@@ -164,32 +185,19 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
                 Toast.makeText(this, "Товара нет в наличии", Toast.LENGTH_SHORT).show();
                 return;
             }
-            db.collection("products").document(productId)
-                    .get()
-                    .addOnSuccessListener(document -> {
-                        if (document.exists()) {
-                            Long quantity = document.getLong("quantity");
-                            int availableQuantity = quantity != null ? quantity.intValue() : 0;
-                            if (availableQuantity > 0) {
-                                CartItem cartItem = new CartItem(productId, product.getName(),
-                                        product.getPrice(), 1, product.getImageUrl());
-                                cartManager.addToCart(cartItem);
-                                cartQuantity = 1;
-                                updateAddToCartButton();
-                                Toast.makeText(this, product.getName() + " добавлен в корзину", Toast.LENGTH_SHORT).show();
-                            } else {
-                                Toast.makeText(this, "Товара нет в наличии", Toast.LENGTH_SHORT).show();
-                                product.setQuantity(0);
-                                updateAddToCartButton();
-                            }
-                        } else {
-                            Toast.makeText(this, "Товар не найден", Toast.LENGTH_SHORT).show();
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        Toast.makeText(this, "Ошибка проверки наличия", Toast.LENGTH_SHORT).show();
-                        Log.e(TAG, "Ошибка Firestore: " + e.getMessage());
-                    });
+            int availableQuantity = StockCache.getInstance().getAvailableQuantity(productId, product.getQuantity());
+            if (availableQuantity > 0) {
+                CartItem cartItem = new CartItem(productId, product.getName(),
+                        product.getPrice(), 1, product.getImageUrl());
+                cartManager.addToCart(cartItem);
+                cartQuantity = 1;
+                updateAddToCartButton();
+                Toast.makeText(this, product.getName() + " добавлен в корзину", Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(this, "Товара нет в наличии", Toast.LENGTH_SHORT).show();
+                product.setQuantity(0);
+                updateAddToCartButton();
+            }
         });
 
         increaseButton.setOnClickListener(v -> {
@@ -198,25 +206,14 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
                 return;
             }
             if (product == null) return;
-            db.collection("products").document(productId)
-                    .get()
-                    .addOnSuccessListener(document -> {
-                        if (document.exists()) {
-                            Long quantity = document.getLong("quantity");
-                            int availableQuantity = quantity != null ? quantity.intValue() : 0;
-                            if (cartQuantity < availableQuantity) {
-                                cartManager.updateQuantity(productId, cartQuantity + 1);
-                                cartQuantity++;
-                                updateAddToCartButton();
-                            } else {
-                                Toast.makeText(this, "Нельзя добавить больше, чем есть в наличии", Toast.LENGTH_SHORT).show();
-                            }
-                        }
-                    })
-                    .addOnFailureListener(e -> {
-                        Toast.makeText(this, "Ошибка проверки наличия", Toast.LENGTH_SHORT).show();
-                        Log.e(TAG, "Ошибка Firestore: " + e.getMessage());
-                    });
+            int availableQuantity = StockCache.getInstance().getAvailableQuantity(productId, product.getQuantity());
+            if (cartQuantity < availableQuantity) {
+                cartManager.updateQuantity(productId, cartQuantity + 1);
+                cartQuantity++;
+                updateAddToCartButton();
+            } else {
+                Toast.makeText(this, "Нельзя добавить больше, чем есть в наличии", Toast.LENGTH_SHORT).show();
+            }
         });
 
         decreaseButton.setOnClickListener(v -> {
@@ -254,19 +251,38 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
         });
 
         cartManager.addOnCartChangedListener(this);
+        CategoryRepository.getInstance().addOnCategoriesChangedListener(this);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         cartManager.removeOnCartChangedListener(this);
+        CategoryRepository.getInstance().removeOnCategoriesChangedListener(this);
     }
 
     @Override
-    public void onCartChanged(List<CartItem> cartItems) {
-        Log.d(TAG, "Корзина изменилась, элементов: " + cartItems.size());
-        cartQuantity = cartManager.getItemQuantity(productId);
-        updateAddToCartButton();
+    public void onCartChanged(CartSnapshot cart, List<CartChange> changes) {
+        for (CartChange change : changes) {
+            if (change.getType() == CartChange.Type.CLEARED || productId.equals(change.getProductId())) {
+                cartQuantity = cart.getQuantity(productId);
+                updateAddToCartButton();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onCategoriesChanged(List<Category> categories) {
+        showCategoryName();
+    }
+
+    @Override
+    public void onCategoriesError(Exception e) {
+        if (product != null && product.getCategoryName() == null) {
+            product.setCategoryName("Ошибка загрузки");
+            productCategory.setText("Категория: Ошибка");
+        }
     }
 
     private void loadProductDetails() {
@@ -274,53 +290,22 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
                 .get()
                 .addOnSuccessListener(document -> {
                     if (document.exists()) {
-                        product = document.toObject(Product.class);
-                        if (product != null) {
-                            product.setId(productId);
-                            productName.setText(product.getName() != null ? product.getName() : "Без названия");
-                            productDescription.setText(product.getDescription() != null ? product.getDescription() : "Без описания");
-                            productPrice.setText(String.format("%d руб.", product.getPrice()));
-                            detailQuantity.setText("В наличии: " + product.getQuantity());
-
-                            String imageUrl = product.getImageUrl();
-                            if (imageUrl != null && !imageUrl.isEmpty() && !imageUrl.equals("/1")) {
-                                Glide.with(this)
-                                        .load(imageUrl)
-                                        .placeholder(R.drawable.ic_placeholder)
-                                        .error(R.drawable.ic_placeholder)
-                                        .into(productImage);
-                            } else {
-                                productImage.setImageResource(R.drawable.ic_placeholder);
-                            }
-
-                            double avgRating = product.getAverageRating();
-                            averageRatingValue.setText(String.format("%.1f", avgRating));
-
-                            String category = product.getCategory();
-                            if (category != null && !category.isEmpty()) {
-                                db.collection("categories").document(category)
-                                        .get()
-                                        .addOnSuccessListener(categoryDoc -> {
-                                            String categoryName = categoryDoc.exists() ? categoryDoc.getString("name") : "Без категории";
-                                            product.setCategoryName(categoryName != null ? categoryName : "Без категории");
-                                            productCategory.setText("Категория: " + product.getCategoryName());
-                                        })
-                                        .addOnFailureListener(e -> {
-                                            product.setCategoryName("Ошибка загрузки");
-                                            productCategory.setText("Категория: Ошибка");
-                                        });
-                            } else {
-                                product.setCategoryName("Не указана");
-                                productCategory.setText("Категория: Не указана");
-                            }
-
-                            updateAddToCartButton();
+                        Product loadedProduct = document.toObject(Product.class);
+                        if (loadedProduct != null) {
+                            loadedProduct.setId(productId);
+                            ProductStore.getInstance().put(loadedProduct);
+                            product = loadedProduct;
+                            showProduct();
                             checkFavoriteStatus();
                             loadReviews();
+                            if (loadedProduct.getStockShards() > 0) {
+                                loadShardedQuantity(loadedProduct);
+                            }
                         } else {
                             Toast.makeText(this, "Ошибка: продукт не удалось загрузить", Toast.LENGTH_SHORT).show();
                         }
                     } else {
+                        ProductStore.getInstance().remove(productId);
                         Toast.makeText(this, "Продукт не найден", Toast.LENGTH_SHORT).show();
                     }
                 })
@@ -330,6 +315,65 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
                 });
     }
 
+    // У шардированного товара поле quantity - остаток на момент перераспределения, точный остаток - сумма шардов
+    private void loadShardedQuantity(Product loadedProduct) {
+        StockShards.loadQuantity(productId)
+                .addOnSuccessListener(quantity -> {
+                    if (isDestroyed() || product != loadedProduct) {
+                        return;
+                    }
+                    product.setQuantity(quantity);
+                    StockCache.getInstance().applyQuantities(Collections.singletonMap(productId, quantity), Collections.emptyList());
+                    showProduct();
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Ошибка чтения шардов остатка: ", e));
+    }
+
+    private void showProduct() {
+        productName.setText(product.getName() != null ? product.getName() : "Без названия");
+        productDescription.setText(product.getDescription() != null ? product.getDescription() : "Без описания");
+        productPrice.setText(String.format("%d руб.", product.getPrice()));
+        detailQuantity.setText("В наличии: " + product.getQuantity());
+
+        // При перепроверке товара из кэша изображение загружается заново, только если изменился адрес
+        String imageUrl = product.getImageUrl();
+        if (!imageShown || !Objects.equals(imageUrl, shownImageUrl)) {
+            imageShown = true;
+            shownImageUrl = imageUrl;
+            if (imageUrl != null && !imageUrl.isEmpty() && !imageUrl.equals("/1")) {
+                Glide.with(this)
+                        .load(imageUrl)
+                        .apply(FactorioGlideModule.DETAIL_OPTIONS)
+                        .placeholder(R.drawable.ic_placeholder)
+                        .error(R.drawable.ic_placeholder)
+                        .into(productImage);
+            } else {
+                productImage.setImageResource(R.drawable.ic_placeholder);
+            }
+        }
+
+        double avgRating = product.getAverageRating();
+        averageRatingValue.setText(String.format("%.1f", avgRating));
+
+        showCategoryName();
+
+        updateAddToCartButton();
+    }
+
+    private void showCategoryName() {
+        if (product == null) return;
+
+        String category = product.getCategory();
+        if (category == null || category.isEmpty()) {
+            product.setCategoryName("Не указана");
+        } else if (CategoryRepository.getInstance().isLoaded()) {
+            product.setCategoryName(CategoryRepository.getInstance().getCategoryName(category, "Без категории"));
+        } else {
+            return; // Название появится после загрузки категорий (onCategoriesChanged)
+        }
+        productCategory.setText("Категория: " + product.getCategoryName());
+    }
+
     private void updateAddToCartButton() {
         if (product == null) return;
 
@@ -531,7 +575,7 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
 
     private void updateFirestoreRating(double avgRating) {
         db.collection("products").document(productId)
-                .update("averageRating", avgRating)
+                .update("averageRating", avgRating, CatalogSync.UPDATED_AT, FieldValue.serverTimestamp())
                 .addOnSuccessListener(aVoid -> Log.d(TAG, "Средний рейтинг обновлён: " + avgRating))
                 .addOnFailureListener(e -> Log.e(TAG, "Ошибка обновления рейтинга"));
     }
@@ -587,9 +631,7 @@ public class ProductDetailsActivity extends AppCompatActivity implements CartMan
 
         String userId = user.getUid();
         if (isFavorite) {
-            Map<String, Object> favoriteData = new HashMap<>();
-            favoriteData.put("productId", productId);
-            favoriteData.put("addedAt", System.currentTimeMillis());
+            Map<String, Object> favoriteData = FavoriteSnapshot.toFavoriteData(productId, product);
             db.collection("users").document(userId).collection("favorites").document(productId)
                     .set(favoriteData)
                     .addOnFailureListener(e -> {
@@ -0,0 +1,143 @@
+package com.example.factorio;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ProductQueryPlanner - планировщик запросов каталога по параметрам из FilterSortActivity.
+ *
+ * Основные функции:
+ * - Перенос фильтров "В наличии" и "Рейтинг" в запрос Firestore (whereGreaterThan / whereGreaterThanOrEqualTo).
+ * - Перенос сортировки по цене или количеству в orderBy, чтобы страницы приходили уже в нужном порядке.
+ * - Откат к фильтрации и сортировке в памяти для комбинаций, которые Firestore не смог выполнить.
+ *
+ * Поля:
+ * - Set<String> unsupportedKeys: Комбинации параметров, для которых запрос завершился ошибкой FAILED_PRECONDITION.
+ *
+ * Методы:
+ * - plan(Query, boolean, double, String, String): Строит план запроса для текущих параметров.
+ * - onQueryFailed(Plan, Exception): Помечает комбинацию как неподдерживаемую, если для неё нет составного индекса.
+ * - buildComparator(String, String): Возвращает компаратор, совпадающий с порядком запроса.
+ *
+ * Вспомогательные методы:
+ * - key(boolean, double, String, String): Ключ комбинации параметров.
+ * - canPushDown(String): Можно ли выполнить комбинацию на сервере (для неё не было FAILED_PRECONDITION).
+ * - sortField(String, String), sortDirection(String, String): Поле и направление orderBy для сортировки.
+ *
+ * Вложенный класс:
+ * - Plan:
+ *   - Query query: Запрос с фильтрами и сортировкой (без ограничений по страницам).
+ *   - Comparator<Product> comparator: Порядок товаров в списке.
+ *   - boolean insertionsAtTop: Новые товары всегда попадают в начало (сортировка по времени добавления).
+ *   - boolean pushedDown: Выполняются ли фильтры и сортировка на сервере.
+ *   - String key: Ключ комбинации параметров.
+ *
+ * Логика:
+ * - Firestore поддерживает неравенства по нескольким полям вместе с orderBy по другому полю при наличии составного индекса.
+ *   Индексы для всех комбинаций фильтров и сортировок главной страницы описаны в firestore.indexes.json.
+ * - Если индекс не развёрнут, Firestore возвращает FAILED_PRECONDITION; такая комбинация до конца сессии
+ *   выполняется как раньше: страницы по времени добавления, фильтрация и сортировка загруженных товаров в памяти.
+ * - Фильтры в памяти применяются всегда (см. MainPage.buildFilter), поэтому перенесённые на сервер условия
+ *   лишь сокращают объём переданных документов и не меняют результат.
+ */
+
+public class ProductQueryPlanner {
+    private static final String TAG = "ProductQueryPlanner";
+    private final Set<String> unsupportedKeys = new HashSet<>();
+
+    public Plan plan(Query base, boolean inStock, double minRating, String priceSort, String quantitySort) {
+        String key = key(inStock, minRating, priceSort, quantitySort);
+        Comparator<Product> comparator = buildComparator(priceSort, quantitySort);
+
+        if (!canPushDown(key)) {
+            Log.d(TAG, "Фильтры выполняются в памяти: " + key);
+            Query query = base.orderBy("timestamp", Query.Direction.DESCENDING);
+            return new Plan(query, comparator, true, false, key);
+        }
+
+        Query query = base;
+        if (inStock) {
+            query = query.whereGreaterThan("quantity", 0);
+        }
+        if (minRating > 0.0) {
+            query = query.whereGreaterThanOrEqualTo("averageRating", minRating);
+        }
+        String sortField = sortField(priceSort, quantitySort);
+        query = query.orderBy(sortField, sortDirection(priceSort, quantitySort));
+        boolean insertionsAtTop = "timestamp".equals(sortField);
+        Log.d(TAG, "Фильтры и сортировка перенесены в запрос: " + key);
+        return new Plan(query, comparator, insertionsAtTop, true, key);
+    }
+
+    public boolean onQueryFailed(Plan plan, Exception e) {
+        if (plan.pushedDown && e instanceof FirebaseFirestoreException
+                && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.FAILED_PRECONDITION) {
+            Log.w(TAG, "Нет составного индекса для " + plan.key + ", переходим к фильтрации в памяти");
+            unsupportedKeys.add(plan.key);
+            return true;
+        }
+        return false;
+    }
+
+    static String key(boolean inStock, double minRating, String priceSort, String quantitySort) {
+        return inStock + "|" + minRating + "|" + priceSort + "|" + quantitySort;
+    }
+
+    boolean canPushDown(String key) {
+        return !unsupportedKeys.contains(key);
+    }
+
+    // Сортировка по цене важнее сортировки по количеству; без них - сначала новые
+    static String sortField(String priceSort, String quantitySort) {
+        if ("asc".equals(priceSort) || "desc".equals(priceSort)) {
+            return "price";
+        } else if ("asc".equals(quantitySort) || "desc".equals(quantitySort)) {
+            return "quantity";
+        }
+        return "timestamp";
+    }
+
+    static Query.Direction sortDirection(String priceSort, String quantitySort) {
+        String sort = "price".equals(sortField(priceSort, quantitySort)) ? priceSort : quantitySort;
+        return "asc".equals(sort) ? Query.Direction.ASCENDING : Query.Direction.DESCENDING;
+    }
+
+    // Порядок дополняется сравнением по ID, чтобы позицию товара можно было найти двоичным поиском
+    public static Comparator<Product> buildComparator(String priceSort, String quantitySort) {
+        Comparator<Product> comparator;
+        if ("asc".equals(priceSort)) {
+            comparator = Comparator.comparingInt(Product::getPrice);
+        } else if ("desc".equals(priceSort)) {
+            comparator = (p1, p2) -> Integer.compare(p2.getPrice(), p1.getPrice());
+        } else if ("asc".equals(quantitySort)) {
+            comparator = Comparator.comparingInt(Product::getQuantity);
+        } else if ("desc".equals(quantitySort)) {
+            comparator = (p1, p2) -> Integer.compare(p2.getQuantity(), p1.getQuantity());
+        } else {
+            comparator = PagedProductSource.NEWEST_FIRST;
+        }
+        return comparator.thenComparing(Product::getId);
+    }
+
+    public static class Plan {
+        final Query query;
+        final Comparator<Product> comparator;
+        final boolean insertionsAtTop;
+        final boolean pushedDown;
+        final String key;
+
+        Plan(Query query, Comparator<Product> comparator, boolean insertionsAtTop, boolean pushedDown, String key) {
+            this.query = query;
+            this.comparator = comparator;
+            this.insertionsAtTop = insertionsAtTop;
+            this.pushedDown = pushedDown;
+            this.key = key;
+        }
+    }
+}
\ No newline at end of file
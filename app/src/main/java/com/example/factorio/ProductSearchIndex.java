@@ -0,0 +1,147 @@
+package com.example.factorio;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * ProductSearchIndex - поисковый индекс каталога по префиксам слов в названиях товаров.
+ *
+ * Основные функции:
+ * - Хранение нормализованных слов названий (нижний регистр, "ё" заменяется на "е") в отсортированной карте.
+ * - Поиск товаров по префиксу без перебора всего каталога и без выделения строк для каждого товара.
+ * - Инкрементальное обновление при добавлении, изменении и удалении товаров.
+ *
+ * Поля:
+ * - NavigableMap<String, Set<Product>> postings: Слово -> товары, в названии которых оно встречается.
+ * - Map<String, Entry> entriesById: ID товара -> товар и слова его названия (для удаления и проверки одного товара).
+ *
+ * Методы:
+ * - clear(): Очищает индекс.
+ * - put(Product): Добавляет или обновляет товар в индексе.
+ * - remove(String): Удаляет товар из индекса.
+ * - search(String[]): Возвращает товары, у которых для каждого слова запроса есть слово названия с таким префиксом.
+ * - matches(Product, String[]): Проверяет один товар на соответствие запросу.
+ * - tokenize(String): Разбивает строку на нормализованные слова.
+ *
+ * Логика:
+ * - Индекс строится один раз по снимку каталога и дальше обновляется по изменениям документов.
+ * - Изменения приходят из основного потока, а поиск выполняется в ProductSearchPipeline, поэтому методы синхронизированы.
+ * - Префиксный запрос разрешается диапазоном subMap(prefix, prefix + Character.MAX_VALUE) в отсортированной карте.
+ */
+
+public class ProductSearchIndex {
+    private final NavigableMap<String, Set<Product>> postings = new TreeMap<>();
+    private final Map<String, Entry> entriesById = new HashMap<>();
+
+    public synchronized void clear() {
+        postings.clear();
+        entriesById.clear();
+    }
+
+    public synchronized void put(Product product) {
+        remove(product.getId());
+        String[] tokens = tokenize(product.getName());
+        entriesById.put(product.getId(), new Entry(product, tokens));
+        for (String token : tokens) {
+            Set<Product> products = postings.get(token);
+            if (products == null) {
+                products = new HashSet<>();
+                postings.put(token, products);
+            }
+            products.add(product);
+        }
+    }
+
+    public synchronized void remove(String productId) {
+        Entry entry = entriesById.remove(productId);
+        if (entry == null) {
+            return;
+        }
+        for (String token : entry.tokens) {
+            Set<Product> products = postings.get(token);
+            if (products != null) {
+                products.remove(entry.product);
+                if (products.isEmpty()) {
+                    postings.remove(token);
+                }
+            }
+        }
+    }
+
+    public synchronized List<Product> search(String[] queryTokens) {
+        Set<Product> result = null;
+        for (String prefix : queryTokens) {
+            Set<Product> matched = new HashSet<>();
+            for (Set<Product> products : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                matched.addAll(products);
+            }
+            if (result == null) {
+                result = matched;
+            } else {
+                result.retainAll(matched);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result != null ? new ArrayList<>(result) : new ArrayList<>();
+    }
+
+    public synchronized boolean matches(Product product, String[] queryTokens) {
+        Entry entry = entriesById.get(product.getId());
+        if (entry == null) {
+            return queryTokens.length == 0;
+        }
+        for (String prefix : queryTokens) {
+            boolean found = false;
+            for (String token : entry.tokens) {
+                if (token.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        String normalized = text.toLowerCase(Locale.ROOT).replace('ё', 'е');
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean boundary = i == normalized.length() || Character.isWhitespace(normalized.charAt(i));
+            if (boundary) {
+                if (start != -1) {
+                    tokens.add(normalized.substring(start, i));
+                    start = -1;
+                }
+            } else if (start == -1) {
+                start = i;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private static class Entry {
+        final Product product;
+        final String[] tokens;
+
+        Entry(Product product, String[] tokens) {
+            this.product = product;
+            this.tokens = tokens;
+        }
+    }
+}
\ No newline at end of file
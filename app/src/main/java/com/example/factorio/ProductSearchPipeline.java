@@ -0,0 +1,172 @@
+package com.example.factorio;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * ProductSearchPipeline - фоновый конвейер поиска, фильтрации и сортировки товаров главной страницы.
+ *
+ * Основные функции:
+ * - Откладывание запуска поиска до паузы в наборе текста (debounce).
+ * - Выполнение фильтрации и сортировки в фоновом потоке.
+ * - Отмена устаревших запросов при поступлении нового.
+ * - Сужение предыдущего результата, если новый запрос только дополняет старый.
+ * - Публикация результата в основной поток за один переход.
+ *
+ * Поля:
+ * - long DEBOUNCE_MS: Задержка перед запуском поиска при наборе текста.
+ * - Handler mainHandler: Для откладывания запросов и публикации результатов в основном потоке.
+ * - ExecutorService worker: Однопоточный исполнитель для фильтрации и сортировки.
+ * - AtomicInteger generation: Номер актуального запроса, по которому отменяются устаревшие.
+ * - ProductSearchIndex searchIndex: Префиксный индекс названий товаров.
+ * - OnResultsListener resultsListener: Получатель результатов в основном потоке.
+ * - Runnable pendingRequest: Отложенный запрос, ожидающий окончания debounce.
+ * - boolean running: Выполняется ли запрос в фоновом потоке.
+ * - String[] lastTokens, String lastFilterKey, List<Product> lastResults: Последний опубликованный результат для сужения.
+ *
+ * Методы:
+ * - submit(String[], String, Predicate<Product>, Comparator<Product>, List<Product>, boolean): Ставит запрос в очередь.
+ * - cancel(): Отменяет отложенный и выполняющийся запросы и сбрасывает базу для сужения.
+ * - shutdown(): Отменяет запросы и останавливает фоновый поток.
+ * - run(...): Выполняет фильтрацию и сортировку в фоновом потоке.
+ * - publish(int, ...): Публикует результат, если запрос не устарел.
+ * - isNarrowing(String[], String): Проверяет, можно ли сузить предыдущий результат.
+ *
+ * Интерфейс:
+ * - OnResultsListener: Для получения отфильтрованного и отсортированного списка.
+ *
+ * Логика:
+ * - Все методы, кроме run(), вызываются из основного потока.
+ * - Каждый новый запрос увеличивает generation; фоновая задача периодически сверяет свой номер и прекращает работу, если он устарел.
+ * - Если фильтры и сортировка не изменились, а каждое слово нового запроса продолжает соответствующее слово старого,
+ *   поиск идёт по предыдущему результату, который уже отсортирован, поэтому сортировка не требуется.
+ */
+
+public class ProductSearchPipeline {
+    private static final String TAG = "ProductSearchPipeline";
+    public static final long DEBOUNCE_MS = 150;
+    private static final int CANCEL_CHECK_INTERVAL = 256;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final AtomicInteger generation = new AtomicInteger();
+    private final ProductSearchIndex searchIndex;
+    private final OnResultsListener resultsListener;
+    private Runnable pendingRequest;
+    private boolean running;
+    private String[] lastTokens;
+    private String lastFilterKey;
+    private List<Product> lastResults;
+
+    public ProductSearchPipeline(ProductSearchIndex searchIndex, OnResultsListener resultsListener) {
+        this.searchIndex = searchIndex;
+        this.resultsListener = resultsListener;
+    }
+
+    public void submit(String[] queryTokens, String filterKey, Predicate<Product> filter,
+                       Comparator<Product> comparator, List<Product> catalog, boolean debounce) {
+        if (pendingRequest != null) {
+            mainHandler.removeCallbacks(pendingRequest);
+        }
+        int requestGeneration = generation.incrementAndGet();
+        pendingRequest = () -> {
+            pendingRequest = null;
+            List<Product> base = isNarrowing(queryTokens, filterKey) ? lastResults : null;
+            running = true;
+            worker.execute(() -> run(requestGeneration, queryTokens, filterKey, filter, comparator, catalog, base));
+        };
+        if (debounce) {
+            mainHandler.postDelayed(pendingRequest, DEBOUNCE_MS);
+        } else {
+            pendingRequest.run();
+        }
+    }
+
+    public boolean cancel() {
+        boolean hadWork = pendingRequest != null || running;
+        if (pendingRequest != null) {
+            mainHandler.removeCallbacks(pendingRequest);
+            pendingRequest = null;
+        }
+        generation.incrementAndGet();
+        running = false;
+        lastResults = null;
+        return hadWork;
+    }
+
+    public void shutdown() {
+        cancel();
+        worker.shutdownNow();
+    }
+
+    private void run(int requestGeneration, String[] queryTokens, String filterKey, Predicate<Product> filter,
+                     Comparator<Product> comparator, List<Product> catalog, List<Product> base) {
+        List<Product> candidates;
+        if (base != null) {
+            candidates = base;
+        } else if (queryTokens.length == 0) {
+            candidates = catalog;
+        } else {
+            candidates = searchIndex.search(queryTokens);
+        }
+
+        List<Product> results = new ArrayList<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (i % CANCEL_CHECK_INTERVAL == 0 && generation.get() != requestGeneration) {
+                return;
+            }
+            Product product = candidates.get(i);
+            boolean matchesQuery = base == null || searchIndex.matches(product, queryTokens);
+            if (matchesQuery && filter.test(product)) {
+                results.add(product);
+            }
+        }
+        if (base == null) {
+            // Предыдущий результат уже отсортирован тем же компаратором
+            Collections.sort(results, comparator);
+        }
+        if (generation.get() != requestGeneration) {
+            return;
+        }
+        mainHandler.post(() -> publish(requestGeneration, queryTokens, filterKey, results));
+    }
+
+    private void publish(int requestGeneration, String[] queryTokens, String filterKey, List<Product> results) {
+        if (generation.get() != requestGeneration) {
+            Log.d(TAG, "Результат устарел, пропускаем");
+            return;
+        }
+        running = false;
+        lastTokens = queryTokens;
+        lastFilterKey = filterKey;
+        lastResults = results;
+        resultsListener.onResults(results);
+    }
+
+    private boolean isNarrowing(String[] queryTokens, String filterKey) {
+        if (lastResults == null || !filterKey.equals(lastFilterKey) || lastTokens.length == 0
+                || queryTokens.length < lastTokens.length) {
+            return false;
+        }
+        for (int i = 0; i < lastTokens.length; i++) {
+            if (!queryTokens[i].startsWith(lastTokens[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public interface OnResultsListener {
+        void onResults(List<Product> results);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+package com.example.factorio;
+
+import android.util.LruCache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ProductStore - синглтон-класс, кэш последних полученных товаров в памяти процесса (LRU по ID).
+ *
+ * Основные функции:
+ * - Синхронная выдача товара по ID экранам, которые получают только productId (детали товара, избранное, корзина).
+ * - Пополнение из каждого снимка списков товаров (MainPage, CategoryProductsActivity, FavoritesActivity)
+ *   и из загрузок ProductDetailsActivity.
+ *
+ * Поля:
+ * - static ProductStore instance: Единственный экземпляр ProductStore (синглтон).
+ * - int MAX_PRODUCTS: Сколько товаров хранится в кэше.
+ * - LruCache<String, Product> products: ID товара -> копия товара.
+ *
+ * Методы:
+ * - getInstance(): Возвращает единственный экземпляр ProductStore.
+ * - get(String): Возвращает копию товара или null, если товара нет в кэше.
+ * - getAll(Collection<String>): Возвращает копии найденных в кэше товаров по списку ID.
+ * - put(Product): Сохраняет копию товара.
+ * - remove(String): Удаляет товар (например, после удаления документа).
+ *
+ * Логика:
+ * - Хранятся и выдаются копии: экраны меняют свои объекты Product (избранное, название категории, остаток),
+ *   и эти изменения не должны попадать в кэш и на другие экраны.
+ * - Кэш - это быстрый первый ответ, а не источник истины: экран, показавший товар из кэша, перепроверяет его
+ *   чтением из Firestore в фоне и обновляет отображение (ProductDetailsActivity).
+ * - Товары из открытых списков постоянно обновляются живыми слушателями, поэтому обычно совпадают с сервером.
+ * - Все методы вызываются из основного потока.
+ */
+
+public class ProductStore {
+    public static final int MAX_PRODUCTS = 300;
+    private static ProductStore instance;
+
+    private final LruCache<String, Product> products = new LruCache<>(MAX_PRODUCTS);
+
+    private ProductStore() {}
+
+    public static ProductStore getInstance() {
+        if (instance == null) {
+            instance = new ProductStore();
+        }
+        return instance;
+    }
+
+    public Product get(String productId) {
+        Product product = productId != null ? products.get(productId) : null;
+        return product != null ? new Product(product) : null;
+    }
+
+    public Map<String, Product> getAll(Collection<String> productIds) {
+        Map<String, Product> result = new HashMap<>();
+        for (String productId : productIds) {
+            Product product = get(productId);
+            if (product != null) {
+                result.put(productId, product);
+            }
+        }
+        return result;
+    }
+
+    public void put(Product product) {
+        if (product != null && product.getId() != null) {
+            products.put(product.getId(), new Product(product));
+        }
+    }
+
+    public void remove(String productId) {
+        products.remove(productId);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,138 @@
+package com.example.factorio;
+
+import android.content.Context;
+import android.os.Looper;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.asynclayoutinflater.view.AsyncLayoutInflater;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayDeque;
+
+/**
+ * ProductViewPool - общий для всего приложения запас карточек товаров (item_product).
+ *
+ * Основные функции:
+ * - Один RecycledViewPool для всех списков товаров (MainPage, CategoryProductsActivity, FavoritesActivity).
+ * - Заблаговременное создание карточек в фоновом потоке (AsyncLayoutInflater), когда основной поток простаивает.
+ *
+ * Поля:
+ * - static ProductViewPool instance: Единственный экземпляр ProductViewPool (создаётся в init()).
+ * - int DEFAULT_PREINFLATE_COUNT: Сколько карточек держать созданными заранее по умолчанию.
+ * - int MAX_PREINFLATE_COUNT: Ограничение запаса (очередь AsyncLayoutInflater вмещает 10 запросов).
+ * - int MAX_RECYCLED_VIEWS: Сколько карточек хранит общий RecycledViewPool.
+ * - Context inflationContext: Контекст приложения с темой Theme.Factorio, в котором создаются все карточки.
+ * - RecyclerView.RecycledViewPool recycledViewPool: Общий пул карточек.
+ * - ArrayDeque<View> preinflatedViews: Созданные заранее и ещё не использованные карточки.
+ * - int preinflateCount: Сколько карточек держать созданными заранее.
+ * - int pendingInflations: Сколько карточек создаётся сейчас.
+ * - boolean refillScheduled: Запланировано ли пополнение запаса.
+ *
+ * Методы:
+ * - init(Context): Создаёт единственный экземпляр ProductViewPool.
+ * - getInstance(): Возвращает единственный экземпляр ProductViewPool.
+ * - preinflate(int): Задаёт размер запаса и пополняет его, когда основной поток простаивает.
+ * - attach(RecyclerView): Подключает список товаров к общему пулу.
+ * - obtainView(ViewGroup): Возвращает карточку из запаса или создаёт её сразу, если запас пуст.
+ * - scheduleRefill(): Планирует пополнение запаса на время простоя основного потока.
+ *
+ * Логика:
+ * - Карточки создаются в контексте приложения, а не Activity: карточка из общего пула может достаться другому экрану,
+ *   поэтому она не должна удерживать закрытую Activity. По той же причине ProductAdapter отвязывает
+ *   обработчики нажатий в onViewRecycled().
+ * - AsyncLayoutInflater не подменяет Button на MaterialButton, как это делает AppCompatActivity,
+ *   поэтому в item_product MaterialButton указан явно - карточки выглядят одинаково при любом способе создания.
+ * - Списки возвращают карточки в общий пул при закрытии экрана (setRecycleChildrenOnDetach), а запас
+ *   пополняется после каждого использования, поэтому следующий открытый список карточки не создаёт.
+ * - Все методы вызываются из основного потока.
+ */
+
+public class ProductViewPool {
+    private static final String TAG = "ProductViewPool";
+    public static final int DEFAULT_PREINFLATE_COUNT = 6;
+    public static final int MAX_PREINFLATE_COUNT = 10;
+    public static final int MAX_RECYCLED_VIEWS = 12;
+    // ProductAdapter не переопределяет getItemViewType()
+    private static final int PRODUCT_VIEW_TYPE = 0;
+    private static ProductViewPool instance;
+
+    private final Context inflationContext;
+    private final RecyclerView.RecycledViewPool recycledViewPool = new RecyclerView.RecycledViewPool();
+    private final ArrayDeque<View> preinflatedViews = new ArrayDeque<>();
+    private int preinflateCount = 0;
+    private int pendingInflations = 0;
+    private boolean refillScheduled = false;
+
+    private ProductViewPool(Context context) {
+        inflationContext = new ContextThemeWrapper(context.getApplicationContext(), R.style.Theme_Factorio);
+        recycledViewPool.setMaxRecycledViews(PRODUCT_VIEW_TYPE, MAX_RECYCLED_VIEWS);
+    }
+
+    public static void init(Context context) {
+        if (instance == null) {
+            instance = new ProductViewPool(context);
+        }
+    }
+
+    public static ProductViewPool getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("ProductViewPool не инициализирован");
+        }
+        return instance;
+    }
+
+    public void preinflate(int count) {
+        preinflateCount = Math.max(0, Math.min(count, MAX_PREINFLATE_COUNT));
+        scheduleRefill();
+    }
+
+    public void attach(RecyclerView recyclerView) {
+        recyclerView.setRecycledViewPool(recycledViewPool);
+        RecyclerView.LayoutManager layoutManager = recyclerView.getLayoutManager();
+        if (layoutManager instanceof LinearLayoutManager) {
+            ((LinearLayoutManager) layoutManager).setRecycleChildrenOnDetach(true);
+        }
+    }
+
+    public View obtainView(ViewGroup parent) {
+        View view = preinflatedViews.poll();
+        scheduleRefill();
+        if (view != null) {
+            return view;
+        }
+        Log.d(TAG, "Запас карточек пуст, карточка создаётся в основном потоке");
+        return LayoutInflater.from(inflationContext).inflate(R.layout.item_product, parent, false);
+    }
+
+    private void scheduleRefill() {
+        if (refillScheduled || preinflatedViews.size() + pendingInflations >= preinflateCount) {
+            return;
+        }
+        refillScheduled = true;
+        Looper.myQueue().addIdleHandler(() -> {
+            refillScheduled = false;
+            int missing = preinflateCount - preinflatedViews.size() - pendingInflations;
+            if (missing <= 0) {
+                return false;
+            }
+            // Родитель нужен только для разбора layout_* атрибутов корневого элемента
+            FrameLayout parent = new FrameLayout(inflationContext);
+            AsyncLayoutInflater inflater = new AsyncLayoutInflater(inflationContext);
+            for (int i = 0; i < missing; i++) {
+                pendingInflations++;
+                inflater.inflate(R.layout.item_product, parent, (view, resid, viewParent) -> {
+                    pendingInflations--;
+                    preinflatedViews.add(view);
+                });
+            }
+            Log.d(TAG, "Создание карточек в фоне: " + missing);
+            return false;
+        });
+    }
+}
\ No newline at end of file
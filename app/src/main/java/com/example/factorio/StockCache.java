@@ -0,0 +1,104 @@
+package com.example.factorio;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StockCache - синглтон-класс, хранящий в памяти остатки товаров для проверок при изменении корзины.
+ *
+ * Основные функции:
+ * - Ответ на вопрос "сколько товара в наличии" без чтения документа из Firestore.
+ * - Заполнение из локального каталога (CatalogStore) при запуске и обновление живыми слушателями CatalogSync.
+ *
+ * Поля:
+ * - static StockCache instance: Единственный экземпляр StockCache (синглтон).
+ * - Map<String, Integer> quantities: ID товара -> количество в наличии.
+ * - boolean loaded: Прочитаны ли остатки из CatalogStore.
+ *
+ * Методы:
+ * - getInstance(): Возвращает единственный экземпляр StockCache.
+ * - load(): Читает остатки из CatalogStore (один раз за время жизни процесса).
+ * - getAvailableQuantity(String): Возвращает количество товара в наличии или null, если товар неизвестен.
+ * - getAvailableQuantity(String, int): То же, но со значением по умолчанию вместо null.
+ * - replaceAll(List<DocumentSnapshot>): Заменяет остатки результатом полной синхронизации.
+ * - applyChanges(List<DocumentSnapshot>, Collection<String>): Применяет изменённые и удалённые товары.
+ * - applyQuantities(Map<String, Integer>, Collection<String>): Применяет остатки, прочитанные напрямую
+ *   (проверка корзины, сумма шардов StockShards), и удалённые товары.
+ *
+ * Логика:
+ * - Кнопки "Купить" и "+" и CartManager проверяют остаток здесь, поэтому нажатие срабатывает сразу,
+ *   а не после одного-двух последовательных чтений Firestore.
+ * - Остаток может немного отставать от сервера, поэтому окончательная проверка выполняется один раз
+ *   при оформлении заказа (CheckoutActivity).
+ * - Для неизвестного товара (каталог ещё не синхронизирован) возвращается null, и вызывающий код читает Firestore как раньше.
+ * - Все методы вызываются из основного потока.
+ */
+
+public class StockCache {
+    private static final String TAG = "StockCache";
+    private static StockCache instance;
+
+    private final Map<String, Integer> quantities = new HashMap<>();
+    private boolean loaded = false;
+
+    private StockCache() {}
+
+    public static StockCache getInstance() {
+        if (instance == null) {
+            instance = new StockCache();
+        }
+        return instance;
+    }
+
+    // Вызывается до CatalogSync.start(): чтение попадает в очередь CatalogStore раньше записей синхронизации
+    public void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        CatalogStore.getInstance().loadStock(stock -> {
+            for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+                quantities.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            Log.d(TAG, "Остатки загружены из каталога, товаров: " + stock.size());
+        });
+    }
+
+    public Integer getAvailableQuantity(String productId) {
+        return quantities.get(productId);
+    }
+
+    public int getAvailableQuantity(String productId, int defaultQuantity) {
+        Integer quantity = quantities.get(productId);
+        return quantity != null ? quantity : defaultQuantity;
+    }
+
+    void replaceAll(List<DocumentSnapshot> documents) {
+        quantities.clear();
+        applyChanges(documents, Collections.emptyList());
+    }
+
+    void applyChanges(List<DocumentSnapshot> upserts, Collection<String> deletedIds) {
+        for (String productId : deletedIds) {
+            quantities.remove(productId);
+        }
+        for (DocumentSnapshot document : upserts) {
+            Long quantity = document.getLong("quantity");
+            quantities.put(document.getId(), quantity != null ? quantity.intValue() : 0);
+        }
+    }
+
+    void applyQuantities(Map<String, Integer> upserts, Collection<String> deletedIds) {
+        for (String productId : deletedIds) {
+            quantities.remove(productId);
+        }
+        quantities.putAll(upserts);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,206 @@
+package com.example.factorio;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * StockShards - распределённый (шардированный) остаток для "горячих" товаров.
+ *
+ * Основные функции:
+ * - Хранение остатка товара в N документах products/{id}/stock_shards/{0..N-1} вместо одного поля quantity,
+ *   чтобы одновременные покупки одного товара списывали остаток с разных документов.
+ * - Списание в транзакции оформления заказа со случайно выбранного шарда, где хватает товара.
+ * - Чтение полного остатка суммированием шардов.
+ * - Переключение товара между обычным и шардированным режимом и перераспределение остатка.
+ *
+ * Поля:
+ * - String SHARD_COUNT: Поле документа товара с числом шардов (нет поля или 0 - обычный режим).
+ * - String SHARDS: Подколлекция шардов остатка.
+ * - String QUANTITY: Поле остатка в документе товара и в документе шарда.
+ * - int DEFAULT_SHARD_COUNT: Число шардов при включении режима.
+ * - Random random: Выбор первого шарда для списания.
+ *
+ * Методы:
+ * - shardCountOf(DocumentSnapshot): Возвращает число шардов товара (0 - обычный режим).
+ * - loadQuantity(String): Читает и суммирует остаток всех шардов товара.
+ * - enable(String), disable(String): Включает и выключает шардированный режим, сохраняя текущий остаток.
+ * - updateProduct(String, Map<String, Object>, int): Записывает поля товара и новый остаток одной транзакцией
+ *   (изменение товара администратором): в шардированном режиме остаток перераспределяется по шардам.
+ * - planDecrement(Transaction, DocumentSnapshot, int): Читает в транзакции то, что нужно для списания,
+ *   и возвращает план списания или null, если товара не хватает.
+ *
+ * Вспомогательные методы:
+ * - reshard(String, int, Integer, Map<String, Object>): Транзакция, переписывающая шарды и поля товара.
+ * - shard(DocumentReference, int): Ссылка на документ шарда.
+ *
+ * Вложенный класс:
+ * - Decrement: План списания одного товара; apply(Transaction) выполняет записи.
+ *
+ * Логика:
+ * - В обычном режиме списывается поле quantity документа товара, как раньше.
+ * - В шардированном режиме документ товара при покупке только читается, а списание начинается со случайного
+ *   шарда; если в нём не хватает товара, берётся остаток следующих шардов по кругу. Обычно транзакция
+ *   читает и пишет один шард, и покупки одного товара конфликтуют примерно в N раз реже.
+ * - Все чтения транзакции выполняются до записей, поэтому план списания строится до первой записи.
+ * - Контракт поля quantity документа товара в шардированном режиме: транзакция оформления заказа читает документ
+ *   товара (цена, наличие), поэтому он не переписывается после каждого заказа. Функция syncShardedStock
+ *   (functions/index.js) записывает в quantity сумму шардов только тогда, когда товар закончился или снова
+ *   появился, - фильтр "в наличии", CatalogStore и StockCache через CatalogSync узнают об этом сразу.
+ *   Само число функция refreshShardedStock обновляет не чаще раза в несколько минут, поэтому в списках оно
+ *   может отставать; точный остаток (карточка товара, проверка корзины, оформление заказа, редактирование
+ *   администратором) всегда берётся суммой шардов.
+ * - Перераспределение - одна транзакция: остаток делится поровну, лишние шарды удаляются.
+ * - Число шардов всегда читается в транзакции, а не берётся из Product на экране: устаревшая копия товара
+ *   не может ни стереть stockShards, ни оставить шарды без владельца. Поля товара пишутся через
+ *   SetOptions.merge(), поэтому поля, которых нет в форме (stockShards, averageRating), сохраняются.
+ */
+
+public final class StockShards {
+    public static final String SHARD_COUNT = "stockShards";
+    public static final String SHARDS = "stock_shards";
+    public static final String QUANTITY = "quantity";
+    public static final int DEFAULT_SHARD_COUNT = 10;
+    private static final Random random = new Random();
+
+    private StockShards() {}
+
+    public static int shardCountOf(DocumentSnapshot product) {
+        Long shardCount = product.getLong(SHARD_COUNT);
+        return shardCount != null ? shardCount.intValue() : 0;
+    }
+
+    public static Task<Integer> loadQuantity(String productId) {
+        return FirebaseFirestore.getInstance().collection("products").document(productId).collection(SHARDS)
+                .get()
+                .continueWith(task -> {
+                    int quantity = 0;
+                    for (QueryDocumentSnapshot shard : task.getResult()) {
+                        Long shardQuantity = shard.getLong(QUANTITY);
+                        quantity += shardQuantity != null ? shardQuantity.intValue() : 0;
+                    }
+                    return quantity;
+                });
+    }
+
+    public static Task<Void> enable(String productId) {
+        return reshard(productId, DEFAULT_SHARD_COUNT, null, Collections.emptyMap());
+    }
+
+    public static Task<Void> disable(String productId) {
+        return reshard(productId, 0, null, Collections.emptyMap());
+    }
+
+    public static Task<Void> updateProduct(String productId, Map<String, Object> productFields, int quantity) {
+        return reshard(productId, -1, quantity, productFields);
+    }
+
+    // newShardCount == -1 - оставить текущее число шардов; newQuantity == null - сохранить текущий остаток
+    private static Task<Void> reshard(String productId, int newShardCount, Integer newQuantity,
+                                      Map<String, Object> productFields) {
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        DocumentReference productRef = db.collection("products").document(productId);
+        return db.runTransaction(transaction -> {
+            DocumentSnapshot product = transaction.get(productRef);
+            if (!product.exists()) {
+                throw new FirebaseFirestoreException("Товар не найден", FirebaseFirestoreException.Code.NOT_FOUND);
+            }
+            int oldShardCount = shardCountOf(product);
+            int shardCount = newShardCount >= 0 ? newShardCount : oldShardCount;
+            long quantity;
+            if (newQuantity != null) {
+                quantity = newQuantity;
+            } else if (oldShardCount > 0) {
+                quantity = 0;
+                for (int i = 0; i < oldShardCount; i++) {
+                    Long shardQuantity = transaction.get(shard(productRef, i)).getLong(QUANTITY);
+                    quantity += shardQuantity != null ? shardQuantity : 0;
+                }
+            } else {
+                Long productQuantity = product.getLong(QUANTITY);
+                quantity = productQuantity != null ? productQuantity : 0;
+            }
+
+            for (int i = 0; i < shardCount; i++) {
+                Map<String, Object> shardData = new HashMap<>();
+                shardData.put(QUANTITY, quantity / shardCount + (i < quantity % shardCount ? 1 : 0));
+                transaction.set(shard(productRef, i), shardData);
+            }
+            for (int i = shardCount; i < oldShardCount; i++) {
+                transaction.delete(shard(productRef, i));
+            }
+            Map<String, Object> productData = new HashMap<>(productFields);
+            productData.put(QUANTITY, quantity);
+            productData.put(SHARD_COUNT, shardCount > 0 ? shardCount : FieldValue.delete());
+            productData.put(CatalogSync.UPDATED_AT, FieldValue.serverTimestamp());
+            transaction.set(productRef, productData, SetOptions.merge());
+            return null;
+        });
+    }
+
+    static Decrement planDecrement(Transaction transaction, DocumentSnapshot product, int amount)
+            throws FirebaseFirestoreException {
+        DocumentReference productRef = product.getReference();
+        int shardCount = shardCountOf(product);
+        Map<DocumentReference, Long> writes = new LinkedHashMap<>();
+        if (shardCount <= 0) {
+            Long quantity = product.getLong(QUANTITY);
+            if (quantity == null || quantity < amount) {
+                return null;
+            }
+            writes.put(productRef, quantity - amount);
+            return new Decrement(false, writes);
+        }
+        long remaining = amount;
+        int start = random.nextInt(shardCount);
+        for (int i = 0; i < shardCount && remaining > 0; i++) {
+            DocumentReference shardRef = shard(productRef, (start + i) % shardCount);
+            Long shardQuantity = transaction.get(shardRef).getLong(QUANTITY);
+            long available = shardQuantity != null ? shardQuantity : 0;
+            if (available <= 0) {
+                continue;
+            }
+            long taken = Math.min(available, remaining);
+            writes.put(shardRef, available - taken);
+            remaining -= taken;
+        }
+        return remaining == 0 ? new Decrement(true, writes) : null;
+    }
+
+    private static DocumentReference shard(DocumentReference productRef, int index) {
+        return productRef.collection(SHARDS).document(String.valueOf(index));
+    }
+
+    static final class Decrement {
+        private final boolean sharded;
+        private final Map<DocumentReference, Long> quantities;
+
+        private Decrement(boolean sharded, Map<DocumentReference, Long> quantities) {
+            this.sharded = sharded;
+            this.quantities = quantities;
+        }
+
+        void apply(Transaction transaction) {
+            for (Map.Entry<DocumentReference, Long> entry : quantities.entrySet()) {
+                if (sharded) {
+                    transaction.update(entry.getKey(), QUANTITY, entry.getValue());
+                } else {
+                    transaction.update(entry.getKey(), QUANTITY, entry.getValue(),
+                            CatalogSync.UPDATED_AT, FieldValue.serverTimestamp());
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
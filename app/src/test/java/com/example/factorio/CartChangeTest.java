@@ -0,0 +1,140 @@
+package com.example.factorio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.example.factorio.CartFixtures.item;
+import static org.junit.Assert.*;
+
+/**
+ * CartChangeTest - вычисление изменений между двумя версиями CartSnapshot.
+ */
+public class CartChangeTest {
+
+    @Test
+    public void sameSnapshot_hasNoChanges() {
+        CartSnapshot cart = CartSnapshot.EMPTY.withItem(item("a", 100, 1));
+
+        assertTrue(CartChange.between(cart, cart, null).isEmpty());
+    }
+
+    @Test
+    public void addedItem() {
+        CartSnapshot previous = CartSnapshot.EMPTY;
+        CartSnapshot current = previous.withItem(item("a", 100, 2));
+
+        CartChange change = single(CartChange.between(previous, current, Collections.singletonList("a")));
+
+        assertEquals(CartChange.Type.ITEM_ADDED, change.getType());
+        assertEquals(0, change.getPreviousQuantity());
+        assertEquals(2, change.getCurrentQuantity());
+        assertNull(change.getPreviousItem());
+        assertSame(previous, change.getPreviousCart());
+    }
+
+    @Test
+    public void quantityOnlyChange() {
+        CartSnapshot previous = CartSnapshot.EMPTY.withItem(item("a", 100, 1));
+        CartSnapshot current = previous.withItem(item("a", 100, 3));
+
+        CartChange change = single(CartChange.between(previous, current, Collections.singletonList("a")));
+
+        assertEquals(CartChange.Type.QUANTITY_CHANGED, change.getType());
+        assertEquals(1, change.getPreviousQuantity());
+        assertEquals(3, change.getCurrentQuantity());
+    }
+
+    @Test
+    public void priceNameOrImageChange_isItemUpdated() {
+        CartSnapshot previous = CartSnapshot.EMPTY.withItem(item("a", 100, 1));
+
+        assertEquals(CartChange.Type.ITEM_UPDATED, single(CartChange.between(previous,
+                previous.withItem(item("a", 120, 1)), null)).getType());
+        assertEquals(CartChange.Type.ITEM_UPDATED, single(CartChange.between(previous,
+                previous.withItem(new CartItem("a", "Новое название", 100, 1, null)), null)).getType());
+        assertEquals(CartChange.Type.ITEM_UPDATED, single(CartChange.between(previous,
+                previous.withItem(new CartItem("a", "Товар a", 100, 1, "https://example.com/a.png")), null)).getType());
+    }
+
+    @Test
+    public void priceAndQuantityChange_isItemUpdatedWithBothQuantities() {
+        CartSnapshot previous = CartSnapshot.EMPTY.withItem(item("a", 100, 1));
+        CartSnapshot current = previous.withItem(item("a", 120, 4));
+
+        CartChange change = single(CartChange.between(previous, current, null));
+
+        assertEquals(CartChange.Type.ITEM_UPDATED, change.getType());
+        assertEquals(1, change.getPreviousQuantity());
+        assertEquals(4, change.getCurrentQuantity());
+    }
+
+    @Test
+    public void removedItem() {
+        CartSnapshot previous = CartSnapshot.EMPTY.withItem(item("a", 100, 1)).withItem(item("b", 100, 1));
+        CartSnapshot current = previous.withoutItem("a");
+
+        CartChange change = single(CartChange.between(previous, current, null));
+
+        assertEquals(CartChange.Type.ITEM_REMOVED, change.getType());
+        assertEquals("a", change.getProductId());
+        assertNull(change.getCurrentItem());
+    }
+
+    @Test
+    public void equalContentInNewItem_isNotAChange() {
+        CartSnapshot previous = CartSnapshot.EMPTY.withItem(item("a", 100, 1));
+        CartSnapshot current = previous.withItem(item("a", 100, 1));
+
+        assertTrue(CartChange.between(previous, current, null).isEmpty());
+    }
+
+    @Test
+    public void clearingNonEmptyCart_isSingleClearedEvent() {
+        CartSnapshot previous = CartSnapshot.EMPTY.withItem(item("a", 100, 1)).withItem(item("b", 100, 1));
+        CartSnapshot current = previous.withItems(Collections.emptyList());
+
+        CartChange change = single(CartChange.between(previous, current, null));
+
+        assertEquals(CartChange.Type.CLEARED, change.getType());
+        assertNull(change.getProductId());
+        assertSame(previous, change.getPreviousCart());
+        assertTrue(CartChange.between(CartSnapshot.EMPTY, CartSnapshot.EMPTY.withItems(Collections.emptyList()), null)
+                .isEmpty());
+    }
+
+    @Test
+    public void fullDiff_reportsEveryChangedProduct() {
+        CartSnapshot previous = CartSnapshot.EMPTY.withItems(Arrays.asList(
+                item("a", 100, 1), item("b", 100, 1), item("c", 100, 1)));
+        CartSnapshot current = previous.withItems(Arrays.asList(
+                item("a", 100, 1), item("b", 100, 2), item("d", 100, 1)));
+
+        List<CartChange> changes = CartChange.between(previous, current, null);
+
+        assertEquals(3, changes.size());
+        assertEquals(CartChange.Type.QUANTITY_CHANGED, changes.get(0).getType());
+        assertEquals("b", changes.get(0).getProductId());
+        assertEquals(CartChange.Type.ITEM_REMOVED, changes.get(1).getType());
+        assertEquals("c", changes.get(1).getProductId());
+        assertEquals(CartChange.Type.ITEM_ADDED, changes.get(2).getType());
+        assertEquals("d", changes.get(2).getProductId());
+    }
+
+    @Test
+    public void productIds_limitComparison() {
+        CartSnapshot previous = CartSnapshot.EMPTY.withItem(item("a", 100, 1)).withItem(item("b", 100, 1));
+        CartSnapshot current = previous.withItem(item("a", 100, 2)).withItem(item("b", 100, 2));
+
+        CartChange change = single(CartChange.between(previous, current, Collections.singletonList("b")));
+
+        assertEquals("b", change.getProductId());
+    }
+
+    private static CartChange single(List<CartChange> changes) {
+        assertEquals(1, changes.size());
+        return changes.get(0);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,14 @@
+package com.example.factorio;
+
+/**
+ * CartFixtures - общие тестовые данные для тестов корзины.
+ */
+final class CartFixtures {
+
+    private CartFixtures() {
+    }
+
+    static CartItem item(String productId, int price, int quantity) {
+        return new CartItem(productId, "Товар " + productId, price, quantity, null);
+    }
+}
\ No newline at end of file
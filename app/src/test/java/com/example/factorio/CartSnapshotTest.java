@@ -0,0 +1,121 @@
+package com.example.factorio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.example.factorio.CartFixtures.item;
+import static org.junit.Assert.*;
+
+/**
+ * CartSnapshotTest - номер версии, порядок элементов и согласованность итогов CartSnapshot с полным пересчётом.
+ */
+public class CartSnapshotTest {
+
+    @Test
+    public void empty_hasVersionZero() {
+        assertEquals(0L, CartSnapshot.EMPTY.getVersion());
+        assertTrue(CartSnapshot.EMPTY.isEmpty());
+        assertTrue(CartSnapshot.EMPTY.getItems().isEmpty());
+    }
+
+    @Test
+    public void everyChange_incrementsVersion() {
+        CartSnapshot first = CartSnapshot.EMPTY.withItem(item("a", 100, 1));
+        CartSnapshot second = first.withItem(item("a", 100, 2));
+        CartSnapshot third = second.withoutItem("a");
+
+        assertEquals(1L, first.getVersion());
+        assertEquals(2L, second.getVersion());
+        assertEquals(3L, third.getVersion());
+        assertEquals(1, first.getQuantity("a"));
+    }
+
+    @Test
+    public void withoutMissingItem_returnsSameSnapshot() {
+        CartSnapshot cart = CartSnapshot.EMPTY.withItem(item("a", 100, 1));
+
+        assertSame(cart, cart.withoutItem("missing"));
+    }
+
+    @Test
+    public void withItem_keepsPositionOfReplacedItem() {
+        CartSnapshot cart = CartSnapshot.EMPTY
+                .withItem(item("a", 100, 1))
+                .withItem(item("b", 200, 1))
+                .withItem(item("c", 300, 1))
+                .withItem(item("a", 100, 5));
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(cart.getItems()));
+        assertEquals(5, cart.getQuantity("a"));
+    }
+
+    @Test
+    public void getItems_isCachedAndUnmodifiable() {
+        CartSnapshot cart = CartSnapshot.EMPTY.withItem(item("a", 100, 1));
+
+        assertSame(cart.getItems(), cart.getItems());
+        try {
+            cart.getItems().add(item("b", 100, 1));
+            fail("Список элементов снимка должен быть неизменяемым");
+        } catch (UnsupportedOperationException expected) {
+            assertEquals(1, cart.size());
+        }
+    }
+
+    @Test
+    public void withChanges_appliesUpsertsAndRemovals() {
+        CartSnapshot cart = CartSnapshot.EMPTY.withItems(Arrays.asList(item("a", 100, 1), item("b", 200, 2)));
+        Map<String, CartItem> changes = new LinkedHashMap<>();
+        changes.put("a", null);
+        changes.put("b", item("b", 250, 3));
+        changes.put("c", item("c", 50, 4));
+
+        CartSnapshot changed = cart.withChanges(changes);
+
+        assertEquals(cart.getVersion() + 1, changed.getVersion());
+        assertEquals(Arrays.asList("b", "c"), ids(changed.getItems()));
+        assertNull(changed.getItem("a"));
+        assertTotalsMatchRecount(changed);
+    }
+
+    @Test
+    public void incrementalTotals_matchRecountAfterMixedChanges() {
+        CartSnapshot cart = CartSnapshot.EMPTY;
+        cart = cart.withItem(item("a", 150, 3));
+        assertTotalsMatchRecount(cart);
+        cart = cart.withItem(item("b", 99, 2));
+        assertTotalsMatchRecount(cart);
+        cart = cart.withItem(item("a", 175, 1));
+        assertTotalsMatchRecount(cart);
+        cart = cart.withoutItem("b");
+        assertTotalsMatchRecount(cart);
+        Map<String, CartItem> changes = new HashMap<>();
+        changes.put("a", null);
+        changes.put("d", item("d", 1_000, 7));
+        cart = cart.withChanges(changes);
+        assertTotalsMatchRecount(cart);
+        cart = cart.withItems(Arrays.asList(item("x", 10, 1), item("y", 20, 2)));
+        assertTotalsMatchRecount(cart);
+        assertEquals(6L, cart.getVersion());
+    }
+
+    private static void assertTotalsMatchRecount(CartSnapshot cart) {
+        CartTotals recounted = CartTotals.of(cart.getItems());
+        assertEquals(recounted.getItemCount(), cart.getTotals().getItemCount());
+        assertEquals(recounted.getSubtotalMinor(), cart.getTotals().getSubtotalMinor());
+        assertEquals(cart.getItems().size(), cart.size());
+    }
+
+    private static List<String> ids(List<CartItem> items) {
+        String[] ids = new String[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            ids[i] = items.get(i).getProductId();
+        }
+        return Arrays.asList(ids);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+package com.example.factorio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.example.factorio.CartFixtures.item;
+import static org.junit.Assert.*;
+
+/**
+ * CartTotalsTest - суммы корзины в копейках, округление комиссии и инкрементальное обновление итогов.
+ */
+public class CartTotalsTest {
+
+    @Test
+    public void of_sumsLinesInMinorUnits() {
+        CartTotals totals = CartTotals.of(Arrays.asList(item("a", 150, 3), item("b", 99, 2)));
+
+        assertEquals(5, totals.getItemCount());
+        assertEquals(64_800L, totals.getSubtotalMinor());
+        assertEquals(648L, totals.getSubtotal());
+    }
+
+    @Test
+    public void of_emptyCart() {
+        CartTotals totals = CartTotals.of(Collections.emptyList());
+
+        assertEquals(0, totals.getItemCount());
+        assertEquals(0L, totals.getTotalMinor(CartTotals.PaymentMethod.CARD));
+    }
+
+    @Test
+    public void commission_cardRoundsDownToWholeRubles() {
+        CartTotals totals = CartTotals.of(Collections.singletonList(item("a", 150, 3)));
+
+        // 5% от 450 руб. = 22,50 руб. - комиссия округляется вниз до 22 руб.
+        assertEquals(2_200L, totals.getCommissionMinor(CartTotals.PaymentMethod.CARD));
+        assertEquals(22L, totals.getCommission(CartTotals.PaymentMethod.CARD));
+        assertEquals(47_200L, totals.getTotalMinor(CartTotals.PaymentMethod.CARD));
+        assertEquals(472L, totals.getTotal(CartTotals.PaymentMethod.CARD));
+    }
+
+    @Test
+    public void commission_belowOneRubleIsZero() {
+        CartTotals totals = CartTotals.of(Collections.singletonList(item("a", 19, 1)));
+
+        assertEquals(0L, totals.getCommissionMinor(CartTotals.PaymentMethod.CARD));
+        assertEquals(19L, totals.getTotal(CartTotals.PaymentMethod.CARD));
+    }
+
+    @Test
+    public void commission_exactPercentIsKept() {
+        CartTotals totals = CartTotals.of(Collections.singletonList(item("a", 100, 1)));
+
+        assertEquals(500L, totals.getCommissionMinor(CartTotals.PaymentMethod.CARD));
+        assertEquals(105L, totals.getTotal(CartTotals.PaymentMethod.CARD));
+    }
+
+    @Test
+    public void commission_cashIsFree() {
+        CartTotals totals = CartTotals.of(Collections.singletonList(item("a", 150, 3)));
+
+        assertEquals(0L, totals.getCommissionMinor(CartTotals.PaymentMethod.CASH));
+        assertEquals(450L, totals.getTotal(CartTotals.PaymentMethod.CASH));
+    }
+
+    @Test
+    public void subtotal_doesNotOverflowInt() {
+        CartTotals totals = CartTotals.of(Collections.singletonList(item("a", Integer.MAX_VALUE, 1_000)));
+
+        assertEquals((long) Integer.MAX_VALUE * 100 * 1_000, totals.getSubtotalMinor());
+        assertEquals((long) Integer.MAX_VALUE * 1_000, totals.getSubtotal());
+    }
+
+    @Test
+    public void plusAndMinus_matchFullRecount() {
+        CartItem first = item("a", 150, 3);
+        CartItem second = item("b", 99, 2);
+        CartItem secondUpdated = item("b", 120, 4);
+
+        CartTotals incremental = CartTotals.of(Arrays.asList(first, second)).minus(second).plus(secondUpdated);
+        CartTotals recounted = CartTotals.of(Arrays.asList(first, secondUpdated));
+
+        assertEquals(recounted.getItemCount(), incremental.getItemCount());
+        assertEquals(recounted.getSubtotalMinor(), incremental.getSubtotalMinor());
+        assertEquals(0L, CartTotals.of(Collections.singletonList(first)).minus(first).getSubtotalMinor());
+    }
+}
\ No newline at end of file
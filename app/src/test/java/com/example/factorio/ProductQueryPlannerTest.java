@@ -0,0 +1,125 @@
+package com.example.factorio;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.Query;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ProductQueryPlannerTest - выбор сортировки запроса, откат к фильтрации в памяти и компаратор списка.
+ */
+public class ProductQueryPlannerTest {
+
+    @Test
+    public void sortField_pricePreferredOverQuantity() {
+        assertEquals("price", ProductQueryPlanner.sortField("asc", "desc"));
+        assertEquals("price", ProductQueryPlanner.sortField("desc", "none"));
+        assertEquals("quantity", ProductQueryPlanner.sortField("none", "asc"));
+        assertEquals("timestamp", ProductQueryPlanner.sortField("none", "none"));
+        assertEquals("timestamp", ProductQueryPlanner.sortField(null, null));
+    }
+
+    @Test
+    public void sortDirection_followsSelectedSort() {
+        assertEquals(Query.Direction.ASCENDING, ProductQueryPlanner.sortDirection("asc", "desc"));
+        assertEquals(Query.Direction.DESCENDING, ProductQueryPlanner.sortDirection("desc", "asc"));
+        assertEquals(Query.Direction.ASCENDING, ProductQueryPlanner.sortDirection("none", "asc"));
+        assertEquals(Query.Direction.DESCENDING, ProductQueryPlanner.sortDirection("none", "none"));
+    }
+
+    @Test
+    public void onQueryFailed_missingIndexSwitchesCombinationToMemory() {
+        ProductQueryPlanner planner = new ProductQueryPlanner();
+        String key = ProductQueryPlanner.key(true, 4.0, "asc", "none");
+        assertTrue(planner.canPushDown(key));
+
+        boolean fallback = planner.onQueryFailed(plan(key, true),
+                new FirebaseFirestoreException("index", FirebaseFirestoreException.Code.FAILED_PRECONDITION));
+
+        assertTrue(fallback);
+        assertFalse(planner.canPushDown(key));
+        assertTrue(planner.canPushDown(ProductQueryPlanner.key(true, 4.0, "desc", "none")));
+    }
+
+    @Test
+    public void onQueryFailed_otherErrorsKeepPushDown() {
+        ProductQueryPlanner planner = new ProductQueryPlanner();
+        String key = ProductQueryPlanner.key(false, 0.0, "none", "desc");
+
+        assertFalse(planner.onQueryFailed(plan(key, true),
+                new FirebaseFirestoreException("offline", FirebaseFirestoreException.Code.UNAVAILABLE)));
+        assertFalse(planner.onQueryFailed(plan(key, true), new IllegalStateException("other")));
+        assertTrue(planner.canPushDown(key));
+    }
+
+    @Test
+    public void onQueryFailed_fallbackPlanIsNotMarkedAgain() {
+        ProductQueryPlanner planner = new ProductQueryPlanner();
+        String key = ProductQueryPlanner.key(false, 0.0, "asc", "none");
+
+        assertFalse(planner.onQueryFailed(plan(key, false),
+                new FirebaseFirestoreException("index", FirebaseFirestoreException.Code.FAILED_PRECONDITION)));
+        assertTrue(planner.canPushDown(key));
+    }
+
+    @Test
+    public void buildComparator_priceAscendingWithIdTieBreak() {
+        List<Product> products = sorted(ProductQueryPlanner.buildComparator("asc", "none"),
+                product("b", 200, 1, null), product("c", 100, 1, null), product("a", 200, 1, null));
+
+        assertEquals(Arrays.asList("c", "a", "b"), ids(products));
+    }
+
+    @Test
+    public void buildComparator_quantityDescending() {
+        List<Product> products = sorted(ProductQueryPlanner.buildComparator("none", "desc"),
+                product("a", 100, 1, null), product("b", 100, 5, null), product("c", 100, 3, null));
+
+        assertEquals(Arrays.asList("b", "c", "a"), ids(products));
+    }
+
+    @Test
+    public void buildComparator_fallbackNewestFirstWithUnsavedOnTop() {
+        List<Product> products = sorted(ProductQueryPlanner.buildComparator("none", "none"),
+                product("old", 100, 1, new Timestamp(1_000, 0)),
+                product("new", 100, 1, new Timestamp(2_000, 0)),
+                product("unsaved", 100, 1, null));
+
+        assertEquals(Arrays.asList("unsaved", "new", "old"), ids(products));
+    }
+
+    private static ProductQueryPlanner.Plan plan(String key, boolean pushedDown) {
+        return new ProductQueryPlanner.Plan(null, PagedProductSource.NEWEST_FIRST, false, pushedDown, key);
+    }
+
+    private static Product product(String id, int price, int quantity, Timestamp timestamp) {
+        Product product = new Product();
+        product.setId(id);
+        product.setPrice(price);
+        product.setQuantity(quantity);
+        product.setTimestamp(timestamp);
+        return product;
+    }
+
+    private static List<Product> sorted(Comparator<Product> comparator, Product... products) {
+        List<Product> list = new ArrayList<>(Arrays.asList(products));
+        list.sort(comparator);
+        return list;
+    }
+
+    private static List<String> ids(List<Product> products) {
+        List<String> ids = new ArrayList<>();
+        for (Product product : products) {
+            ids.add(product.getId());
+        }
+        return ids;
+    }
+}
\ No newline at end of file
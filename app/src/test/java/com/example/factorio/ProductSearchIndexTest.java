@@ -0,0 +1,113 @@
+package com.example.factorio;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ProductSearchIndexTest - разбиение названий на слова и поиск по префиксам в ProductSearchIndex.
+ */
+public class ProductSearchIndexTest {
+    private ProductSearchIndex index;
+
+    @Before
+    public void setUp() {
+        index = new ProductSearchIndex();
+    }
+
+    @Test
+    public void tokenize_normalizesCaseAndYo() {
+        assertArrayEquals(new String[]{"зеленый", "еж"}, ProductSearchIndex.tokenize("ЗЕЛЁНЫЙ Ёж"));
+    }
+
+    @Test
+    public void tokenize_splitsOnAnyWhitespace() {
+        assertArrayEquals(new String[]{"конвейер", "mk2"}, ProductSearchIndex.tokenize("  Конвейер\t\nMK2  "));
+    }
+
+    @Test
+    public void tokenize_emptyAndNull() {
+        assertEquals(0, ProductSearchIndex.tokenize(null).length);
+        assertEquals(0, ProductSearchIndex.tokenize("").length);
+        assertEquals(0, ProductSearchIndex.tokenize("   ").length);
+    }
+
+    @Test
+    public void search_matchesWordPrefixes() {
+        index.put(product("1", "Быстрый конвейер"));
+        index.put(product("2", "Конвейерный манипулятор"));
+        index.put(product("3", "Медная пластина"));
+
+        assertEquals(Arrays.asList("1", "2"), ids(index.search(new String[]{"конв"})));
+        assertEquals(Arrays.asList("2"), ids(index.search(new String[]{"конвейерн"})));
+        assertEquals(Arrays.asList("3"), ids(index.search(new String[]{"мед"})));
+    }
+
+    @Test
+    public void search_requiresEveryQueryToken() {
+        index.put(product("1", "Быстрый конвейер"));
+        index.put(product("2", "Быстрый манипулятор"));
+
+        assertEquals(Arrays.asList("1"), ids(index.search(ProductSearchIndex.tokenize("быс конв"))));
+        assertTrue(index.search(ProductSearchIndex.tokenize("быс пласт")).isEmpty());
+    }
+
+    @Test
+    public void search_doesNotMatchInsideWords() {
+        index.put(product("1", "Быстрый конвейер"));
+
+        assertTrue(index.search(new String[]{"вейер"}).isEmpty());
+    }
+
+    @Test
+    public void put_replacesOldTokens() {
+        index.put(product("1", "Медная пластина"));
+        index.put(product("1", "Железная пластина"));
+
+        assertTrue(index.search(new String[]{"мед"}).isEmpty());
+        assertEquals(Arrays.asList("1"), ids(index.search(new String[]{"жел"})));
+    }
+
+    @Test
+    public void remove_dropsProductFromResults() {
+        index.put(product("1", "Медная пластина"));
+        index.put(product("2", "Медный провод"));
+        index.remove("1");
+
+        assertEquals(Arrays.asList("2"), ids(index.search(new String[]{"мед"})));
+        assertTrue(index.search(new String[]{"пласт"}).isEmpty());
+    }
+
+    @Test
+    public void matches_checksSingleProduct() {
+        Product product = product("1", "Быстрый конвейер");
+        index.put(product);
+
+        assertTrue(index.matches(product, ProductSearchIndex.tokenize("КОНВ быст")));
+        assertFalse(index.matches(product, ProductSearchIndex.tokenize("конв мед")));
+        assertTrue(index.matches(product("2", "Не в индексе"), new String[0]));
+        assertFalse(index.matches(product("2", "Не в индексе"), new String[]{"не"}));
+    }
+
+    private static Product product(String id, String name) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName(name);
+        return product;
+    }
+
+    private static List<String> ids(List<Product> products) {
+        List<String> ids = new ArrayList<>();
+        for (Product product : products) {
+            ids.add(product.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
\ No newline at end of file
@@ -2,9 +2,13 @@ const functions = require("firebase-functions");
 const admin = require("firebase-admin");
 const PDFDocument = require("pdfkit");
 const nodemailer = require("nodemailer");
+const {onDocumentWritten} = require("firebase-functions/v2/firestore");
+const {onSchedule} = require("firebase-functions/v2/scheduler");
 
 admin.initializeApp();
 
+const STOCK_REFRESH_SCHEDULE = "every 5 minutes";
+
 // Настройка Nodemailer (используем Gmail как пример)
 const transporter = nodemailer.createTransport({
   service: "gmail",
@@ -74,3 +78,120 @@ exports.sendOrderReceipt = functions.firestore
     doc.end();
     return null;
   });
+
+// Шардированный остаток (products/{id}/stock_shards, см. StockShards в
+// приложении). Транзакция оформления заказа читает документ товара, поэтому
+// каждая его запись конфликтует с идущими заказами. Документ товара
+// переписывается только тогда, когда товар закончился или снова появился:
+// фильтр "в наличии", CatalogStore и StockCache узнают об этом сразу.
+// Число в quantity между этими моментами обновляет refreshShardedStock.
+// Шарды читаются вне транзакции: транзакция Admin SDK блокировала бы их
+// и задерживала списания. Устаревшая сумма исправляется следующим
+// срабатыванием (каждое списание снова запускает функцию) или
+// refreshShardedStock.
+exports.syncShardedStock = onDocumentWritten(
+  "products/{productId}/stock_shards/{shardId}",
+  async (event) => {
+    const db = admin.firestore();
+    const productRef = db.collection("products").doc(event.params.productId);
+    const product = await productRef.get();
+    if (!product.exists || !(product.get("stockShards") > 0)) {
+      return;
+    }
+    const quantity = await sumShards(productRef);
+    const stored = product.get("quantity") || 0;
+    if ((quantity > 0) === (stored > 0)) {
+      return;
+    }
+    await writeShardedQuantity(product, quantity);
+  });
+
+// Число в quantity шардированных товаров обновляется не чаще раза в
+// STOCK_REFRESH_SCHEDULE, чтобы документ, который читают заказы,
+// не переписывался после каждого заказа.
+exports.refreshShardedStock = onSchedule(STOCK_REFRESH_SCHEDULE, async () => {
+  const products = await admin.firestore().collection("products")
+    .where("stockShards", ">", 0)
+    .get();
+  await Promise.all(products.docs.map(async (product) => {
+    const quantity = await sumShards(product.ref);
+    if (product.get("quantity") !== quantity) {
+      await writeShardedQuantity(product, quantity);
+    }
+  }));
+});
+
+/**
+ * Суммирует остаток всех шардов товара.
+ * @param {DocumentReference} productRef Документ товара.
+ * @return {Promise<number>} Сумма шардов.
+ */
+async function sumShards(productRef) {
+  const shards = await productRef.collection("stock_shards").get();
+  let quantity = 0;
+  shards.forEach((shard) => {
+    quantity += shard.get("quantity") || 0;
+  });
+  return quantity;
+}
+
+/**
+ * Записывает остаток в документ товара, если тот не изменился после чтения
+ * (иначе изменение администратора не затирается, а сумму запишет следующий
+ * запуск). updatedAt доставляет изменение до CatalogSync.
+ * @param {DocumentSnapshot} product Прочитанный документ товара.
+ * @param {number} quantity Сумма шардов.
+ * @return {Promise<void>}
+ */
+async function writeShardedQuantity(product, quantity) {
+  try {
+    await product.ref.update({
+      quantity: quantity,
+      updatedAt: admin.firestore.FieldValue.serverTimestamp(),
+    }, {lastUpdateTime: product.updateTime});
+  } catch (error) {
+    console.warn(`Остаток ${product.id} не записан: ${error.message}`);
+  }
+}
+
+// Постраничные запросы каталога сортируются по timestamp, а Firestore не
+// возвращает документы без поля сортировки. Товару, записанному без timestamp
+// (например, вручную из консоли), проставляется время создания документа.
+// Дельта-синхронизация каталога (CatalogSync) читает товары по updatedAt,
+// поэтому изменение, не сдвинувшее updatedAt (консоль, скрипты, другие
+// функции), тоже получает серверное время. Эта запись сама меняет updatedAt,
+// так что следующий вызов функции ничего не пишет.
+exports.ensureProductTimestamp = onDocumentWritten(
+  "products/{productId}",
+  async (event) => {
+    const before = event.data.before;
+    const product = event.data.after;
+    if (!product.exists) {
+      return;
+    }
+    const fields = {};
+    if (product.get("timestamp") == null) {
+      fields.timestamp = product.createTime;
+    }
+    const updatedAt = product.get("updatedAt");
+    if (fields.timestamp != null || updatedAt == null ||
+        (before.exists && sameTime(before.get("updatedAt"), updatedAt))) {
+      fields.updatedAt = admin.firestore.FieldValue.serverTimestamp();
+    }
+    if (Object.keys(fields).length > 0) {
+      await product.ref.update(fields);
+    }
+  });
+
+/**
+ * Сравнивает два значения Timestamp, допуская отсутствие поля.
+ * @param {?admin.firestore.Timestamp} a Первое значение.
+ * @param {?admin.firestore.Timestamp} b Второе значение.
+ * @return {boolean} true, если значения совпадают.
+ */
+function sameTime(a, b) {
+  if (a == null || b == null) {
+    return a == null && b == null;
+  }
+  return a.isEqual(b);
+}